@@ -0,0 +1,276 @@
+package uk.ac.ed.inf;
+
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.Polygon;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Class that holds the no-fly-zones in a form that is quick to test moves against. The zone edges are extracted from
+ * the GeoJSON polygons once, and the confinement area is rasterized into an OccupancyGrid so that most moves can be
+ * accepted with a few bit lookups. An Airspace is immutable once built, so it can be shared between flights.
+ */
+public class Airspace
+{
+    private final ArrayList<Polygon> noFlyZones;
+    private final double[] edgeStartLongs;
+    private final double[] edgeStartLats;
+    private final double[] edgeEndLongs;
+    private final double[] edgeEndLats;
+    private final OccupancyGrid grid;
+    private final EdgeBatch edgeBatch;
+    private final FreeRunTable freeRunTable;
+    private CostToHomeField costToHome;
+    // set -Dilp.edgeKernel=reference to test edges one at a time with linesIntersect instead of with the EdgeBatch
+    private static final boolean USE_REFERENCE_KERNEL = "reference".equals(System.getProperty("ilp.edgeKernel"));
+
+    /**
+     * Class constructor. Extracts the edges of every no-fly-zone and rasterizes them over the confinement area.
+     * @param noFlyZones the no-fly-zones from /buildings/no-fly-zones.geojson
+     */
+    public Airspace(ArrayList<Polygon> noFlyZones)
+    {
+        this.noFlyZones = noFlyZones;
+
+        int edgeCount = 0;
+        for (Polygon poly : noFlyZones)
+        {
+            edgeCount += poly.coordinates().get(0).size() - 1;
+        }
+
+        edgeStartLongs = new double[edgeCount];
+        edgeStartLats = new double[edgeCount];
+        edgeEndLongs = new double[edgeCount];
+        edgeEndLats = new double[edgeCount];
+
+        int e = 0;
+        for (Polygon poly : noFlyZones)
+        {
+            List<Point> co_ords = poly.coordinates().get(0);
+            for (int i = 0; i < co_ords.size() - 1; i++)
+            {
+                edgeStartLongs[e] = co_ords.get(i).longitude();
+                edgeStartLats[e] = co_ords.get(i).latitude();
+                edgeEndLongs[e] = co_ords.get(i + 1).longitude();
+                edgeEndLats[e] = co_ords.get(i + 1).latitude();
+                e++;
+            }
+        }
+
+        edgeBatch = new EdgeBatch(edgeStartLongs, edgeStartLats, edgeEndLongs, edgeEndLats);
+        grid = new OccupancyGrid(edgeStartLongs, edgeStartLats, edgeEndLongs, edgeEndLats);
+        freeRunTable = new FreeRunTable(grid, edgeStartLongs, edgeEndLongs);
+    }
+
+    /**
+     * Method that returns whether the line between two points breaches any of the no-fly-zones. Moves whose bounding
+     * box contains no boundary cell of the occupancy grid are answered without testing any edges, and the rest are
+     * tested against every edge at once by the EdgeBatch kernel.
+     * @param point1 the first point
+     * @param point2 the second point
+     * @return true if no-fly-zone is breached, false otherwise
+     */
+    public boolean lineEntersNoFlyZone(LongLat point1, LongLat point2)
+    {
+        if (grid.moveIsClear(point1, point2)) { return false; }
+        return edgesCrossedBy(point1, point2);
+    }
+
+    /**
+     * Variant of lineEntersNoFlyZone that records the check in a planning profile.
+     * @param point1 the first point
+     * @param point2 the second point
+     * @param profile the profile of the leg being planned
+     * @return true if no-fly-zone is breached, false otherwise
+     */
+    public boolean lineEntersNoFlyZone(LongLat point1, LongLat point2, PlanningProfile profile)
+    {
+        if (grid.moveIsClear(point1, point2))
+        {
+            profile.recordLineCheck(0);
+            return false;
+        }
+        profile.recordLineCheck(edgeStartLongs.length);
+        return edgesCrossedBy(point1, point2);
+    }
+
+    /**
+     * Tests a move against every no-fly-zone edge, with the EdgeBatch kernel or the reference loop.
+     * @param point1 the first point of the move
+     * @param point2 the second point of the move
+     * @return true if any edge is crossed, false otherwise
+     */
+    private boolean edgesCrossedBy(LongLat point1, LongLat point2)
+    {
+        if (!USE_REFERENCE_KERNEL) { return edgeBatch.crossedBy(point1, point2); }
+
+        for (int e = 0; e < edgeStartLongs.length; e++)
+        {
+            if (linesIntersect(point1, point2,
+                    new LongLat(edgeStartLongs[e], edgeStartLats[e]),
+                    new LongLat(edgeEndLongs[e], edgeEndLats[e])))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Calculates a hash of the no-fly-zone edges, which changes whenever any zone changes.
+     * @return the CRC32 checksum of every edge co-ordinate, with the number of edges in the upper 32 bits
+     */
+    public long getZoneHash()
+    {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(4 * Double.BYTES);
+        for (int e = 0; e < edgeStartLongs.length; e++)
+        {
+            buffer.clear();
+            buffer.putDouble(edgeStartLongs[e]).putDouble(edgeStartLats[e]).putDouble(edgeEndLongs[e])
+                    .putDouble(edgeEndLats[e]);
+            crc.update(buffer.array());
+        }
+        return (long)edgeStartLongs.length << 32 | crc.getValue();
+    }
+
+    /**
+     * Calculates the distance from a point to the nearest no-fly-zone, or 0 if the point is inside one.
+     * @param longitude the longitude of the point
+     * @param latitude the latitude of the point
+     * @return the distance to the nearest edge of a no-fly-zone
+     */
+    public double distanceToNoFlyZone(double longitude, double latitude)
+    {
+        if (contains(longitude, latitude)) { return 0; }
+        double nearest = Double.MAX_VALUE;
+        for (int e = 0; e < edgeStartLongs.length; e++)
+        {
+            double dx = edgeEndLongs[e] - edgeStartLongs[e];
+            double dy = edgeEndLats[e] - edgeStartLats[e];
+            double lengthSquared = dx * dx + dy * dy;
+            double t = lengthSquared == 0 ? 0 : ((longitude - edgeStartLongs[e]) * dx +
+                    (latitude - edgeStartLats[e]) * dy) / lengthSquared;
+            t = Math.max(0, Math.min(1, t));
+            nearest = Math.min(nearest, Math.hypot(edgeStartLongs[e] + t * dx - longitude,
+                    edgeStartLats[e] + t * dy - latitude));
+        }
+        return nearest;
+    }
+
+    /**
+     * Retrieves the number of moves that can be made in a straight line from a point without any chance of breaching a
+     * no-fly-zone, so that lineEntersNoFlyZone does not need to be called for them.
+     * @param point the starting point
+     * @param angle the angle of the moves
+     * @return the number of moves that are certainly clear
+     */
+    public int freeMovesFrom(LongLat point, int angle) { return freeRunTable.freeMovesFrom(point, angle); }
+
+    /**
+     * Retrieves the field of estimated move counts back to Appleton Tower. The field is built the first time it is
+     * needed and then shared by every flight using this airspace.
+     * @return the cost-to-home field
+     */
+    public synchronized CostToHomeField getCostToHome()
+    {
+        if (costToHome == null) { costToHome = new CostToHomeField(this, Flight.APPLETON_TOWER); }
+        return costToHome;
+    }
+
+    /**
+     * Returns whether a point lies inside any of the no-fly-zones, using the even-odd rule.
+     * @param longitude the longitude of the point
+     * @param latitude the latitude of the point
+     * @return true if the point is inside a no-fly-zone, false otherwise
+     */
+    public boolean contains(double longitude, double latitude)
+    {
+        for (Polygon poly : noFlyZones)
+        {
+            List<Point> co_ords = poly.coordinates().get(0);
+            boolean inside = false;
+            for (int i = 0, j = co_ords.size() - 1; i < co_ords.size(); j = i++)
+            {
+                double xi = co_ords.get(i).longitude();
+                double yi = co_ords.get(i).latitude();
+                double xj = co_ords.get(j).longitude();
+                double yj = co_ords.get(j).latitude();
+                if ((yi > latitude) != (yj > latitude) &&
+                        longitude < (xj - xi) * (latitude - yi) / (yj - yi) + xi)
+                {
+                    inside = !inside;
+                }
+            }
+            if (inside) { return true; }
+        }
+        return false;
+    }
+
+    /**
+     * Method that returns whether the lines between two pairs of points intersect.
+     * @param line1Point1 the first point of the first pair
+     * @param line1Point2 the second point of the first pair
+     * @param line2Point1 the first point of the second pair
+     * @param line2Point2 the second point of the second pair
+     * @return true if the lines intersect, false otherwise
+     */
+    static boolean linesIntersect(LongLat line1Point1, LongLat line1Point2, LongLat line2Point1, LongLat line2Point2)
+    {
+        // for this function I will treat coordinates as if longitude is the x value, and latitude is the y value
+
+        // if these lines do not exist in the same x interval, they cannot intersect
+        if (Math.max(line1Point1.getLongitude(), line1Point2.getLongitude()) <
+                Math.min(line2Point1.getLongitude(), line2Point2.getLongitude())) { return false; }
+
+        // if the lines are vertical, when calculating the line gradient there will be a division by 0. This if statement
+        // anticipates this and handles the cases where either line is vertical
+        if (line1Point1.getLongitude() == line1Point2.getLongitude() && line2Point1.getLongitude() == line2Point2.getLongitude())
+        {
+            return false;
+        }
+        else if (line1Point1.getLongitude() == line1Point2.getLongitude())
+        {
+            if (line2Point1.getLongitude() > line1Point1.getLongitude() != line2Point2.getLongitude() > line1Point1.getLongitude())
+            {
+                return true;
+            }
+        }
+        else if (line2Point1.getLongitude() == line2Point2.getLongitude())
+        {
+            if (line1Point1.getLongitude() > line2Point1.getLongitude() != line1Point2.getLongitude() > line2Point1.getLongitude())
+            {
+                return true;
+            }
+        }
+
+        //calculate line gradients
+        double m1 = (line1Point1.getLatitude() - line1Point2.getLatitude()) /
+                (line1Point1.getLongitude() - line1Point2.getLongitude());
+
+        double m2 = (line2Point1.getLatitude() - line2Point2.getLatitude()) /
+                (line2Point1.getLongitude() - line2Point2.getLongitude());
+
+        if (m1 == m2) { return false; } // if the lines have the same gradient, they are parallel and so cannot intersect
+
+        //get y intercepts
+        double c1 = line1Point1.getLatitude() - m1 * line1Point1.getLongitude();
+        double c2 = line2Point1.getLatitude() - m2 * line2Point1.getLongitude();
+
+        //get the x value of the line intersection
+        double intersectionXVal = (c2 - c1) / (m1 - m2);
+
+        //if the intersection value calculated is within the overlapping x values, the lines must intersect
+        if (intersectionXVal >
+                Math.max(Math.min(line1Point1.getLongitude(), line1Point2.getLongitude()), Math.min(line2Point1.getLongitude(), line2Point2.getLongitude())) &&
+                (intersectionXVal <
+                        Math.min(Math.max(line1Point1.getLongitude(), line1Point2.getLongitude()), Math.max(line2Point1.getLongitude(), line2Point2.getLongitude()))))
+        {
+            return true;
+        }
+        return false;
+    }
+}
@@ -1,11 +1,17 @@
 package uk.ac.ed.inf;
 
-import com.google.gson.Gson;
 import com.mapbox.geojson.*;
 import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.sql.Date;
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * This class contains the main method within which all functionality is contained, and which starts the program
@@ -15,13 +21,31 @@ import java.util.Objects;
 public class App
 {
     private final static String MACHINE = "localhost";
-    private static long startTime;
     public static SQLClient database;
     public static WebClient webServer;
 
-    private static ArrayList<Order> orders = new ArrayList<>();
     private static final ArrayList<LongLat> landmarks = new ArrayList<>();
     private static final ArrayList<Polygon> noFlyZones = new ArrayList<>();
+    // number of drones to plan for, set with -Dilp.drones=N (a single drone by default)
+    private static final int DRONE_COUNT = Integer.getInteger("ilp.drones", 1);
+    // hold output rows in memory and bulk-import them at the end of the run, set with -Dilp.bulkImport=true
+    private static final boolean BULK_IMPORT = Boolean.getBoolean("ilp.bulkImport");
+    // choose which orders to deliver, and their sequence, to maximise the value delivered, set with -Dilp.select=true
+    private static final boolean SELECT_ORDERS = Boolean.getBoolean("ilp.select");
+    // world snapshot file to load the static inputs from instead of the web server, set with -Dilp.snapshot=<file>
+    private static final String SNAPSHOT_FILE = System.getProperty("ilp.snapshot");
+    // append output rows to the run-partitioned tables instead of recreating the per-run ones, set with
+    // -Dilp.runTables=true
+    private static final boolean RUN_TABLES = Boolean.getBoolean("ilp.runTables");
+    // days for which runs are kept in the run-partitioned tables, set with -Dilp.retentionDays=N (kept forever by default)
+    private static final int RETENTION_DAYS = Integer.getInteger("ilp.retentionDays", 0);
+    // local port to stream committed moves to dispatchers on as server-sent events, set with -Dilp.streamPort=N
+    private static final Integer STREAM_PORT = Integer.getInteger("ilp.streamPort");
+    private static MoveStreamServer moveStream;
+    // file to keep the paths between shops and Appleton Tower in across runs, set with -Dilp.routeTable=<file>
+    private static final String ROUTE_TABLE_FILE = System.getProperty("ilp.routeTable");
+    private static RouteTable routeTable;
+    private static Airspace routeTableAirspace;
 
     /**
      * The main method of the program, and the initial method called. Processes the command line arguments and decides
@@ -30,8 +54,39 @@ public class App
      */
     public static void main(String[] args)
     {
+        if (args.length > 0 && args[0].equals("convert-flightlog"))
+        {
+            convertFlightLog(args[1], args[2]);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("build-snapshot"))
+        {
+            buildSnapshot(args[1], args[2]);
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("benchmark"))
+        {
+            benchmark(args[1], args[2], args[3], args[4], args[5], args.length > 6 ? args[6] : null);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("history"))
+        {
+            history(args[1], args[2], args[3], args[4], args.length > 5 ? args[5] : null);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("stress"))
+        {
+            stress(args[1]);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("serve"))
+        {
+            serve(args[1], args[2], Integer.parseInt(args[3]));
+            return;
+        }
 
-        startTime = System.nanoTime();
+        long runStart = System.nanoTime();
 
         String day = args[0];
         String month = args[1];
@@ -39,58 +94,476 @@ public class App
         String serverPort = args[3];
         String databasePort = args[4];
 
+        //create the server client to be used for this run
+        webServer = new WebClient(MACHINE, serverPort);
+
+        //create the sql client to be used for this run
+        database = connectToDatabase(databasePort);
+
+        //take the menus and the landmark and no-fly zone locations from the world snapshot if there is a valid one,
+        //otherwise start fetching them while the orders are queried
+        CompletableFuture<ArrayList<Shop>> menus;
+        CompletableFuture<Void> buildingInfo;
+        WorldSnapshot world = loadSnapshot();
+        if (world != null)
+        {
+            world.preloadShopLocations();
+            landmarks.addAll(world.getLandmarks());
+            noFlyZones.addAll(world.getNoFlyZones());
+            menus = CompletableFuture.completedFuture(world.getShops());
+            buildingInfo = CompletableFuture.completedFuture(null);
+        }
+        else
+        {
+            menus = CompletableFuture.supplyAsync(webServer::getMenus);
+            buildingInfo = CompletableFuture.runAsync(App::retrieveBuildingInfo);
+        }
+
+        //compile the no-fly-zones once for all flights, as soon as their locations are known
+        CompletableFuture<Airspace> airspace = buildingInfo.thenApply(v -> new Airspace(noFlyZones));
+
+        try
+        {
+            planDay(day, month, year, menus, airspace, runStart);
+        } catch (IllegalArgumentException e)
+        {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        } catch (WebRequestException | CompletionException e)
+        {
+            //a request that failed for good, possibly while the orders or buildings were being loaded in the background
+            System.err.println(WebClient.CONNECTION_ERROR_MESSAGE);
+            e.printStackTrace();
+            System.exit(1);
+        } catch (IllegalStateException e)
+        {
+            System.err.println("Planning failed for " + day + "-" + month + "-" + year);
+            e.printStackTrace();
+            System.exit(1);
+        }
+        //a single run has nothing more to stream, and the stream's threads would otherwise keep the program running
+        if (moveStream != null) { moveStream.stop(); }
+    }
+
+    /**
+     * Plans the flight for a single day: retrieves and resolves that day's orders, plans the flight or fleet, writes
+     * the output tables, GeoJSON file and flight logs, and prints the performance analysis. The database and web
+     * server clients must already be set up. With -Dilp.runTables=true every run writes under its own run id, so days
+     * can be planned at the same time when plansConcurrently allows it; otherwise runs share the output tables, so
+     * only one run may plan at a time.
+     * @param day the day of the flight
+     * @param month the month of the flight
+     * @param year the year of the flight
+     * @param menus the contents of menus.json, which may still be loading
+     * @param airspace the compiled no-fly-zones, which may still be loading
+     * @param runStart the System.nanoTime at which the run started, used for the runtime in the analysis
+     * @return the flightpath and the figures from the performance analysis
+     * @throws IllegalArgumentException if the date is invalid or there are no orders on that date
+     * @throws IllegalStateException if the database cannot be read or written, or the move stream cannot be started
+     */
+    static PlanningResult planDay(String day, String month, String year, CompletableFuture<ArrayList<Shop>> menus,
+                          CompletableFuture<Airspace> airspace, long runStart)
+    {
         String outputFileName = "drone-" +
                 day + "-" +
                 month + "-" +
                 year + ".geojson";
+        String flightLogFileName = "drone-" +
+                day + "-" +
+                month + "-" +
+                year;
 
-        //create the server client to be used for this run
+        //fetch the orders from the database
+        Date sqlDate;
+        try
+        {
+            sqlDate = Date.valueOf(year + "-" + month + "-" + day);
+        } catch (IllegalArgumentException e)
+        {
+            throw new IllegalArgumentException("Invalid date input. Please check your values and try again.");
+        }
+        ArrayList<Order> orders = database.retrieveOrders(sqlDate);
+
+        if (orders.size() == 0)
+        {
+            throw new IllegalArgumentException("No orders found relating to date: " + day + "-" + month + "-" + year +
+                    System.lineSeparator() + "Path cannot be calculated");
+        }
+
+        //resolve the order details in the background, publishing each order to the planner once it is ready
+        OrderPipeline pipeline = new OrderPipeline(orders, menus, database);
+
+        //create the output database tables, or start a new run in the run-partitioned ones
+        SQLClient.Run run = null;
+        if (RUN_TABLES)
+        {
+            run = database.startRun(sqlDate);
+            if (RETENTION_DAYS > 0) { database.purgeRunsOlderThan(RETENTION_DAYS); }
+        }
+        else
+        {
+            if (DRONE_COUNT > 1)
+            {
+                database.createTable("deliveries",
+                        "orderNo char(8)",
+                        "deliveredTo varchar(19)",
+                        "costInPence int",
+                        "droneId integer");
+                database.createTable("flightpath",
+                        "orderNo char(8)",
+                        "fromLongitude double",
+                        "fromLatitude double",
+                        "angle integer",
+                        "toLongitude double",
+                        "toLatitude double",
+                        "droneId integer");
+            }
+            else
+            {
+                database.createTable("deliveries",
+                        "orderNo char(8)",
+                        "deliveredTo varchar(19)",
+                        "costInPence int");
+                database.createTable("flightpath",
+                        "orderNo char(8)",
+                        "fromLongitude double",
+                        "fromLatitude double",
+                        "angle integer",
+                        "toLongitude double",
+                        "toLatitude double");
+            }
+        }
+
+        database.setBulkMode(BULK_IMPORT);
+        MoveStreamServer stream = getMoveStream();
+        if (stream != null) { stream.dayStarted(sqlDate.toString()); }
+        RouteTable routes = getRouteTable(airspace);
+
+        PlanningResult result;
+        if (DRONE_COUNT > 1)
+        {
+            //the orders are split between the drones by location, so every order must be resolved first
+            FleetPlanner fleet = new FleetPlanner(pipeline.awaitAll(), airspace.join(), DRONE_COUNT, SELECT_ORDERS);
+            fleet.setMoveSink(stream);
+            fleet.setRouteTable(routes);
+            fleet.setRun(run);
+            String flightPath = fleet.generateFlightPaths();
+            reportGeoJSONFileWrite(writeGeoJSONFile(outputFileName, flightPath));
+            for (Flight flight : fleet.getFlights())
+            {
+                writeFlightLog(flightLogFileName + "-" + flight.getDroneId() + ".flightlog", year, month, day, flight);
+            }
+            writeProfiles(flightLogFileName + ".profile.json", fleet.getFlights());
+
+            database.flushBulkRows();
+
+            System.out.println("Analysis of fleet of " + DRONE_COUNT + " drones for " + day + "-" + month + "-" + year);
+            int placedOrderCost = pipeline.getTotalPlacedOrderCost();
+            performanceAnalysis(fleet, runStart, placedOrderCost);
+            result = new PlanningResult(flightPath, fleet.getMoveCount(), fleet.getMovesSavedByShortcuts(),
+                    fleet.getTotalDeliveredOrderCost(), placedOrderCost);
+        }
+        else
+        {
+            //selecting orders needs every order resolved, otherwise planning starts as soon as the first one is ready
+            Iterable<Order> plannedOrders = pipeline;
+            if (SELECT_ORDERS)
+            {
+                plannedOrders = new OrderSelector(pipeline.awaitAll(), airspace.join(), Flight.MAX_MOVE_COUNT).select();
+            }
+            Flight flight = new Flight(plannedOrders, airspace.join(), Flight.SINGLE_DRONE_ID);
+            flight.setMoveSink(stream);
+            flight.setRouteTable(routes);
+            flight.setRun(run);
+            String flightPath = flight.generateFlightPath();
+            reportGeoJSONFileWrite(writeGeoJSONFile(outputFileName, flightPath));
+            writeFlightLog(flightLogFileName + ".flightlog", year, month, day, flight);
+            writeProfiles(flightLogFileName + ".profile.json", List.of(flight));
+
+            database.flushBulkRows();
+            //the flight may stop early, so this waits for the orders it never reached as well
+            int placedOrderCost = pipeline.getTotalPlacedOrderCost();
+
+            System.out.println("Analysis of flight for " + day + "-" + month + "-" + year);
+            performanceAnalysis(flight, runStart, placedOrderCost);
+            result = new PlanningResult(flightPath, flight.getMoveCount(), flight.getMovesSavedByShortcuts(),
+                    flight.totalDeliveredOrderCost, placedOrderCost);
+        }
+
+        if (stream != null) { stream.dayComplete(); }
+        if (routes != null) { saveRouteTable(routes); }
+        return result;
+    }
+
+    /**
+     * Checks whether planDay may be called for different days at the same time. This needs the run-partitioned tables,
+     * as the per-run tables are recreated by every run, and no move stream, as the stream frames the legs it sends by
+     * a single day at a time.
+     * @return true if days can be planned concurrently
+     */
+    static boolean plansConcurrently() { return RUN_TABLES && STREAM_PORT == null; }
+
+    /**
+     * Retrieves the route table, loading it the first time it is needed. The table is shared by every day planned in
+     * this process, and is reloaded if the no-fly-zones have been compiled again since.
+     * @param airspace the compiled no-fly-zones, which may still be loading
+     * @return the route table, or null if no route table file is set
+     */
+    private static synchronized RouteTable getRouteTable(CompletableFuture<Airspace> airspace)
+    {
+        if (ROUTE_TABLE_FILE == null) { return null; }
+        if (routeTable == null || routeTableAirspace != airspace.join())
+        {
+            routeTableAirspace = airspace.join();
+            routeTable = new RouteTable(ROUTE_TABLE_FILE, routeTableAirspace);
+        }
+        return routeTable;
+    }
+
+    /**
+     * Writes the route table back to its file and prints how many paths were taken from it. Failing to write the table
+     * is reported but does not stop the run.
+     * @param routes the route table
+     */
+    private static void saveRouteTable(RouteTable routes)
+    {
+        System.out.println("Route table hits so far: " + routes.getHits() + ", misses: " + routes.getMisses());
+        try
+        {
+            routes.save();
+        } catch (Exception e)
+        {
+            System.err.println("Route table could not be written: " + ROUTE_TABLE_FILE);
+        }
+    }
+
+    /**
+     * Retrieves the server that streams committed moves to dispatchers, starting it the first time it is needed. The
+     * server is shared by every day planned in this process.
+     * @return the server, or null if streaming is not enabled
+     * @throws IllegalStateException if the server cannot be started
+     */
+    private static synchronized MoveStreamServer getMoveStream()
+    {
+        if (STREAM_PORT == null || moveStream != null) { return moveStream; }
+        try
+        {
+            moveStream = new MoveStreamServer(STREAM_PORT);
+            System.out.println("Streaming moves on port " + STREAM_PORT);
+        } catch (IOException e)
+        {
+            throw new IllegalStateException("Move stream could not be started on port " + STREAM_PORT, e);
+        }
+        return moveStream;
+    }
+
+    /**
+     * Creates the database client, exiting if the database cannot be connected to. Only called while the program
+     * starts, before any day is planned.
+     * @param databasePort the port of the database
+     * @return the database client
+     */
+    private static SQLClient connectToDatabase(String databasePort)
+    {
+        try
+        {
+            return new SQLClient(MACHINE, databasePort);
+        } catch (IllegalStateException e)
+        {
+            System.err.println(e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+        assert false;
+        return null;
+    }
+
+    /**
+     * Runs the program as a resident planning service. The clients, menus, no-fly-zones and caches are set up once and
+     * kept in memory, and days are then planned on request through a PlanningService.
+     * @param serverPort the port of the web server
+     * @param databasePort the port of the database
+     * @param servicePort the local port the service listens on
+     */
+    private static void serve(String serverPort, String databasePort, int servicePort)
+    {
         webServer = new WebClient(MACHINE, serverPort);
+        database = connectToDatabase(databasePort);
+        ArrayList<Shop> menus = loadStaticInputs();
 
-        //create the sql client to be used for this run
-        database = new SQLClient(MACHINE, databasePort);
+        try
+        {
+            new PlanningService(servicePort, menus, new Airspace(noFlyZones)).start();
+            System.out.println("Planning service listening on port " + servicePort);
+        } catch (Exception e)
+        {
+            System.err.println("Planning service could not be started on port " + servicePort);
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the benchmark over a range of dates, writing its report and comparing it with a baseline report if one is
+     * given. The program exits with a non-zero status if any regression is found.
+     * @param first the first date to plan, as YYYY-MM-DD
+     * @param last the last date to plan, as YYYY-MM-DD
+     * @param serverPort the port of the web server
+     * @param databasePort the port of the database
+     * @param reportFileName the name of the CSV report to write
+     * @param baselineFileName the name of the baseline report, or null to skip the comparison
+     */
+    private static void benchmark(String first, String last, String serverPort, String databasePort,
+                                  String reportFileName, String baselineFileName)
+    {
+        webServer = new WebClient(MACHINE, serverPort);
+        database = connectToDatabase(databasePort);
+        BenchmarkRunner runner = new BenchmarkRunner(loadStaticInputs(), new Airspace(noFlyZones));
+        runner.run(LocalDate.parse(first), LocalDate.parse(last));
 
-        //getFlightpath();
-        //System.exit(1);
-        //fetch all the order information from the database and web server
         try
         {
-            Date sqlDate = Date.valueOf(year + "-" + month + "-" + day);
-            orders = database.retrieveOrders(sqlDate);
+            runner.writeReport(reportFileName);
+            System.out.println("Benchmark report written: " + reportFileName);
+            if (baselineFileName != null)
+            {
+                int regressions = runner.compareWithBaseline(baselineFileName);
+                System.out.println("Regressions against " + baselineFileName + ": " + regressions);
+                if (regressions > 0) { System.exit(1); }
+            }
         } catch (Exception e)
         {
-            System.err.println("Invalid date input. Please check your values and try again.");
+            System.err.println("Benchmark report could not be written or compared");
+            e.printStackTrace();
             System.exit(1);
         }
+    }
 
-        if (orders.size() == 0)
+    /**
+     * Prints the flight history report for a range of delivery dates, from the run-partitioned flightpathHistory table.
+     * If a store file is given, the moves saved in it are loaded first and only the days after its last day are read
+     * from the database, and the updated store is saved back to it.
+     * @param serverPort the port of the web server, used for the no-fly-zones
+     * @param databasePort the port of the database
+     * @param first the first date of the report, as YYYY-MM-DD
+     * @param last the last date of the report, as YYYY-MM-DD
+     * @param storeFileName the name of the file the history is kept in, or null to read every day from the database
+     */
+    private static void history(String serverPort, String databasePort, String first, String last,
+                                String storeFileName)
+    {
+        webServer = new WebClient(MACHINE, serverPort);
+        database = connectToDatabase(databasePort);
+        loadStaticInputs();
+
+        try
+        {
+            FlightHistory history = new FlightHistory();
+            LocalDate firstToRead = LocalDate.parse(first);
+            if (storeFileName != null && Files.exists(Paths.get(storeFileName)))
+            {
+                history = FlightHistory.load(Paths.get(storeFileName));
+                if (history.getLastDate() != null && !history.getLastDate().isBefore(firstToRead))
+                {
+                    firstToRead = history.getLastDate().plusDays(1);
+                }
+            }
+            int rows = database.loadFlightHistory(history, Date.valueOf(firstToRead), Date.valueOf(last));
+            System.out.println("Moves read from the database: " + rows + ", moves in history: " + history.size());
+            if (storeFileName != null) { history.save(Paths.get(storeFileName)); }
+
+            // the store may hold days from before first, saved by an earlier report
+            printHistoryReport(history.between(LocalDate.parse(first), LocalDate.parse(last)),
+                    new Airspace(noFlyZones));
+        } catch (Exception e)
         {
-            System.err.println("No orders found relating to date: " + day + "-" + month + "-" + year);
-            System.err.println("Path cannot be calculated");
+            System.err.println("Flight history could not be loaded or saved");
+            e.printStackTrace();
             System.exit(1);
         }
+    }
 
-        database.retrieveOrderDetails(orders, webServer.getMenus());
+    /**
+     * Prints the daily totals, the heading histogram, the orders with the most moves and the time spent near the
+     * no-fly-zones for a flight history.
+     * @param history the flight history
+     * @param airspace the no-fly-zones
+     */
+    private static void printHistoryReport(FlightHistory history, Airspace airspace)
+    {
+        System.out.println("date,moves,hovers,orders,distance");
+        for (FlightHistory.DayAggregate day : history.dailyAggregates())
+        {
+            System.out.println(day.getDate() + "," + day.getMoves() + "," + day.getHovers() + "," + day.getOrders() +
+                    "," + day.getDistance());
+        }
+
+        long[] histogram = history.headingHistogram();
+        System.out.println("heading,moves");
+        for (int heading = 0; heading < histogram.length; heading++)
+        {
+            System.out.println((heading == FlightHistory.HOVER_HEADING ? "hover" : heading * 10) + "," +
+                    histogram[heading]);
+        }
 
-        //create the output database tables
-        database.createTable("deliveries",
-                "orderNo char(8)",
-                "deliveredTo varchar(19)",
-                "costInPence int");
+        System.out.println("Orders with the most moves:");
+        history.movesPerOrder().entrySet().stream()
+                .sorted((a, b) -> b.getValue() - a.getValue())
+                .limit(10)
+                .forEach(entry -> System.out.println(entry.getKey() + ": " + entry.getValue()));
+
+        System.out.println("Moves ending within one move of a no-fly-zone: " +
+                history.movesNearNoFlyZones(airspace, LongLat.CLOSE_DISTANCE));
+    }
 
-        database.createTable("flightpath",
-                "orderNo char(8)",
-                "fromLongitude double",
-                "fromLatitude double",
-                "angle integer",
-                "toLongitude double",
-                "toLatitude double");
+    /**
+     * Runs the geometry stress benchmark on synthetic no-fly-zones and writes its report. Needs neither the web server
+     * nor the database.
+     * @param reportFileName the name of the CSV report to write
+     */
+    private static void stress(String reportFileName)
+    {
+        StressBenchmark stressBenchmark = new StressBenchmark();
+        stressBenchmark.run();
+        try
+        {
+            stressBenchmark.writeReport(reportFileName);
+            System.out.println("Stress report written: " + reportFileName);
+        } catch (Exception e)
+        {
+            System.err.println("Stress report could not be written");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
 
-        //retrieve the landmark and no-fly zone locations
+    /**
+     * Loads the menus and the landmark and no-fly zone locations up front, from the world snapshot if there is a valid
+     * one and from the web server otherwise, for modes that plan more than one day.
+     * @return the contents of menus.json
+     */
+    private static ArrayList<Shop> loadStaticInputs()
+    {
+        WorldSnapshot world = loadSnapshot();
+        if (world != null)
+        {
+            world.preloadShopLocations();
+            landmarks.addAll(world.getLandmarks());
+            noFlyZones.addAll(world.getNoFlyZones());
+            return world.getShops();
+        }
+        ArrayList<Shop> menus = webServer.getMenus();
         retrieveBuildingInfo();
+        return menus;
+    }
 
-        Flight flight = new Flight(orders, noFlyZones);
-        if (!writeGeoJSONFile(outputFileName, flight.generateFlightPath()))
+    /**
+     * Prints whether the output GeoJSON file was written.
+     * @param written the result of writeGeoJSONFile
+     */
+    private static void reportGeoJSONFileWrite(boolean written)
+    {
+        if (!written)
         {
             System.err.println("GeoJSON file writing failed");
         }
@@ -98,34 +571,121 @@ public class App
         {
             System.out.println("GeoJSON file written successfully");
         }
+    }
 
-        System.out.println("Analysis of flight for " + day + "-" + month + "-" + year);
-        performanceAnalysis(flight);
+    /**
+     * Loads the world snapshot named by the ilp.snapshot property. A missing or invalid snapshot is reported, and the
+     * run then falls back to fetching everything from the web server.
+     * @return the snapshot, or null if none is configured or it could not be loaded
+     */
+    private static WorldSnapshot loadSnapshot()
+    {
+        if (SNAPSHOT_FILE == null) { return null; }
+        if (!WorldSnapshot.exists(SNAPSHOT_FILE))
+        {
+            System.err.println("World snapshot not found: " + SNAPSHOT_FILE);
+            return null;
+        }
+        try
+        {
+            return WorldSnapshot.load(SNAPSHOT_FILE);
+        } catch (Exception e)
+        {
+            System.err.println("World snapshot could not be loaded, fetching from the web server instead: " +
+                    e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Fetches the menus, the landmark and no-fly zone locations and the co-ordinates of every shop from the web server,
+     * and compiles them into a world snapshot file.
+     * @param serverPort the port of the web server
+     * @param filename the name of the snapshot file to write
+     */
+    private static void buildSnapshot(String serverPort, String filename)
+    {
+        webServer = new WebClient(MACHINE, serverPort);
+        ArrayList<Shop> shops = webServer.getMenus();
+        retrieveBuildingInfo();
+        try
+        {
+            WorldSnapshot.write(filename, noFlyZones, landmarks, shops);
+            System.out.println("World snapshot written: " + filename);
+        } catch (Exception e)
+        {
+            System.err.println("World snapshot writing failed");
+            e.printStackTrace();
+            System.exit(1);
+        }
     }
 
     /**
-     * Retrieves all the information from the 'buildings' folder of the web server and stores it.
+     * Retrieves all the information from the 'buildings' folder of the web server and stores it. Both files go through
+     * the web client's response cache, which keeps the parsed co-ordinates so unchanged files are not parsed again.
      */
     public static void retrieveBuildingInfo()
     {
-        String landmarksJson =
-                webServer.getStringResponse(webServer.buildServerRequest("/buildings/landmarks.geojson"));
-        String noFlyJson =
-                webServer.getStringResponse(webServer.buildServerRequest("/buildings/no-fly-zones.geojson"));
+        double[][] landmarkCoordinates =
+                webServer.getParsed("/buildings/landmarks.geojson", App::parseLandmarkCoordinates);
+        double[][][] noFlyZoneCoordinates =
+                webServer.getParsed("/buildings/no-fly-zones.geojson", App::parseNoFlyZoneCoordinates);
+
+        for (double[] landmark : landmarkCoordinates)
+        {
+            landmarks.add(new LongLat(landmark[0], landmark[1]));
+        }
 
-        Gson gson = new Gson();
-        for (Feature feat : Objects.requireNonNull(FeatureCollection.fromJson(landmarksJson).features()))
+        for (double[][] zone : noFlyZoneCoordinates)
         {
-            Point point = (Point)feat.geometry();
+            ArrayList<Point> outline = new ArrayList<>();
+            for (double[] vertex : zone)
+            {
+                outline.add(Point.fromLngLat(vertex[0], vertex[1]));
+            }
+            noFlyZones.add(Polygon.fromLngLats(List.of(outline)));
+        }
+    }
+
+    /**
+     * Parses landmarks.geojson into an array of longitude and latitude pairs.
+     * @param landmarksJson the contents of landmarks.geojson
+     * @return the co-ordinates of every landmark
+     */
+    private static double[][] parseLandmarkCoordinates(String landmarksJson)
+    {
+        List<Feature> features = Objects.requireNonNull(FeatureCollection.fromJson(landmarksJson).features());
+        double[][] coordinates = new double[features.size()][];
+        for (int i = 0; i < features.size(); i++)
+        {
+            Point point = (Point)features.get(i).geometry();
             assert point != null;
-            landmarks.add(new LongLat(point.longitude(), point.latitude()));
+            coordinates[i] = new double[]{point.longitude(), point.latitude()};
         }
+        return coordinates;
+    }
 
-        for (Feature feat : Objects.requireNonNull(FeatureCollection.fromJson(noFlyJson).features()))
+    /**
+     * Parses no-fly-zones.geojson into the outer outline of every zone, as arrays of longitude and latitude pairs.
+     * @param noFlyJson the contents of no-fly-zones.geojson
+     * @return the outline of every no-fly-zone
+     */
+    private static double[][][] parseNoFlyZoneCoordinates(String noFlyJson)
+    {
+        List<Feature> features = Objects.requireNonNull(FeatureCollection.fromJson(noFlyJson).features());
+        double[][][] coordinates = new double[features.size()][][];
+        for (int i = 0; i < features.size(); i++)
         {
-            Polygon polygon = (Polygon)feat.geometry();
-            noFlyZones.add(polygon);
+            Polygon polygon = (Polygon)features.get(i).geometry();
+            assert polygon != null;
+            List<Point> outline = polygon.coordinates().get(0);
+            coordinates[i] = new double[outline.size()][];
+            for (int j = 0; j < outline.size(); j++)
+            {
+                coordinates[i][j] = new double[]{outline.get(j).longitude(), outline.get(j).latitude()};
+            }
         }
+        return coordinates;
     }
 
     /**
@@ -148,21 +708,115 @@ public class App
         }
     }
 
+    /**
+     * Writes the committed legs of a flight to a binary flight log, reporting any failure.
+     * @param filename the name of the file to write
+     * @param year the year of the flight
+     * @param month the month of the flight
+     * @param day the day of the flight
+     * @param flight the flight whose path has been generated
+     */
+    private static void writeFlightLog(String filename, String year, String month, String day, Flight flight)
+    {
+        LocalDate date = LocalDate.of(Integer.parseInt(year), Integer.parseInt(month), Integer.parseInt(day));
+        if (!new FlightLog(date, flight.getDroneId(), flight.getCommittedLegs()).writeToFile(filename))
+        {
+            System.err.println("Flight log writing failed: " + filename);
+        }
+    }
+
+    /**
+     * Writes the planning profiles of every leg of the given flights to a JSON sidecar, reporting any failure.
+     * @param filename the name of the file to write
+     * @param flights the flights whose paths have been generated
+     */
+    private static void writeProfiles(String filename, List<Flight> flights)
+    {
+        ArrayList<PlanningProfile> profiles = new ArrayList<>();
+        for (Flight flight : flights) { profiles.addAll(flight.getProfiles()); }
+        try
+        {
+            Files.writeString(Paths.get(filename), WebClient.GSON.toJson(profiles));
+        } catch (Exception e)
+        {
+            System.err.println("Planning profile writing failed: " + filename);
+        }
+    }
+
+    /**
+     * Converts a binary flight log into a GeoJSON file.
+     * @param flightLogFileName the name of the flight log to read
+     * @param geoJSONFileName the name of the GeoJSON file to write
+     */
+    private static void convertFlightLog(String flightLogFileName, String geoJSONFileName)
+    {
+        try
+        {
+            FlightLog log = FlightLog.readFromFile(flightLogFileName);
+            reportGeoJSONFileWrite(writeGeoJSONFile(geoJSONFileName, log.toGeoJSON()));
+        } catch (Exception e)
+        {
+            System.err.println("Flight log could not be read: " + flightLogFileName);
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
     /**
      * Prints information about program performance. Namely, the approximate runtime of the program, the number of moves
      * the drone made, and the percentage monetary value.
      * @param flight the flight object representing the drone flight
+     * @param runStart the System.nanoTime at which the run started
+     * @param placedOrderCost the total cost of the orders placed on the day, in pence
      */
-    private static void performanceAnalysis(Flight flight)
+    private static void performanceAnalysis(Flight flight, long runStart, int placedOrderCost)
     {
-        long timeDiff = System.nanoTime() - startTime;
+        long timeDiff = System.nanoTime() - runStart;
         System.out.println("Runtime (approx.): " + (float)timeDiff / 1E9f + " seconds");
         System.out.println("Moves: " + flight.getMoveCount());
+        System.out.println("Moves saved by shortcutting: " + flight.getMovesSavedByShortcuts());
+        printRouteTableUse(flight.getRouteHits(), flight.getRouteMisses());
         System.out.println("Percentage monetary value: " +
-                flight.totalDeliveredOrderCost * 100 / Order.totalPlacedOrderCost +
+                flight.totalDeliveredOrderCost * 100 / placedOrderCost +
                 "%");
     }
 
+    /**
+     * Prints information about the performance of a fleet of drones. As well as the totals printed for a single
+     * flight, the moves and delivered value of each drone are listed.
+     * @param fleet the fleet planner whose flights have been generated
+     * @param runStart the System.nanoTime at which the run started
+     * @param placedOrderCost the total cost of the orders placed on the day, in pence
+     */
+    private static void performanceAnalysis(FleetPlanner fleet, long runStart, int placedOrderCost)
+    {
+        long timeDiff = System.nanoTime() - runStart;
+        System.out.println("Runtime (approx.): " + (float)timeDiff / 1E9f + " seconds");
+        for (Flight flight : fleet.getFlights())
+        {
+            System.out.println("Drone " + flight.getDroneId() + " moves: " + flight.getMoveCount() +
+                    ", delivered value: " + flight.totalDeliveredOrderCost + "p");
+        }
+        System.out.println("Moves: " + fleet.getMoveCount());
+        System.out.println("Moves saved by shortcutting: " + fleet.getMovesSavedByShortcuts());
+        printRouteTableUse(fleet.getRouteHits(), fleet.getRouteMisses());
+        System.out.println("Percentage monetary value: " +
+                fleet.getTotalDeliveredOrderCost() * 100 / placedOrderCost +
+                "%");
+    }
+
+    /**
+     * Prints how many of the day's legs between stops were flown along a route from the route table. Nothing is printed
+     * if no route table was used.
+     * @param hits the number of legs flown along a stored route
+     * @param misses the number of legs that had to be planned
+     */
+    private static void printRouteTableUse(int hits, int misses)
+    {
+        if (hits + misses == 0) { return; }
+        System.out.println("Legs between stops taken from the route table: " + hits + " of " + (hits + misses));
+    }
+
     /**
      * A helper function used during testing that prints the flightpath table to the console.
      */
@@ -0,0 +1,289 @@
+package uk.ac.ed.inf;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class that plans every day in a range and records, for each day, the runtime, the moves flown, the percentage
+ * monetary value, the number of HTTP requests and SQL statements, and the bytes allocated on the heap by the whole
+ * process while the day was planned. The results are written to a CSV report, and can be compared against the report
+ * of an earlier run (the baseline) so that regressions in speed or quality are caught on every day rather than on a
+ * single sample date.
+ *
+ * The menus and the airspace are loaded once and shared by every day, as in the planning service, so the runtimes
+ * measure the planner at steady state. The tolerances for the comparison can be set with system properties:
+ * ilp.benchmark.runtimeTolerance (the fraction by which a day's runtime may grow, 0.25 by default),
+ * ilp.benchmark.moveTolerance (the number of extra moves allowed, 0 by default) and ilp.benchmark.valueTolerance (the
+ * number of percentage points the monetary value may drop, 0 by default).
+ *
+ * Planning runs on pools of threads that only live for a single day, so allocation cannot be read from the threads
+ * themselves. Instead, the bytes allocated by the process are taken as the growth of the heap plus the bytes reclaimed
+ * by every garbage collection in between, which the collectors report through their notifications.
+ */
+public class BenchmarkRunner
+{
+    private static final String HEADER =
+            "date,status,runtimeMillis,moves,percentageMonetaryValue,httpRequests,sqlStatements,processAllocatedBytes";
+    private static final String STATUS_PLANNED = "planned";
+    private static final String STATUS_NO_ORDERS = "no-orders";
+    private static final String STATUS_FAILED = "failed";
+    // runtimes below this are too noisy to be compared with the baseline
+    private static final double MINIMUM_RUNTIME_MILLIS = 5;
+    // the longest time to wait for the notifications of collections that have already happened
+    private static final long GC_NOTIFICATION_WAIT_MILLIS = 1000;
+
+    private final double runtimeTolerance = Double.parseDouble(
+            System.getProperty("ilp.benchmark.runtimeTolerance", "0.25"));
+    private final int moveTolerance = Integer.getInteger("ilp.benchmark.moveTolerance", 0);
+    private final double valueTolerance = Double.parseDouble(
+            System.getProperty("ilp.benchmark.valueTolerance", "0"));
+
+    private final CompletableFuture<ArrayList<Shop>> menus;
+    private final CompletableFuture<Airspace> airspace;
+    private final ArrayList<String> rows = new ArrayList<>();
+    // the bytes reclaimed by the collections notified so far, and the number of those collections
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+    private final AtomicLong notifiedCollections = new AtomicLong();
+
+    /**
+     * Class constructor. Simply assigns the inputs shared by every day.
+     * @param menus the contents of menus.json
+     * @param airspace the compiled no-fly-zones
+     */
+    public BenchmarkRunner(ArrayList<Shop> menus, Airspace airspace)
+    {
+        this.menus = CompletableFuture.completedFuture(menus);
+        this.airspace = CompletableFuture.completedFuture(airspace);
+    }
+
+    /**
+     * Plans every day from the first date to the last date inclusive, recording a row of the report for each.
+     * @param first the first date
+     * @param last the last date
+     */
+    public void run(LocalDate first, LocalDate last)
+    {
+        NotificationListener listener = this::collectionFinished;
+        notifiedCollections.set(collectionCount());
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+        {
+            ((NotificationEmitter)collector).addNotificationListener(listener, null, null);
+        }
+        try
+        {
+            planDays(first, last);
+        } finally
+        {
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+            {
+                try
+                {
+                    ((NotificationEmitter)collector).removeNotificationListener(listener);
+                } catch (ListenerNotFoundException ignored) { }
+            }
+        }
+    }
+
+    /**
+     * Plans every day from the first date to the last date inclusive, recording a row of the report for each.
+     * @param first the first date
+     * @param last the last date
+     */
+    private void planDays(LocalDate first, LocalDate last)
+    {
+        for (LocalDate date = first; !date.isAfter(last); date = date.plusDays(1))
+        {
+            long httpRequests = WebClient.getRequestCount();
+            long sqlStatements = App.database.getStatementCount();
+            long allocatedBytes = processAllocatedBytes();
+            long runStart = System.nanoTime();
+
+            String row;
+            try
+            {
+                PlanningResult result = App.planDay(String.format("%02d", date.getDayOfMonth()),
+                        String.format("%02d", date.getMonthValue()),
+                        String.valueOf(date.getYear()),
+                        menus,
+                        airspace,
+                        runStart);
+                row = String.format(Locale.ROOT, "%s,%s,%.3f,%d,%.2f,%d,%d,%d", date, STATUS_PLANNED,
+                        (System.nanoTime() - runStart) / 1E6,
+                        result.getMoveCount(),
+                        result.getPercentageMonetaryValue(),
+                        WebClient.getRequestCount() - httpRequests,
+                        App.database.getStatementCount() - sqlStatements,
+                        processAllocatedBytes() - allocatedBytes);
+            } catch (IllegalArgumentException e)
+            {
+                row = date + "," + STATUS_NO_ORDERS + ",0,0,0,0,0,0";
+            } catch (WebRequestException | CompletionException | IllegalStateException e)
+            {
+                System.err.println("Planning failed for " + date + ": " + e.getMessage());
+                row = date + "," + STATUS_FAILED + ",0,0,0,0,0,0";
+            }
+            rows.add(row);
+        }
+    }
+
+    /**
+     * Retrieves the bytes allocated on the heap by the whole process since the listener was registered, give or take
+     * the allocation made before then: the heap in use plus the bytes reclaimed by every collection since. Collections
+     * are notified asynchronously, so this first waits for the notifications of those that have already finished.
+     * @return the bytes allocated, as a running total to take differences of
+     */
+    private long processAllocatedBytes()
+    {
+        long deadline = System.nanoTime() + GC_NOTIFICATION_WAIT_MILLIS * 1_000_000;
+        while (notifiedCollections.get() < collectionCount() && System.nanoTime() < deadline) { Thread.onSpinWait(); }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() + reclaimedBytes.get();
+    }
+
+    /**
+     * Retrieves the number of collections made by every collector so far.
+     * @return the collection count
+     */
+    private static long collectionCount()
+    {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+        {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    /**
+     * Records the bytes reclaimed by a finished collection: the fall in use of every heap pool. Objects promoted from
+     * one pool to another are counted out of one and into the other, so they cancel out.
+     * @param notification the notification sent by the collector
+     * @param handback unused
+     */
+    private void collectionFinished(Notification notification, Object handback)
+    {
+        if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION))
+        {
+            return;
+        }
+
+        GarbageCollectionNotificationInfo info =
+                GarbageCollectionNotificationInfo.from((CompositeData)notification.getUserData());
+        long reclaimed = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() != MemoryType.HEAP) { continue; }
+            MemoryUsage before = info.getGcInfo().getMemoryUsageBeforeGc().get(pool.getName());
+            MemoryUsage after = info.getGcInfo().getMemoryUsageAfterGc().get(pool.getName());
+            if (before == null || after == null) { continue; }
+            reclaimed += before.getUsed() - after.getUsed();
+        }
+        reclaimedBytes.addAndGet(reclaimed);
+        notifiedCollections.incrementAndGet();
+    }
+
+    /**
+     * Writes the report of the days planned so far as CSV, overwriting the file if it exists.
+     * @param filename the name of the report file
+     * @throws IOException if the file cannot be written
+     */
+    public void writeReport(String filename) throws IOException
+    {
+        ArrayList<String> lines = new ArrayList<>();
+        lines.add(HEADER);
+        lines.addAll(rows);
+        Files.write(Paths.get(filename), lines, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compares the days planned so far against a baseline report, printing every regression found. A day regresses if
+     * its runtime or percentage monetary value are worse than the baseline's by more than the tolerances, if it flies
+     * more moves without delivering more value, or if it could be planned in the baseline but not now. Days missing
+     * from the baseline are not compared.
+     * @param baselineFilename the name of the baseline report
+     * @return the number of regressions found
+     * @throws IOException if the baseline cannot be read
+     */
+    public int compareWithBaseline(String baselineFilename) throws IOException
+    {
+        List<String> baselineLines = Files.readAllLines(Paths.get(baselineFilename), StandardCharsets.UTF_8);
+        if (baselineLines.isEmpty() || !baselineLines.get(0).equals(HEADER))
+        {
+            throw new IOException("Not a benchmark report: " + baselineFilename);
+        }
+        HashMap<String, String[]> baseline = new HashMap<>();
+        for (String line : baselineLines.subList(1, baselineLines.size()))
+        {
+            String[] columns = line.split(",");
+            baseline.put(columns[0], columns);
+        }
+
+        int regressions = 0;
+        for (String row : rows)
+        {
+            String[] current = row.split(",");
+            String[] previous = baseline.get(current[0]);
+            if (previous == null || !previous[1].equals(STATUS_PLANNED)) { continue; }
+
+            if (!current[1].equals(STATUS_PLANNED))
+            {
+                regressions += reportRegression(current[0], "status", previous[1], current[1]);
+                continue;
+            }
+
+            double runtime = Double.parseDouble(current[2]);
+            double baselineRuntime = Double.parseDouble(previous[2]);
+            if (runtime > MINIMUM_RUNTIME_MILLIS && runtime > baselineRuntime * (1 + runtimeTolerance))
+            {
+                regressions += reportRegression(current[0], "runtimeMillis", previous[2], current[2]);
+            }
+            // more moves are only worse if they do not deliver more value
+            if (Integer.parseInt(current[3]) > Integer.parseInt(previous[3]) + moveTolerance &&
+                    Double.parseDouble(current[4]) <= Double.parseDouble(previous[4]))
+            {
+                regressions += reportRegression(current[0], "moves", previous[3], current[3]);
+            }
+            if (Double.parseDouble(current[4]) < Double.parseDouble(previous[4]) - valueTolerance)
+            {
+                regressions += reportRegression(current[0], "percentageMonetaryValue", previous[4], current[4]);
+            }
+        }
+        return regressions;
+    }
+
+    /**
+     * Prints a single regression.
+     * @param date the date that regressed
+     * @param measure the name of the measure that regressed
+     * @param baselineValue the value in the baseline
+     * @param currentValue the value in this run
+     * @return 1, the number of regressions reported
+     */
+    private static int reportRegression(String date, String measure, String baselineValue, String currentValue)
+    {
+        System.err.println("Regression on " + date + ": " + measure + " was " + baselineValue + ", now " +
+                currentValue);
+        return 1;
+    }
+}
@@ -0,0 +1,219 @@
+package uk.ac.ed.inf;
+
+import java.util.Arrays;
+
+/**
+ * Class that holds, for every cell of a fine grid over the confinement area, the number of moves the drone needs to get
+ * home from that cell. The field is built with a breadth-first search out from home over legal moves (moves that
+ * stay confined and do not enter a no-fly-zone), so estimating a return leg becomes a single table lookup.
+ *
+ * Each cell keeps the first point the search landed on inside it, and the search continues from that point rather than
+ * from the cell centre. The value of a cell is therefore the length of a real legal path home from a point in the cell,
+ * and for other points in the same cell it is a close estimate that tends to err on the high side. It is not a bound
+ * either way on the path Flight plans, so it is only used to estimate.
+ *
+ * A second search over the same cells gives a true lower bound. It lets a move join any two cells that are no more than
+ * a move apart, and only leaves out cells that lie wholly inside a no-fly-zone, so every legal path home passes
+ * through a chain of cells no longer than itself. Flight uses the bound to turn down orders it could not get home
+ * from without planning the return path.
+ */
+public class CostToHomeField
+{
+    public static final int UNREACHABLE = -1;
+    static final double CELL_SIZE = LongLat.CLOSE_DISTANCE / 2;
+
+    private final int columns;
+    private final int rows;
+    private final int[] movesHome;
+    private final double[] pointLongs;
+    private final double[] pointLats;
+    private final int[] movesHomeLowerBound;
+
+    /**
+     * Class constructor. Runs the breadth-first search out from the home location.
+     * @param airspace the airspace whose no-fly-zones the moves must avoid
+     * @param home the location the drone returns to
+     */
+    public CostToHomeField(Airspace airspace, LongLat home)
+    {
+        columns = (int)Math.ceil((LongLat.MAXIMUM_LONGITUDE - LongLat.MINIMUM_LONGITUDE) / CELL_SIZE);
+        rows = (int)Math.ceil((LongLat.MAXIMUM_LATITUDE - LongLat.MINIMUM_LATITUDE) / CELL_SIZE);
+        movesHome = new int[columns * rows];
+        Arrays.fill(movesHome, UNREACHABLE);
+
+        pointLongs = new double[columns * rows];
+        pointLats = new double[columns * rows];
+
+        int[] queue = new int[columns * rows];
+        int head = 0;
+        int tail = 0;
+
+        int homeCell = cellOf(home.getLongitude(), home.getLatitude());
+        assert homeCell != UNREACHABLE;
+        movesHome[homeCell] = 0;
+        pointLongs[homeCell] = home.getLongitude();
+        pointLats[homeCell] = home.getLatitude();
+        queue[tail++] = homeCell;
+
+        // moves are reversible (the reverse of a move at angle a is the move at angle a + 180), so a path found going
+        // out from home can be flown back in the same number of moves
+        while (head < tail)
+        {
+            int cell = queue[head++];
+            LongLat point = new LongLat(pointLongs[cell], pointLats[cell]);
+            for (int angle = 0; angle < 360; angle += 10)
+            {
+                LongLat neighbour = point.nextPosition(angle);
+                if (!neighbour.isConfined()) { continue; }
+
+                int neighbourCell = cellOf(neighbour.getLongitude(), neighbour.getLatitude());
+                if (neighbourCell == UNREACHABLE || movesHome[neighbourCell] != UNREACHABLE) { continue; }
+                if (airspace.lineEntersNoFlyZone(point, neighbour)) { continue; }
+
+                // points this close to home need no moves at all
+                movesHome[neighbourCell] = neighbour.closeTo(home) ? 0 : movesHome[cell] + 1;
+                pointLongs[neighbourCell] = neighbour.getLongitude();
+                pointLats[neighbourCell] = neighbour.getLatitude();
+                queue[tail++] = neighbourCell;
+            }
+        }
+
+        movesHomeLowerBound = searchLowerBounds(airspace, home);
+    }
+
+    /**
+     * Runs the breadth-first search over cells that gives the lower bound on the moves home from each cell.
+     * @param airspace the airspace whose no-fly-zones the moves must avoid
+     * @param home the location the drone returns to
+     * @return the lower bound for every cell, or UNREACHABLE where no chain of cells leads home
+     */
+    private int[] searchLowerBounds(Airspace airspace, LongLat home)
+    {
+        int[] bounds = new int[columns * rows];
+        Arrays.fill(bounds, UNREACHABLE);
+        int[] queue = new int[columns * rows];
+        int head = 0;
+        int tail = 0;
+
+        boolean[] insideZone = new boolean[columns * rows];
+        for (int cell = 0; cell < columns * rows; cell++)
+        {
+            insideZone[cell] = cellIsInsideZone(airspace, cell % columns, cell / columns);
+            // a point in a cell that comes within a move of home may already be close to it
+            if (!insideZone[cell] && gapToPoint(cell % columns, cell / columns, home) <= LongLat.CLOSE_DISTANCE)
+            {
+                bounds[cell] = 0;
+                queue[tail++] = cell;
+            }
+        }
+
+        // two cells are a move apart if the gap between them, in whole cells on each axis, is at most two cells
+        int reach = (int)Math.round(LongLat.CLOSE_DISTANCE / CELL_SIZE);
+        while (head < tail)
+        {
+            int cell = queue[head++];
+            int column = cell % columns;
+            int row = cell / columns;
+            for (int dy = -reach - 1; dy <= reach + 1; dy++)
+            {
+                for (int dx = -reach - 1; dx <= reach + 1; dx++)
+                {
+                    int gapX = Math.max(0, Math.abs(dx) - 1);
+                    int gapY = Math.max(0, Math.abs(dy) - 1);
+                    if (gapX * gapX + gapY * gapY > reach * reach) { continue; }
+
+                    int neighbourColumn = column + dx;
+                    int neighbourRow = row + dy;
+                    if (neighbourColumn < 0 || neighbourRow < 0 || neighbourColumn >= columns || neighbourRow >= rows)
+                    {
+                        continue;
+                    }
+                    int neighbourCell = neighbourRow * columns + neighbourColumn;
+                    if (insideZone[neighbourCell] || bounds[neighbourCell] != UNREACHABLE) { continue; }
+
+                    bounds[neighbourCell] = bounds[cell] + 1;
+                    queue[tail++] = neighbourCell;
+                }
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Returns whether a cell lies wholly inside a no-fly-zone: all four of its corners are inside one, and no edge of a
+     * no-fly-zone crosses its sides. The crossing test errs towards reporting a crossing, which only weakens the bound.
+     * @param airspace the airspace
+     * @param column the column of the cell
+     * @param row the row of the cell
+     * @return true if no point of the cell is outside the no-fly-zones
+     */
+    private static boolean cellIsInsideZone(Airspace airspace, int column, int row)
+    {
+        double minX = LongLat.MINIMUM_LONGITUDE + column * CELL_SIZE;
+        double minY = LongLat.MINIMUM_LATITUDE + row * CELL_SIZE;
+        LongLat[] corners = {new LongLat(minX, minY), new LongLat(minX + CELL_SIZE, minY),
+                new LongLat(minX + CELL_SIZE, minY + CELL_SIZE), new LongLat(minX, minY + CELL_SIZE)};
+        for (int i = 0; i < corners.length; i++)
+        {
+            if (!airspace.contains(corners[i].getLongitude(), corners[i].getLatitude())) { return false; }
+            if (airspace.lineEntersNoFlyZone(corners[i], corners[(i + 1) % corners.length])) { return false; }
+        }
+        return true;
+    }
+
+    /**
+     * Calculates the distance from a point to the nearest point of a cell.
+     * @param column the column of the cell
+     * @param row the row of the cell
+     * @param point the point
+     * @return the distance, or 0 if the point lies in the cell
+     */
+    private static double gapToPoint(int column, int row, LongLat point)
+    {
+        double minX = LongLat.MINIMUM_LONGITUDE + column * CELL_SIZE;
+        double minY = LongLat.MINIMUM_LATITUDE + row * CELL_SIZE;
+        double gapX = Math.max(0, Math.max(minX - point.getLongitude(), point.getLongitude() - minX - CELL_SIZE));
+        double gapY = Math.max(0, Math.max(minY - point.getLatitude(), point.getLatitude() - minY - CELL_SIZE));
+        return Math.hypot(gapX, gapY);
+    }
+
+    /**
+     * Retrieves the estimated number of moves needed to get home from a point.
+     * @param point the point
+     * @return the estimated number of moves, or UNREACHABLE if the point is outside the confinement area or no legal
+     * path home was found from its cell
+     */
+    public int movesHomeFrom(LongLat point)
+    {
+        int cell = cellOf(point.getLongitude(), point.getLatitude());
+        if (cell == UNREACHABLE) { return UNREACHABLE; }
+        return movesHome[cell];
+    }
+
+    /**
+     * Retrieves a lower bound on the number of moves any legal path home from a point takes.
+     * @param point the point
+     * @return the lower bound, or UNREACHABLE if the point is outside the confinement area or no legal path home can
+     * exist from its cell
+     */
+    public int movesHomeLowerBound(LongLat point)
+    {
+        int cell = cellOf(point.getLongitude(), point.getLatitude());
+        if (cell == UNREACHABLE) { return UNREACHABLE; }
+        return movesHomeLowerBound[cell];
+    }
+
+    /**
+     * Retrieves the index of the cell containing a point.
+     * @param longitude the longitude of the point
+     * @param latitude the latitude of the point
+     * @return the cell index, or UNREACHABLE if the point lies outside the grid
+     */
+    private int cellOf(double longitude, double latitude)
+    {
+        int column = (int)Math.floor((longitude - LongLat.MINIMUM_LONGITUDE) / CELL_SIZE);
+        int row = (int)Math.floor((latitude - LongLat.MINIMUM_LATITUDE) / CELL_SIZE);
+        if (column < 0 || row < 0 || column >= columns || row >= rows) { return UNREACHABLE; }
+        return row * columns + column;
+    }
+}
@@ -0,0 +1,177 @@
+package uk.ac.ed.inf;
+
+/**
+ * Class that stores a batch of no-fly-zone edges as a structure of arrays, and tests a single move against the whole
+ * batch with an orientation (cross product) predicate. The loops work on fixed-size blocks of edges without branching
+ * inside a block, so the JIT can vectorize them. The results match Airspace.linesIntersect, including its treatment of
+ * vertical lines. The only exception is an edge end point lying exactly on the move, where linesIntersect's answer
+ * depends on rounding in its gradient arithmetic and this kernel always reports no crossing.
+ */
+public class EdgeBatch
+{
+    private static final int BLOCK_SIZE = 8;
+
+    // edges that are not vertical, tested with the orientation predicate
+    private final double[] x1;
+    private final double[] y1;
+    private final double[] x2;
+    private final double[] y2;
+    // longitudes of the vertical edges, which only need a straddle test
+    private final double[] verticalX;
+
+    /**
+     * Class constructor. Splits the given edges into vertical and non-vertical edges and copies them into padded
+     * arrays, so the kernels never need a tail loop.
+     * @param startLongs the longitudes of the first point of every edge
+     * @param startLats the latitudes of the first point of every edge
+     * @param endLongs the longitudes of the second point of every edge
+     * @param endLats the latitudes of the second point of every edge
+     */
+    public EdgeBatch(double[] startLongs, double[] startLats, double[] endLongs, double[] endLats)
+    {
+        int verticalCount = 0;
+        for (int e = 0; e < startLongs.length; e++)
+        {
+            if (startLongs[e] == endLongs[e]) { verticalCount++; }
+        }
+        int slopedCount = startLongs.length - verticalCount;
+
+        x1 = new double[padded(slopedCount)];
+        y1 = new double[x1.length];
+        x2 = new double[x1.length];
+        y2 = new double[x1.length];
+        verticalX = new double[padded(verticalCount)];
+
+        int sloped = 0;
+        int vertical = 0;
+        for (int e = 0; e < startLongs.length; e++)
+        {
+            if (startLongs[e] == endLongs[e])
+            {
+                verticalX[vertical++] = startLongs[e];
+            }
+            else
+            {
+                x1[sloped] = startLongs[e];
+                y1[sloped] = startLats[e];
+                x2[sloped] = endLongs[e];
+                y2[sloped] = endLats[e];
+                sloped++;
+            }
+        }
+
+        // padding edges are degenerate (a single point far outside the confinement area) and can never be crossed,
+        // and padding vertical edges sit at NaN, which never straddles anything
+        for (int e = sloped; e < x1.length; e++)
+        {
+            x1[e] = x2[e] = Double.MAX_VALUE;
+            y1[e] = y2[e] = Double.MAX_VALUE;
+        }
+        for (int e = vertical; e < verticalX.length; e++) { verticalX[e] = Double.NaN; }
+    }
+
+    /**
+     * Rounds an edge count up to a whole number of blocks.
+     * @param count the edge count
+     * @return the padded length
+     */
+    private static int padded(int count)
+    {
+        return (count + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+    }
+
+    /**
+     * Returns whether the move between two points crosses any edge in the batch.
+     * @param point1 the first point of the move
+     * @param point2 the second point of the move
+     * @return true if any edge is crossed, false otherwise
+     */
+    public boolean crossedBy(LongLat point1, LongLat point2)
+    {
+        double px1 = point1.getLongitude();
+        double py1 = point1.getLatitude();
+        double px2 = point2.getLongitude();
+        double py2 = point2.getLatitude();
+
+        if (px1 == px2)
+        {
+            // a vertical move intersects every sloped edge that straddles its longitude, and no vertical edge
+            return straddles(x1, x2, px1);
+        }
+        return straddledByMove(px1, px2) || properlyCrosses(px1, py1, px2, py2);
+    }
+
+    /**
+     * Orientation kernel for the sloped edges. A move and an edge cross when the end points of each lie strictly on
+     * opposite sides of the other.
+     * @param px1 the longitude of the first point of the move
+     * @param py1 the latitude of the first point of the move
+     * @param px2 the longitude of the second point of the move
+     * @param py2 the latitude of the second point of the move
+     * @return true if the move crosses a sloped edge
+     */
+    private boolean properlyCrosses(double px1, double py1, double px2, double py2)
+    {
+        double dx = px2 - px1;
+        double dy = py2 - py1;
+
+        for (int block = 0; block < x1.length; block += BLOCK_SIZE)
+        {
+            boolean hit = false;
+            for (int e = block; e < block + BLOCK_SIZE; e++)
+            {
+                double ex = x2[e] - x1[e];
+                double ey = y2[e] - y1[e];
+                double o1 = dx * (y1[e] - py1) - dy * (x1[e] - px1);
+                double o2 = dx * (y2[e] - py1) - dy * (x2[e] - px1);
+                double o3 = ex * (py1 - y1[e]) - ey * (px1 - x1[e]);
+                double o4 = ex * (py2 - y1[e]) - ey * (px2 - x1[e]);
+                hit |= (o1 * o2 < 0) & (o3 * o4 < 0);
+            }
+            if (hit) { return true; }
+        }
+        return false;
+    }
+
+    /**
+     * Straddle kernel for the vertical edges. A sloped move intersects a vertical edge whenever it crosses the edge's
+     * longitude.
+     * @param px1 the longitude of the first point of the move
+     * @param px2 the longitude of the second point of the move
+     * @return true if the move crosses the longitude of a vertical edge
+     */
+    private boolean straddledByMove(double px1, double px2)
+    {
+        for (int block = 0; block < verticalX.length; block += BLOCK_SIZE)
+        {
+            boolean hit = false;
+            for (int e = block; e < block + BLOCK_SIZE; e++)
+            {
+                hit |= (px1 > verticalX[e]) != (px2 > verticalX[e]);
+            }
+            if (hit) { return true; }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether any edge, given by the longitudes of its end points, straddles a longitude.
+     * @param startLongs the longitudes of the first points of the edges
+     * @param endLongs the longitudes of the second points of the edges
+     * @param longitude the longitude
+     * @return true if an edge straddles the longitude
+     */
+    private static boolean straddles(double[] startLongs, double[] endLongs, double longitude)
+    {
+        for (int block = 0; block < startLongs.length; block += BLOCK_SIZE)
+        {
+            boolean hit = false;
+            for (int e = block; e < block + BLOCK_SIZE; e++)
+            {
+                hit |= (startLongs[e] > longitude) != (endLongs[e] > longitude);
+            }
+            if (hit) { return true; }
+        }
+        return false;
+    }
+}
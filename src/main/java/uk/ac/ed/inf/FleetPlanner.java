@@ -0,0 +1,291 @@
+package uk.ac.ed.inf;
+
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.FeatureCollection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Class that plans the deliveries for a day across a fleet of drones. The orders are split between the drones by
+ * clustering their delivery locations with k-means, and each drone's Flight is then planned on its own thread.
+ */
+public class FleetPlanner
+{
+    private final ArrayList<Order> orders;
+    private final Airspace airspace;
+    private final int droneCount;
+    private final boolean selectOrders;
+    private final ArrayList<Flight> flights = new ArrayList<>();
+    private MoveSink moveSink;
+    private RouteTable routeTable;
+    private SQLClient.Run run;
+    private static final int MAX_KMEANS_ITERATIONS = 50;
+
+    /**
+     * Class constructor. Stores the information needed to plan the flights of the fleet.
+     * @param orders the list of Order objects relating to the orders placed during this day
+     * @param airspace the compiled no-fly-zones, shared by every drone's flight
+     * @param droneCount the number of drones in the fleet
+     * @param selectOrders true to choose each drone's orders and their sequence with an OrderSelector
+     */
+    public FleetPlanner(ArrayList<Order> orders, Airspace airspace, int droneCount, boolean selectOrders)
+    {
+        assert droneCount > 0;
+        this.orders = orders;
+        this.airspace = airspace;
+        this.droneCount = droneCount;
+        this.selectOrders = selectOrders;
+    }
+
+    /**
+     * Sets a receiver for the legs of every drone's flight, which is sent every leg as soon as it is committed.
+     * @param moveSink the receiver, or null to publish nothing
+     */
+    public void setMoveSink(MoveSink moveSink) { this.moveSink = moveSink; }
+
+    /**
+     * Sets the route table that every drone's paths between stops are taken from and stored in.
+     * @param routeTable the route table, or null to plan every path
+     */
+    public void setRouteTable(RouteTable routeTable) { this.routeTable = routeTable; }
+
+    /**
+     * Sets the run in the run-partitioned output tables that every drone's paths and deliveries are written under.
+     * @param run the run returned by SQLClient.startRun, or null to write to the per-run tables
+     */
+    public void setRun(SQLClient.Run run) { this.run = run; }
+
+    /**
+     * Splits the orders between the drones, plans every drone's flight in parallel and combines the results.
+     * @return a GeoJSON FeatureCollection containing one LineString per drone, tagged with its drone id
+     * @throws IllegalStateException if a drone's flight cannot be planned, or the planning thread is interrupted
+     */
+    public String generateFlightPaths()
+    {
+        ArrayList<ArrayList<Order>> assignments = assignOrders();
+        for (int droneId = 0; droneId < assignments.size(); droneId++)
+        {
+            ArrayList<Order> assignment = assignments.get(droneId);
+            if (selectOrders) { assignment = new OrderSelector(assignment, airspace, Flight.MAX_MOVE_COUNT).select(); }
+            Flight flight = new Flight(assignment, airspace, droneId);
+            flight.setMoveSink(moveSink);
+            flight.setRouteTable(routeTable);
+            flight.setRun(run);
+            flights.add(flight);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(flights.size());
+        try
+        {
+            ArrayList<Future<String>> results = new ArrayList<>();
+            for (Flight flight : flights)
+            {
+                results.add(executor.submit(flight::generateFlightPath));
+            }
+
+            ArrayList<Feature> features = new ArrayList<>();
+            for (int i = 0; i < flights.size(); i++)
+            {
+                results.get(i).get();
+                features.add(flights.get(i).getLineStringFeature());
+            }
+            return FeatureCollection.fromFeatures(features).toJson();
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while planning the fleet's flights", e);
+        } catch (ExecutionException e)
+        {
+            throw new IllegalStateException("Planning a drone's flight failed", e.getCause());
+        } finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Assigns each order to a drone by running k-means over the delivery locations. The initial centroids are chosen
+     * deterministically (farthest-point seeding from the first order) so that a given day always produces the same
+     * split. Orders keep their original relative order within each drone's assignment.
+     * @return one list of orders per drone
+     */
+    private ArrayList<ArrayList<Order>> assignOrders()
+    {
+        int k = Math.min(droneCount, Math.max(orders.size(), 1));
+        ArrayList<ArrayList<Order>> assignments = new ArrayList<>();
+        for (int i = 0; i < k; i++) { assignments.add(new ArrayList<>()); }
+        if (orders.size() == 0) { return assignments; }
+
+        double[] centroidLongs = new double[k];
+        double[] centroidLats = new double[k];
+        seedCentroids(centroidLongs, centroidLats);
+
+        int[] cluster = new int[orders.size()];
+        Arrays.fill(cluster, -1);
+        for (int iteration = 0; iteration < MAX_KMEANS_ITERATIONS; iteration++)
+        {
+            boolean changed = false;
+            for (int i = 0; i < orders.size(); i++)
+            {
+                int nearest = nearestCentroid(orders.get(i).getDeliveryLocation(), centroidLongs, centroidLats);
+                if (nearest != cluster[i])
+                {
+                    cluster[i] = nearest;
+                    changed = true;
+                }
+            }
+            if (!changed) { break; }
+
+            double[] sumLongs = new double[k];
+            double[] sumLats = new double[k];
+            int[] counts = new int[k];
+            for (int i = 0; i < orders.size(); i++)
+            {
+                LongLat location = orders.get(i).getDeliveryLocation();
+                sumLongs[cluster[i]] += location.getLongitude();
+                sumLats[cluster[i]] += location.getLatitude();
+                counts[cluster[i]]++;
+            }
+            for (int c = 0; c < k; c++)
+            {
+                // empty clusters keep their previous centroid
+                if (counts[c] > 0)
+                {
+                    centroidLongs[c] = sumLongs[c] / counts[c];
+                    centroidLats[c] = sumLats[c] / counts[c];
+                }
+            }
+        }
+
+        for (int i = 0; i < orders.size(); i++)
+        {
+            assignments.get(cluster[i]).add(orders.get(i));
+        }
+        return assignments;
+    }
+
+    /**
+     * Chooses the initial centroids using farthest-point seeding, starting from the delivery location of the first
+     * order.
+     * @param centroidLongs the array to fill with the centroid longitudes
+     * @param centroidLats the array to fill with the centroid latitudes
+     */
+    private void seedCentroids(double[] centroidLongs, double[] centroidLats)
+    {
+        LongLat first = orders.get(0).getDeliveryLocation();
+        centroidLongs[0] = first.getLongitude();
+        centroidLats[0] = first.getLatitude();
+
+        for (int c = 1; c < centroidLongs.length; c++)
+        {
+            double farthestDistance = -1;
+            LongLat farthest = first;
+            for (Order order : orders)
+            {
+                LongLat location = order.getDeliveryLocation();
+                double distance = Double.MAX_VALUE;
+                for (int j = 0; j < c; j++)
+                {
+                    distance = Math.min(distance, location.distanceTo(new LongLat(centroidLongs[j], centroidLats[j])));
+                }
+                if (distance > farthestDistance)
+                {
+                    farthestDistance = distance;
+                    farthest = location;
+                }
+            }
+            centroidLongs[c] = farthest.getLongitude();
+            centroidLats[c] = farthest.getLatitude();
+        }
+    }
+
+    /**
+     * Finds the index of the centroid closest to a given location.
+     * @param location the location
+     * @param centroidLongs the centroid longitudes
+     * @param centroidLats the centroid latitudes
+     * @return the index of the nearest centroid
+     */
+    private static int nearestCentroid(LongLat location, double[] centroidLongs, double[] centroidLats)
+    {
+        int nearest = 0;
+        double nearestDistance = Double.MAX_VALUE;
+        for (int c = 0; c < centroidLongs.length; c++)
+        {
+            double distance = location.distanceTo(new LongLat(centroidLongs[c], centroidLats[c]));
+            if (distance < nearestDistance)
+            {
+                nearestDistance = distance;
+                nearest = c;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Retrieves the flights planned for each drone, indexed by drone id.
+     * @return the flights
+     */
+    public List<Flight> getFlights() { return flights; }
+
+    /**
+     * Retrieves the total number of moves made by the whole fleet.
+     * @return the move count
+     */
+    public int getMoveCount()
+    {
+        int moves = 0;
+        for (Flight flight : flights) { moves += flight.getMoveCount(); }
+        return moves;
+    }
+
+    /**
+     * Retrieves the total number of moves saved by shortcutting across the whole fleet.
+     * @return the number of moves saved
+     */
+    public int getMovesSavedByShortcuts()
+    {
+        int moves = 0;
+        for (Flight flight : flights) { moves += flight.getMovesSavedByShortcuts(); }
+        return moves;
+    }
+
+    /**
+     * Retrieves the total number of legs between stops flown along a route from the route table across the fleet.
+     * @return the hit count
+     */
+    public int getRouteHits()
+    {
+        int hits = 0;
+        for (Flight flight : flights) { hits += flight.getRouteHits(); }
+        return hits;
+    }
+
+    /**
+     * Retrieves the total number of legs between stops that had to be planned across the fleet.
+     * @return the miss count
+     */
+    public int getRouteMisses()
+    {
+        int misses = 0;
+        for (Flight flight : flights) { misses += flight.getRouteMisses(); }
+        return misses;
+    }
+
+    /**
+     * Retrieves the total cost of all orders delivered by the fleet.
+     * @return the total delivered cost in pence
+     */
+    public int getTotalDeliveredOrderCost()
+    {
+        int cost = 0;
+        for (Flight flight : flights) { cost += flight.totalDeliveredOrderCost; }
+        return cost;
+    }
+}
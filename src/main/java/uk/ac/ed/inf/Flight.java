@@ -3,7 +3,12 @@ package uk.ac.ed.inf;
 import com.mapbox.geojson.*;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntFunction;
 
 /**
  * Class that contains all information relating to the flight of the drone, including the pathing algorithm, its helper
@@ -11,15 +16,40 @@ import java.util.List;
  */
 public class Flight
 {
-    private final ArrayList<Order> orders;
-    private final ArrayList<Polygon> noFlyZones;
-    private static final LongLat APPLETON_TOWER = new LongLat(-3.186874, 55.944494);
+    private final Iterable<Order> orders;
+    private final Airspace airspace;
+    static final LongLat APPLETON_TOWER = new LongLat(-3.186874, 55.944494);
     private ArrayList<Point> pointsForLineString = new ArrayList<>();
+    private final ArrayList<FlightLog.Leg> committedLegs = new ArrayList<>();
     private int moveCount;
-    private static final int MAX_MOVE_COUNT = 1500;
+    private int movesSavedByShortcuts;
+    // moves saved on the sub-paths of the path that is about to be committed
+    private int pendingMovesSaved;
+    static final int MAX_MOVE_COUNT = 1500;
+    // the return path the latest committed order was checked against, or null if it was committed on the retrace bound
+    private ArrayList<LongLat> checkedReturnPath;
     public int totalDeliveredOrderCost;
     private static final int GREATER_FLAG = -1;
     private static final int LESSER_FLAG = 1;
+    private static final int NO_TURN = Integer.MIN_VALUE;
+    public static final int SINGLE_DRONE_ID = -1;
+    // cast every ray of the heading sweep in avoidNoFlyZones at once on a shared pool, set with -Dilp.parallelSweep=true
+    private static final boolean PARALLEL_SWEEP = Boolean.getBoolean("ilp.parallelSweep");
+    private static final ForkJoinPool SWEEP_POOL =
+            PARALLEL_SWEEP ? new ForkJoinPool(Runtime.getRuntime().availableProcessors()) : null;
+    // the number of orders the drone carries on one trip, set with -Dilp.capacity=N (one order at a time by default)
+    private static final int CAPACITY = Integer.getInteger("ilp.capacity", 1);
+    private final int droneId;
+    private final ArrayList<PlanningProfile> profiles = new ArrayList<>();
+    private PlanningProfile profile;
+    private long profileStart;
+    private MoveSink moveSink;
+    private RouteTable routeTable;
+    private SQLClient.Run run;
+    // the shops of the orders planned so far and Appleton Tower, between which paths are kept in the route table
+    private final ArrayList<LongLat> stops = new ArrayList<>(List.of(APPLETON_TOWER));
+    private int routeHits;
+    private int routeMisses;
 
     /**
      * Class constructor. Simply takes the information needed to calculate a flightpath and stores it.
@@ -27,11 +57,44 @@ public class Flight
      * @param noFlyZones the no-fly-zones from /buildings/no-fly-zones.geojson
      */
     public Flight(ArrayList<Order> orders, ArrayList<Polygon> noFlyZones)
+    {
+        this(orders, new Airspace(noFlyZones), SINGLE_DRONE_ID);
+    }
+
+    /**
+     * Class constructor for a flight flown by one drone of a fleet. The drone id is written alongside every move in
+     * the flightpath table and attached to the GeoJSON LineString.
+     * @param orders the Order objects assigned to this drone, in the order they should be delivered. Iterating may block
+     * until the next order has been resolved, so planning can start while later orders are still being loaded
+     * @param airspace the compiled no-fly-zones, which may be shared with other flights
+     * @param droneId the id of the drone, or SINGLE_DRONE_ID when only one drone is flying
+     */
+    public Flight(Iterable<Order> orders, Airspace airspace, int droneId)
     {
         this.orders = orders;
-        this.noFlyZones = noFlyZones;
+        this.airspace = airspace;
+        this.droneId = droneId;
     }
 
+    /**
+     * Sets a receiver for the legs of this flight, which is sent every leg as soon as it is committed and told when the
+     * flight is complete.
+     * @param moveSink the receiver, or null to publish nothing
+     */
+    public void setMoveSink(MoveSink moveSink) { this.moveSink = moveSink; }
+
+    /**
+     * Sets the route table that paths between stops are taken from and stored in.
+     * @param routeTable the route table, or null to plan every path
+     */
+    public void setRouteTable(RouteTable routeTable) { this.routeTable = routeTable; }
+
+    /**
+     * Sets the run in the run-partitioned output tables that the paths and deliveries are written under.
+     * @param run the run returned by SQLClient.startRun, or null to write to the per-run tables
+     */
+    public void setRun(SQLClient.Run run) { this.run = run; }
+
     /**
      * Top-level function that decides the order in which locations are visited during the flightpath, calling the
      * appropriate methods to generate the sub-paths between them, and to commit these paths to the database.
@@ -39,10 +102,13 @@ public class Flight
      */
     public String generateFlightPath()
     {
+        if (CAPACITY > 1) { return generateTripFlightPath(); }
         LongLat previousLocation = APPLETON_TOWER;
 
         for (Order order : orders)
         {
+            beginProfile(order.getOrderNo());
+            addStops(order);
             ArrayList<LongLat> orderPath = new ArrayList<>();
 
             for (LongLat pickup : order.getPickupLocations())
@@ -60,26 +126,301 @@ public class Flight
 
             if (!commitDeliveryPath(order, orderPath))
             {
-                return FeatureCollection.fromFeature(Feature.fromGeometry(LineString.fromLngLats(pointsForLineString))).toJson();
+                return FeatureCollection.fromFeature(getLineStringFeature()).toJson();
+            }
+        }
+
+        returnToAppleton(previousLocation);
+        return FeatureCollection.fromFeature(getLineStringFeature()).toJson();
+    }
+
+    /**
+     * Plans a single path between two points without committing it, profiled as a leg of its own. Used to measure the
+     * planner on airspaces other than the day's.
+     * @param origin the starting point of the path
+     * @param destination the final point of the path
+     * @return the path
+     */
+    ArrayList<LongLat> planPath(LongLat origin, LongLat destination)
+    {
+        beginProfile("path");
+        ArrayList<LongLat> path = createSubPath(origin, destination);
+        finishProfile();
+        return path;
+    }
+
+    /**
+     * Variant of generateFlightPath for a drone that can carry several orders at once. The orders are grouped into
+     * trips, and each trip's shops are visited before its deliveries are made. Grouping needs every order, so planning
+     * only starts once all of them have been resolved.
+     * @return the GeoJSON LineString representing the flightpath
+     */
+    private String generateTripFlightPath()
+    {
+        LongLat previousLocation = APPLETON_TOWER;
+        for (Trip trip : Trip.batch(orders, CAPACITY))
+        {
+            previousLocation = flyTrip(trip, previousLocation);
+            if (previousLocation == null)
+            {
+                return FeatureCollection.fromFeature(getLineStringFeature()).toJson();
             }
         }
 
         returnToAppleton(previousLocation);
-        return FeatureCollection.fromFeature(Feature.fromGeometry(LineString.fromLngLats(pointsForLineString))).toJson();
+        return FeatureCollection.fromFeature(getLineStringFeature()).toJson();
+    }
+
+    /**
+     * Plans a trip and commits it if the drone can still get back to Appleton Tower afterwards. The drone hovers once at
+     * every stop, and the moves to each stop are written to the flightpath table under the order the stop is made for.
+     * If the whole trip does not fit in the remaining moves, its orders are flown one at a time instead, and once an
+     * order on its own does not fit the drone returns to Appleton Tower.
+     * @param trip the trip
+     * @param origin the location the trip starts from
+     * @return the location the trip ends at, or null if the drone has returned to Appleton Tower
+     */
+    private LongLat flyTrip(Trip trip, LongLat origin)
+    {
+        beginProfile(trip.getLabel());
+        for (Order order : trip.getOrders()) { addStops(order); }
+        ArrayList<ArrayList<LongLat>> segments = new ArrayList<>();
+        LongLat previous = origin;
+        int tripMoves = 0;
+
+        for (Trip.Stop stop : trip.getStops())
+        {
+            ArrayList<LongLat> segment = createSubPath(previous, stop.getLocation());
+            if (segment.size() == 0) { segment.add(previous); }
+            previous = segment.get(segment.size() - 1);
+            segment.add(previous); // adds the stop again to represent the hover move in path
+            segments.add(segment);
+            tripMoves += segment.size() - 1;
+        }
+
+        if (!canGetBackToAppleton(previous, moveCount + tripMoves))
+        {
+            pendingMovesSaved = 0;
+            if (trip.getOrders().size() == 1)
+            {
+                returnToAppleton(origin);
+                return null;
+            }
+            for (Order order : trip.getOrders())
+            {
+                origin = flyTrip(new Trip(List.of(order)), origin);
+                if (origin == null) { return null; }
+            }
+            return origin;
+        }
+
+        for (int i = 0; i < segments.size(); i++)
+        {
+            String orderNo = trip.getStops().get(i).getOrder().getOrderNo();
+            ArrayList<LongLat> segment = segments.get(i);
+            moveCount += App.database.writeToFlightpathTable(run, orderNo, segment, droneId);
+            committedLegs.add(new FlightLog.Leg(orderNo, segment));
+            if (moveSink != null) { moveSink.legCommitted(droneId, orderNo, segment); }
+            for (LongLat node: segment)
+            {
+                assert node.isConfined();
+                pointsForLineString.add(Point.fromLngLat(node.getLongitude(), node.getLatitude()));
+            }
+        }
+        for (Order order : trip.getOrders())
+        {
+            App.database.writeToDeliveriesTable(run, order.getOrderNo(),
+                    order.getW3wDeliveryLocation(),
+                    order.getTotalCost(),
+                    droneId);
+            totalDeliveredOrderCost += order.getTotalCost();
+        }
+        movesSavedByShortcuts += pendingMovesSaved;
+        pendingMovesSaved = 0;
+        return previous;
+    }
+
+    /**
+     * Builds the GeoJSON feature for the path committed so far. Flights that belong to a fleet carry their drone id
+     * as a feature property.
+     * @return the LineString feature representing the flightpath
+     */
+    public Feature getLineStringFeature()
+    {
+        Feature feature = Feature.fromGeometry(LineString.fromLngLats(pointsForLineString));
+        if (droneId != SINGLE_DRONE_ID) { feature.addNumberProperty("droneId", droneId); }
+        return feature;
     }
 
     /**
      * Helper function that returns a straight path between two points if the path doesn't enter any no-fly-zones, or
-     * returns the result of avoidNoFlyZones otherwise.
+     * returns the result of avoidNoFlyZones otherwise, shortened by shortcutPath. Between two stops, the route stored
+     * in the route table is followed instead when there is one that can still be flown.
      * @param origin the starting point of the path
      * @param destination the final point of the path
      * @return the path
      */
     private ArrayList<LongLat> createSubPath(LongLat origin, LongLat destination)
     {
+        LongLat originStop = routeTable == null ? null : stopAt(origin);
+        LongLat destinationStop = routeTable == null ? null : stopAt(destination);
+        boolean betweenStops = originStop != null && destinationStop != null;
+        if (betweenStops)
+        {
+            ArrayList<LongLat> route = routeTable.lookup(originStop, destinationStop);
+            ArrayList<LongLat> path = route == null ? null : followRoute(origin, destination, route);
+            routeTable.recordLookup(path != null);
+            if (path != null)
+            {
+                routeHits++;
+                return path;
+            }
+            routeMisses++;
+        }
+
         ArrayList<LongLat> subPath = straightLineFromTo(origin, destination);
-        if (subPath.size() == 0) { return avoidNoFlyZones(origin, destination); }
-        else { return subPath; }
+        if (subPath.size() == 0) { subPath = shortcutPath(avoidNoFlyZones(origin, destination), destination); }
+        if (betweenStops && subPath.size() > 0) { routeTable.store(originStop, destinationStop, subPath); }
+        return subPath;
+    }
+
+    /**
+     * Joins a stored route up with the drone's actual position. The drone first flies straight from its position to
+     * close to the route's first node, then flies the route's moves from there, shifted by however far it ended up from
+     * that node. Where a shifted move would enter a no-fly-zone, it flies straight to close to the route's node instead
+     * and carries on from there. Finally it flies straight to the destination if the route does not end close enough
+     * to it.
+     * @param origin the drone's actual position
+     * @param destination the final point of the path
+     * @param route the stored route, including its first node
+     * @return the path, including its origin, or null if any move of it enters a no-fly-zone or leaves the
+     * confinement area
+     */
+    private ArrayList<LongLat> followRoute(LongLat origin, LongLat destination, ArrayList<LongLat> route)
+    {
+        LongLat routeStart = route.get(0);
+        ArrayList<LongLat> path = confinedStraightLineFromTo(origin, routeStart);
+        if (path.size() == 0) { return null; }
+
+        LongLat joined = path.get(path.size() - 1);
+        double longitudeShift = joined.getLongitude() - routeStart.getLongitude();
+        double latitudeShift = joined.getLatitude() - routeStart.getLatitude();
+        for (int i = 1; i < route.size(); i++)
+        {
+            LongLat previous = path.get(path.size() - 1);
+            LongLat next = new LongLat(route.get(i).getLongitude() + longitudeShift,
+                    route.get(i).getLatitude() + latitudeShift);
+            if (next.isConfined() && !lineEntersNoFlyZone(previous, next))
+            {
+                path.add(next);
+                continue;
+            }
+
+            // the shifted move clips a zone the route passes close to, so rejoin the route at this node instead
+            ArrayList<LongLat> rejoin = confinedStraightLineFromTo(previous, route.get(i));
+            if (rejoin.size() == 0) { return null; }
+            path.addAll(rejoin.subList(1, rejoin.size()));
+            joined = path.get(path.size() - 1);
+            longitudeShift = joined.getLongitude() - route.get(i).getLongitude();
+            latitudeShift = joined.getLatitude() - route.get(i).getLatitude();
+        }
+
+        LongLat end = path.get(path.size() - 1);
+        if (!end.closeTo(destination))
+        {
+            ArrayList<LongLat> finish = confinedStraightLineFromTo(end, destination);
+            if (finish.size() == 0) { return null; }
+            path.addAll(finish.subList(1, finish.size()));
+        }
+        return path;
+    }
+
+    /**
+     * Records the shops of an order as stops.
+     * @param order the order
+     */
+    private void addStops(Order order)
+    {
+        for (LongLat pickup : order.getPickupLocations())
+        {
+            if (!stops.contains(pickup)) { stops.add(pickup); }
+        }
+    }
+
+    /**
+     * Retrieves the stop a point is at: a shop of the orders planned so far, or Appleton Tower, that the point is close
+     * to.
+     * @param point the point
+     * @return the stop, or null if the point is not at a stop
+     */
+    private LongLat stopAt(LongLat point)
+    {
+        for (LongLat stop : stops)
+        {
+            if (point.closeTo(stop)) { return stop; }
+        }
+        return null;
+    }
+
+    /**
+     * Post-processing pass over a path found by avoidNoFlyZones, which tends to follow its ray sweeps further than it
+     * needs to. Starting from the origin, the pass repeatedly flies straight towards the furthest node of the path that
+     * can be reached without entering a no-fly-zone or leaving the confinement area, and continues from where that
+     * straight line ends. The shortened path is only used if it has fewer moves than the original.
+     * @param path the path, from its origin to a point close to the destination
+     * @param destination the final destination of the path
+     * @return the shortened path, or the original path if it could not be shortened
+     */
+    private ArrayList<LongLat> shortcutPath(ArrayList<LongLat> path, LongLat destination)
+    {
+        if (path.size() < 3 || !path.get(path.size() - 1).closeTo(destination)) { return path; }
+
+        ArrayList<LongLat> shortcut = new ArrayList<>();
+        shortcut.add(path.get(0));
+        int reached = 0;
+
+        while (reached < path.size() - 1)
+        {
+            LongLat current = shortcut.get(shortcut.size() - 1);
+            ArrayList<LongLat> leg = new ArrayList<>();
+            int target = path.size() - 1;
+            for (; target > reached; target--)
+            {
+                leg = confinedStraightLineFromTo(current, target == path.size() - 1 ? destination : path.get(target));
+                if (leg.size() > 0) { break; }
+            }
+            // the straight lines end close to the nodes rather than on them, so progress can stall
+            if (target == reached || shortcut.size() + leg.size() - 1 >= path.size()) { return path; }
+
+            shortcut.addAll(leg.subList(1, leg.size()));
+            reached = target;
+        }
+
+        pendingMovesSaved += path.size() - shortcut.size();
+        return shortcut;
+    }
+
+    /**
+     * Variant of straightLineFromTo that also rejects lines which leave the confinement area, for use between points
+     * that may be close to its edge.
+     * @param origin the starting point of the path
+     * @param destination the final point of the path
+     * @return the straightest path between the origin and destination inclusive, or an empty list if it is not legal
+     */
+    private ArrayList<LongLat> confinedStraightLineFromTo(LongLat origin, LongLat destination)
+    {
+        ArrayList<LongLat> straightPath = new ArrayList<>();
+        straightPath.add(origin);
+        LongLat previous = origin;
+
+        while (!previous.closeTo(destination))
+        {
+            LongLat next = previous.nextPosition(previous.angleTo(destination));
+            if (!next.isConfined() || lineEntersNoFlyZone(previous, next)) { return new ArrayList<>(); }
+            previous = next;
+            straightPath.add(previous);
+        }
+        return straightPath;
     }
 
     /**
@@ -128,21 +469,29 @@ public class Flight
         int greaterAngle = (initAngle + 10) % 360;
         int lesserAngle = (initAngle - 10) % 360;
 
-        ArrayList<LongLat> greaterPath = testPath(origin, destination, greaterAngle);
-        ArrayList<LongLat> lesserPath = testPath(origin, destination, lesserAngle);
+        IntFunction<ArrayList<LongLat>> rays = angle -> testPath(origin, destination, angle, profile);
+        if (PARALLEL_SWEEP)
+        {
+            HashMap<Integer, ArrayList<LongLat>> sweep = castSweepInParallel(origin, destination, initAngle);
+            rays = angle -> sweep.containsKey(angle) ? sweep.get(angle) : testPath(origin, destination, angle, profile);
+        }
+
+        ArrayList<LongLat> greaterPath = rays.apply(greaterAngle);
+        ArrayList<LongLat> lesserPath = rays.apply(lesserAngle);
 
         while(greaterPath.size() == 0 && lesserPath.size() == 0 && greaterAngle != initAngle)
         {
             greaterAngle = (greaterAngle + 10) % 360;
             lesserAngle = (lesserAngle - 10) % 360;
 
-            greaterPath = testPath(origin, destination, greaterAngle);
-            lesserPath = testPath(origin, destination, lesserAngle);
+            greaterPath = rays.apply(greaterAngle);
+            lesserPath = rays.apply(lesserAngle);
         }
 
         if (greaterAngle == initAngle)
         {
             System.err.println("Algorithm failed");
+            profile.recordFallback();
             path.add(destination);
             return path;
         }
@@ -150,31 +499,78 @@ public class Flight
         if(greaterPath.size() > 0)
         {
             int turnAngle = (greaterAngle - 10) % 360;
-            path.addAll(turnTowardsDestination(greaterPath, destination, turnAngle, GREATER_FLAG));
+            path.addAll(turnTowardsDestination(greaterPath, destination, turnAngle, GREATER_FLAG, new LongIntMap(), 1));
         }
         else
         {
             int turnAngle = (lesserAngle + 10) % 360;
-            path.addAll(turnTowardsDestination(lesserPath, destination, turnAngle, LESSER_FLAG));
+            path.addAll(turnTowardsDestination(lesserPath, destination, turnAngle, LESSER_FLAG, new LongIntMap(), 1));
         }
         return path;
     }
 
+    /**
+     * Casts every ray that the heading sweep in avoidNoFlyZones could test, all at once on the shared sweep pool. The
+     * sweep then reads the rays in its usual order, so it picks the same heading it would have picked sequentially.
+     * Each ray is counted in its own planning profile, and the profiles are merged into the leg's profile in sweep
+     * order once every ray has finished.
+     * @param origin the starting point of the rays
+     * @param destination the destination the sweep is heading for
+     * @param initAngle the angle from the origin to the destination
+     * @return the ray cast at each angle of the sweep, keyed by the angle as the sweep computes it
+     */
+    private HashMap<Integer, ArrayList<LongLat>> castSweepInParallel(LongLat origin, LongLat destination, int initAngle)
+    {
+        LinkedHashMap<Integer, CompletableFuture<ArrayList<LongLat>>> rays = new LinkedHashMap<>();
+        LinkedHashMap<Integer, PlanningProfile> rayProfiles = new LinkedHashMap<>();
+        int greaterAngle = initAngle;
+        int lesserAngle = initAngle;
+
+        // the same sequence of angles as the sweep, which ends once the greater angle has come all the way round
+        for (int step = 0; step < 360 / 10; step++)
+        {
+            greaterAngle = (greaterAngle + 10) % 360;
+            lesserAngle = (lesserAngle - 10) % 360;
+            for (int angle : new int[]{greaterAngle, lesserAngle})
+            {
+                if (rays.containsKey(angle)) { continue; }
+                PlanningProfile rayProfile = new PlanningProfile(profile.getOrderNo(), droneId);
+                rayProfiles.put(angle, rayProfile);
+                rays.put(angle, CompletableFuture.supplyAsync(
+                        () -> testPath(origin, destination, angle, rayProfile), SWEEP_POOL));
+            }
+            if (greaterAngle == initAngle) { break; }
+        }
+
+        HashMap<Integer, ArrayList<LongLat>> sweep = new HashMap<>();
+        for (int angle : rays.keySet())
+        {
+            sweep.put(angle, rays.get(angle).join());
+            profile.merge(rayProfiles.get(angle));
+        }
+        return sweep;
+    }
+
     /**
      * Helper method for avoidNoFLyZones that, given a straight path that extends to the edge of the confinement zone,
      * tests each node within the path to see if it can be a turning point towards the given destination (without
      * entering a no-fly-zone). If this is the case, it generates a straight path from this node, following as close
      * an angle as possible to the destination, and calls itself recursively using this new path as the input. If a
-     * straight path to the destination is available at any stage, this is appended to the path and returned.
+     * straight path to the destination is available at any stage, this is appended to the path and returned. If the
+     * path would turn at the same point and angle as an earlier turn, it is stuck in a loop and the algorithm fails.
      * @param initialPath the straight path extending to the edge of the confinement zone
      * @param destination the final destination that we want to reach
      * @param turnAngle the angle that is tested on each node to see if a turn is valid
      * @param flag a flag value that indicates which direction the path should turn (increase or decrease the angle)
+     * @param turns the angle of the latest turn taken at each turning point so far, keyed by PositionKey
+     * @param depth the recursion depth of this call, starting at 1
      * @return a path that begins on the initial path, and turns towards the destination until it is reached.
      */
-    private ArrayList<LongLat> turnTowardsDestination(ArrayList<LongLat> initialPath, LongLat destination, int turnAngle, int flag)
+    private ArrayList<LongLat> turnTowardsDestination(ArrayList<LongLat> initialPath, LongLat destination, int turnAngle,
+                                                      int flag, LongIntMap turns, int depth)
     {
         ArrayList<LongLat> returnPath = new ArrayList<>();
+        profile.recordTurnDepth(depth);
 
         for (LongLat node: initialPath)
         {
@@ -209,12 +605,17 @@ public class Flight
                     }
                 }
 
-                returnPath.addAll(turnTowardsDestination(turnTestPath, destination, turnAngle, flag));
+                long turningPoint = PositionKey.of(node);
+                if (turns.get(turningPoint, NO_TURN) == turnAngle) { break; }
+                turns.put(turningPoint, turnAngle);
+
+                returnPath.addAll(turnTowardsDestination(turnTestPath, destination, turnAngle, flag, turns, depth + 1));
                 return returnPath;
             }
             else { returnPath.add(node); }
         }
         System.err.println("Algorithm failed");
+        profile.recordFallback();
         returnPath.add(destination);
         return returnPath;
     }
@@ -222,26 +623,55 @@ public class Flight
     /**
      * Method that creates a completely straight line path at a given angle from the given origin, and providing no
      * no-fly-zones are breached, continues this path until either a point enters close to the destination, or the edge
-     * of the confinement zone is reached.
+     * of the confinement zone is reached. Runs of moves that the airspace's free-run table shows to be clear are not
+     * tested individually.
      * @param origin the origin point
      * @param destination the planned final destination
      * @param angle the angle the path will follow
      * @return the path as described in the method description, or an empty list if a no-fly-zone is breached
      */
     private ArrayList<LongLat> testPath(LongLat origin, LongLat destination, int angle)
+    {
+        return testPath(origin, destination, angle, profile);
+    }
+
+    /**
+     * Variant of testPath that records its work in the given planning profile, so that rays can be cast on other
+     * threads.
+     * @param origin the origin point
+     * @param destination the planned final destination
+     * @param angle the angle the path will follow
+     * @param rayProfile the profile to record the ray in
+     * @return the path as described in testPath, or an empty list if a no-fly-zone is breached
+     */
+    private ArrayList<LongLat> testPath(LongLat origin, LongLat destination, int angle, PlanningProfile rayProfile)
     {
         ArrayList<LongLat> path = new ArrayList<>();
         path.add(origin);
         LongLat next = origin.nextPosition(angle);
+        // the moves up to this point in the path are known to be clear from the airspace's free-run table
+        int clearUntil = airspace.freeMovesFrom(origin, angle);
+
+        int freeMoves = 0;
 
         while (next.isConfined() && !next.closeTo(destination))
         {
             LongLat curr = path.get(path.size() - 1);
-            if (lineEntersNoFlyZone(curr, next)) { return new ArrayList<>(); }
+            if (path.size() > clearUntil)
+            {
+                clearUntil = path.size() - 1 + airspace.freeMovesFrom(curr, angle);
+                if (path.size() > clearUntil && airspace.lineEntersNoFlyZone(curr, next, rayProfile))
+                {
+                    rayProfile.recordRay(path.size(), freeMoves);
+                    return new ArrayList<>();
+                }
+            }
+            if (path.size() <= clearUntil) { freeMoves++; }
             path.add(next);
             next = next.nextPosition(angle);
         }
         if (next.closeTo(destination)) { path.add(next); }
+        rayProfile.recordRay(path.size() - 1, freeMoves);
         return path;
     }
 
@@ -253,106 +683,71 @@ public class Flight
      */
     private boolean lineEntersNoFlyZone(LongLat point1, LongLat point2)
     {
-        for (Polygon poly : noFlyZones)
-        {
-            List<Point> co_ords = poly.coordinates().get(0);
-            for (int i = 0; i < co_ords.size() - 1; i++)
-            {
-                LongLat curr = LocationConversion.pointToLongLat(co_ords.get(i));
-                LongLat next = LocationConversion.pointToLongLat(co_ords.get(i + 1));
-                if (linesIntersect(point1, point2, curr, next))
-                {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return airspace.lineEntersNoFlyZone(point1, point2, profile);
     }
 
     /**
-     * Method that returns whether the lines between two pairs of points intersect.
-     * @param line1Point1 the first point of the first pair
-     * @param line1Point2 the second point of the first pair
-     * @param line2Point1 the first point of the second pair
-     * @param line2Point2 the second point of the second pair
-     * @return true if the lines intersect, false otherwise
+     * Method to calculate and commit a path back to Appleton Tower from a given point.
+     * @param previous the given point
      */
-    private boolean linesIntersect(LongLat line1Point1, LongLat line1Point2, LongLat line2Point1, LongLat line2Point2)
+    private void returnToAppleton(LongLat previous)
     {
-        // for this function I will treat coordinates as if longitude is the x value, and latitude is the y value
-
-        // if these lines do not exist in the same x interval, they cannot intersect
-        if (Math.max(line1Point1.getLongitude(), line1Point2.getLongitude()) <
-                Math.min(line2Point1.getLongitude(), line2Point2.getLongitude())) { return false; }
-
-        // if the lines are vertical, when calculating the line gradient there will be a division by 0. This if statement
-        // anticipates this and handles the cases where either line is vertical
-        if (line1Point1.getLongitude() == line1Point2.getLongitude() && line2Point1.getLongitude() == line2Point2.getLongitude())
+        beginProfile("return");
+        pendingMovesSaved = 0;
+        ArrayList<LongLat>pathBackToAppleton = createSubPath(previous, APPLETON_TOWER);
+        if (pathBackToAppleton.size() - 1 > MAX_MOVE_COUNT - moveCount)
         {
-            return false;
+            // planned again, the return can come out longer than the one the last order was committed on (the route
+            // table may have changed in between), so that one is flown, or the committed moves are retraced
+            pathBackToAppleton = checkedReturnPath != null ? checkedReturnPath : retracedPath();
+            pendingMovesSaved = 0;
         }
-        else if (line1Point1.getLongitude() == line1Point2.getLongitude())
+        movesSavedByShortcuts += pendingMovesSaved;
+        pendingMovesSaved = 0;
+
+        moveCount += App.database.writeToFlightpathTable(run, "return", pathBackToAppleton, droneId);
+        assert moveCount <= MAX_MOVE_COUNT;
+        committedLegs.add(new FlightLog.Leg("return", pathBackToAppleton));
+        for (LongLat node: pathBackToAppleton)
         {
-            if (line2Point1.getLongitude() > line1Point1.getLongitude() != line2Point2.getLongitude() > line1Point1.getLongitude())
-            {
-                return true;
-            }
+            assert node.isConfined();
+            pointsForLineString.add(Point.fromLngLat(node.getLongitude(), node.getLatitude()));
         }
-        else if (line2Point1.getLongitude() == line2Point2.getLongitude())
+        finishProfile();
+        if (moveSink != null)
         {
-            if (line1Point1.getLongitude() > line2Point1.getLongitude() != line1Point2.getLongitude() > line2Point1.getLongitude())
-            {
-                return true;
-            }
+            moveSink.legCommitted(droneId, "return", pathBackToAppleton);
+            moveSink.flightComplete(droneId, moveCount);
         }
-
-        //calculate line gradients
-        double m1 = (line1Point1.getLatitude() - line1Point2.getLatitude()) /
-                (line1Point1.getLongitude() - line1Point2.getLongitude());
-
-        double m2 = (line2Point1.getLatitude() - line2Point2.getLatitude()) /
-                (line2Point1.getLongitude() - line2Point2.getLongitude());
-
-        if (m1 == m2) { return false; } // if the lines have the same gradient, they are parallel and so cannot intersect
-
-        //get y intercepts
-        double c1 = line1Point1.getLatitude() - m1 * line1Point1.getLongitude();
-        double c2 = line2Point1.getLatitude() - m2 * line2Point1.getLongitude();
-
-        //get the x value of the line intersection
-        double intersectionXVal = (c2 - c1) / (m1 - m2);
-
-        //if the intersection value calculated is within the overlapping x values, the lines must intersect
-        if (intersectionXVal >
-                Math.max(Math.min(line1Point1.getLongitude(), line1Point2.getLongitude()), Math.min(line2Point1.getLongitude(), line2Point2.getLongitude())) &&
-                (intersectionXVal <
-                        Math.min(Math.max(line1Point1.getLongitude(), line1Point2.getLongitude()), Math.max(line2Point1.getLongitude(), line2Point2.getLongitude()))))
-        {
-            return true;
-        }
-        return false;
     }
 
     /**
-     * Method to calculate and commit a path back to Appleton Tower from a given point.
-     * @param previous the given point
+     * Finishes the profile of the leg being planned, if there is one, and starts the profile of the next leg.
+     * @param orderNo the order number of the next leg, or "return"
      */
-    private void returnToAppleton(LongLat previous)
+    private void beginProfile(String orderNo)
     {
-        ArrayList<LongLat>pathBackToAppleton = createSubPath(previous, APPLETON_TOWER);
+        finishProfile();
+        profile = new PlanningProfile(orderNo, droneId);
+        profileStart = System.nanoTime();
+    }
 
-        moveCount += App.database.writeToFlightpathTable("return", pathBackToAppleton);
-        for (LongLat node: pathBackToAppleton)
-        {
-            assert node.isConfined();
-            pointsForLineString.add(Point.fromLngLat(node.getLongitude(), node.getLatitude()));
-        }
+    /**
+     * Finishes the profile of the leg being planned, if there is one, recording the time spent on it.
+     */
+    private void finishProfile()
+    {
+        if (profile == null) { return; }
+        profile.setPlanningMillis((System.nanoTime() - profileStart) / 1E6);
+        profiles.add(profile);
+        profile = null;
     }
 
     /**
      * Method to write and commit one complete delivery path (including pickup and delivery) into the flightpath table
      * and update the deliveries table accordingly. If the drone does not have enough battery power to complete the delivery,
-     * it instead returns to Appleton Tower, commits this to the flightpath and returns false.
+     * it instead returns to Appleton Tower from the start of the path, commits this to the flightpath and returns
+     * false.
      * @param order the order to which this delivery path relates
      * @param path the delivery path
      * @return true if delivery path committed, false if return path to Appleton committed
@@ -361,19 +756,20 @@ public class Flight
     {
         int newMoveCount = moveCount + path.size() - 1;
 
-        ArrayList<LongLat> pathBackToAppleton = createSubPath(path.get(path.size() - 1), APPLETON_TOWER);
-        // boolean that determines whether the drone will have enough battery power to return to appleton if this path is committed
-        boolean canGetBackToAppleton = pathBackToAppleton.size()  < MAX_MOVE_COUNT - newMoveCount;
-
-        if (canGetBackToAppleton)
+        if (canGetBackToAppleton(path.get(path.size() - 1), newMoveCount))
         {
             //write to database
-            App.database.writeToDeliveriesTable(order.getOrderNo(),
+            App.database.writeToDeliveriesTable(run, order.getOrderNo(),
                     order.getW3wDeliveryLocation(),
-                    order.getTotalCost());
+                    order.getTotalCost(),
+                    droneId);
 
-            moveCount += App.database.writeToFlightpathTable(order.getOrderNo(), path);
+            moveCount += App.database.writeToFlightpathTable(run, order.getOrderNo(), path, droneId);
+            committedLegs.add(new FlightLog.Leg(order.getOrderNo(), path));
+            if (moveSink != null) { moveSink.legCommitted(droneId, order.getOrderNo(), path); }
             totalDeliveredOrderCost += order.getTotalCost();
+            movesSavedByShortcuts += pendingMovesSaved;
+            pendingMovesSaved = 0;
             //update geoJson temporary list
             for (LongLat node: path)
             {
@@ -384,14 +780,121 @@ public class Flight
         }
         else
         {
-            returnToAppleton(path.get(path.size()-1));
+            // the path was never flown, so the drone returns from where it started
+            returnToAppleton(path.get(0));
             return false;
         }
     }
 
+    /**
+     * Method that determines whether the drone will have enough battery power to return to Appleton Tower from a given
+     * point, at the end of a path that is about to be committed. Points that the cost-to-home field's lower bound puts
+     * out of reach are turned down with a table lookup. While no more than half the budget has been flown, the drone
+     * can always get home by retracing its moves, so nothing is planned either. Otherwise the return path is planned
+     * and checked, and kept so that returnToAppleton can fly it if planning again gives a longer path.
+     * @param point the point the drone would return from
+     * @param movesFlown the number of moves the drone would have flown on reaching that point
+     * @return true if the drone can get back to Appleton Tower, false otherwise
+     */
+    private boolean canGetBackToAppleton(LongLat point, int movesFlown)
+    {
+        int remainingMoves = MAX_MOVE_COUNT - movesFlown;
+        int lowerBound = airspace.getCostToHome().movesHomeLowerBound(point);
+        if (lowerBound == CostToHomeField.UNREACHABLE || lowerBound + 1 >= remainingMoves) { return false; }
+
+        if (movesFlown < remainingMoves)
+        {
+            checkedReturnPath = null;
+            return true;
+        }
+
+        // this path is never flown here, so its shortcuts must not count towards the moves saved
+        int movesSavedBeforeCheck = pendingMovesSaved;
+        ArrayList<LongLat> pathBackToAppleton = createSubPath(point, APPLETON_TOWER);
+        pendingMovesSaved = movesSavedBeforeCheck;
+        if (pathBackToAppleton.size() >= remainingMoves) { return false; }
+
+        checkedReturnPath = pathBackToAppleton;
+        return true;
+    }
+
+    /**
+     * Checks, as a profiled leg of its own, whether the drone could get back to Appleton Tower from a point after
+     * flying the given number of moves. Used to test the feasibility check without committing a flight.
+     * @param point the point the drone would return from
+     * @param movesFlown the number of moves the drone would have flown on reaching that point
+     * @return true if the drone can get back to Appleton Tower, false otherwise
+     */
+    boolean canReturnFrom(LongLat point, int movesFlown)
+    {
+        beginProfile("check");
+        boolean canReturn = canGetBackToAppleton(point, movesFlown);
+        finishProfile();
+        return canReturn;
+    }
+
+    /**
+     * Builds the path back to Appleton Tower that retraces every move committed so far, leaving out the hovers. Each of
+     * its moves is the reverse of a move already flown, so it is legal and takes no more moves than have been flown.
+     * @return the path, starting at the end of the committed path
+     */
+    private ArrayList<LongLat> retracedPath()
+    {
+        ArrayList<LongLat> path = new ArrayList<>();
+        for (int i = pointsForLineString.size() - 1; i >= 0; i--)
+        {
+            Point point = pointsForLineString.get(i);
+            LongLat last = path.isEmpty() ? null : path.get(path.size() - 1);
+            if (last != null && last.getLongitude() == point.longitude() && last.getLatitude() == point.latitude())
+            {
+                continue;
+            }
+            path.add(new LongLat(point.longitude(), point.latitude()));
+        }
+        if (path.isEmpty()) { path.add(APPLETON_TOWER); }
+        return path;
+    }
+
     /**
      * Method to retrieve the move count.
      * @return the move count
      */
     public int getMoveCount() { return moveCount; }
+
+    /**
+     * Retrieves the number of moves that shortcutPath removed from the committed paths.
+     * @return the number of moves saved
+     */
+    public int getMovesSavedByShortcuts() { return movesSavedByShortcuts; }
+
+    /**
+     * Retrieves the number of legs between stops that were flown along a route from the route table.
+     * @return the hit count
+     */
+    public int getRouteHits() { return routeHits; }
+
+    /**
+     * Retrieves the number of legs between stops that had to be planned because the route table had no route for them
+     * that could be flown.
+     * @return the miss count
+     */
+    public int getRouteMisses() { return routeMisses; }
+
+    /**
+     * Retrieves the legs committed so far, in the order they were flown, for writing to a FlightLog.
+     * @return the committed legs
+     */
+    public ArrayList<FlightLog.Leg> getCommittedLegs() { return committedLegs; }
+
+    /**
+     * Retrieves the id of the drone flying this flight.
+     * @return the drone id, or SINGLE_DRONE_ID when only one drone is flying
+     */
+    public int getDroneId() { return droneId; }
+
+    /**
+     * Retrieves the planning profile of every leg planned so far, in the order they were planned.
+     * @return the profiles
+     */
+    public ArrayList<PlanningProfile> getProfiles() { return profiles; }
 }
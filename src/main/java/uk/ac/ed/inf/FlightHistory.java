@@ -0,0 +1,362 @@
+package uk.ac.ed.inf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class that holds the moves of many days of flights in memory, one primitive array per column, for analysing flight
+ * history without going through JDBC strings. Order numbers are stored once in a dictionary and referred to by index.
+ * Moves are appended from the flightpath tables by SQLClient.loadFlightHistory or from flight logs, and the queries are
+ * single scans over the columns they need.
+ *
+ * The store can be saved to a file and loaded back through a memory-mapped buffer, so a daily report over months of
+ * flights only needs to load the days added since the last one from the database.
+ */
+public class FlightHistory
+{
+    private static final int MAGIC = 0x494C5048; // "ILPH"
+    private static final int VERSION = 1;
+    private static final int INITIAL_CAPACITY = 4096;
+    // index of the hover moves in the heading histogram, after the 36 headings
+    public static final int HOVER_HEADING = 36;
+
+    private int size;
+    private int[] epochDays = new int[INITIAL_CAPACITY];
+    private int[] orderIds = new int[INITIAL_CAPACITY];
+    private int[] droneIds = new int[INITIAL_CAPACITY];
+    private short[] angles = new short[INITIAL_CAPACITY];
+    private double[] fromLongitudes = new double[INITIAL_CAPACITY];
+    private double[] fromLatitudes = new double[INITIAL_CAPACITY];
+    private double[] toLongitudes = new double[INITIAL_CAPACITY];
+    private double[] toLatitudes = new double[INITIAL_CAPACITY];
+    private final ArrayList<String> orderNumbers = new ArrayList<>();
+    private final HashMap<String, Integer> orderIndex = new HashMap<>();
+
+    /**
+     * Class to hold the totals of one day of flights.
+     */
+    public static class DayAggregate
+    {
+        private final LocalDate date;
+        private int moves;
+        private int hovers;
+        private int orders;
+        private double distance;
+
+        /**
+         * Class constructor. Creates the totals of a day with no moves.
+         * @param date the date
+         */
+        DayAggregate(LocalDate date) { this.date = date; }
+
+        /**
+         * Retrieves the date.
+         * @return the date
+         */
+        public LocalDate getDate() { return date; }
+
+        /**
+         * Retrieves the number of moves flown, including hovers.
+         * @return the move count
+         */
+        public int getMoves() { return moves; }
+
+        /**
+         * Retrieves the number of hover moves.
+         * @return the hover count
+         */
+        public int getHovers() { return hovers; }
+
+        /**
+         * Retrieves the number of distinct order numbers flown for, including "return".
+         * @return the order count
+         */
+        public int getOrders() { return orders; }
+
+        /**
+         * Retrieves the total distance flown, in degrees.
+         * @return the distance
+         */
+        public double getDistance() { return distance; }
+    }
+
+    /**
+     * Appends one move to the store.
+     * @param date the date the move was flown on
+     * @param orderNo the order number the move was flown for, or "return"
+     * @param droneId the id of the drone, or Flight.SINGLE_DRONE_ID
+     * @param fromLongitude the longitude the move starts at
+     * @param fromLatitude the latitude the move starts at
+     * @param angle the angle of the move, or LongLat.HOVER_VALUE for a hover
+     * @param toLongitude the longitude the move ends at
+     * @param toLatitude the latitude the move ends at
+     */
+    public void addMove(LocalDate date, String orderNo, int droneId, double fromLongitude, double fromLatitude,
+                        int angle, double toLongitude, double toLatitude)
+    {
+        if (size == epochDays.length) { grow(size * 2); }
+        Integer orderId = orderIndex.get(orderNo);
+        if (orderId == null)
+        {
+            orderId = orderNumbers.size();
+            orderNumbers.add(orderNo);
+            orderIndex.put(orderNo, orderId);
+        }
+
+        epochDays[size] = (int)date.toEpochDay();
+        orderIds[size] = orderId;
+        droneIds[size] = droneId;
+        angles[size] = (short)angle;
+        fromLongitudes[size] = fromLongitude;
+        fromLatitudes[size] = fromLatitude;
+        toLongitudes[size] = toLongitude;
+        toLatitudes[size] = toLatitude;
+        size++;
+    }
+
+    /**
+     * Appends every move of a flight log to the store.
+     * @param log the flight log
+     */
+    public void addFlightLog(FlightLog log)
+    {
+        for (FlightLog.Leg leg : log.getLegs())
+        {
+            ArrayList<LongLat> path = leg.getPath();
+            for (int i = 0; i < path.size() - 1; i++)
+            {
+                addMove(log.getDate(), leg.getOrderNo(), log.getDroneId(),
+                        path.get(i).getLongitude(), path.get(i).getLatitude(),
+                        path.get(i).angleTo(path.get(i + 1)),
+                        path.get(i + 1).getLongitude(), path.get(i + 1).getLatitude());
+            }
+        }
+    }
+
+    /**
+     * Copies the moves flown between two dates into a new store.
+     * @param first the first date to copy, inclusive
+     * @param last the last date to copy, inclusive
+     * @return the store holding only the moves flown from first to last
+     */
+    public FlightHistory between(LocalDate first, LocalDate last)
+    {
+        FlightHistory range = new FlightHistory();
+        int firstDay = (int)first.toEpochDay();
+        int lastDay = (int)last.toEpochDay();
+        for (int i = 0; i < size; i++)
+        {
+            if (epochDays[i] < firstDay || epochDays[i] > lastDay) { continue; }
+            range.addMove(LocalDate.ofEpochDay(epochDays[i]), orderNumbers.get(orderIds[i]), droneIds[i],
+                    fromLongitudes[i], fromLatitudes[i], angles[i], toLongitudes[i], toLatitudes[i]);
+        }
+        return range;
+    }
+
+    /**
+     * Resizes every column.
+     * @param capacity the new number of moves the columns can hold
+     */
+    private void grow(int capacity)
+    {
+        epochDays = Arrays.copyOf(epochDays, capacity);
+        orderIds = Arrays.copyOf(orderIds, capacity);
+        droneIds = Arrays.copyOf(droneIds, capacity);
+        angles = Arrays.copyOf(angles, capacity);
+        fromLongitudes = Arrays.copyOf(fromLongitudes, capacity);
+        fromLatitudes = Arrays.copyOf(fromLatitudes, capacity);
+        toLongitudes = Arrays.copyOf(toLongitudes, capacity);
+        toLatitudes = Arrays.copyOf(toLatitudes, capacity);
+    }
+
+    /**
+     * Counts the moves flown for each order number. An order number flown on several days is counted over all of them.
+     * @return the move count of every order number, in the order they were first added
+     */
+    public LinkedHashMap<String, Integer> movesPerOrder()
+    {
+        int[] counts = new int[orderNumbers.size()];
+        for (int i = 0; i < size; i++) { counts[orderIds[i]]++; }
+
+        LinkedHashMap<String, Integer> movesPerOrder = new LinkedHashMap<>();
+        for (int id = 0; id < counts.length; id++) { movesPerOrder.put(orderNumbers.get(id), counts[id]); }
+        return movesPerOrder;
+    }
+
+    /**
+     * Counts the moves flown at every heading.
+     * @return the count for every heading divided by ten, with hovers counted at HOVER_HEADING
+     */
+    public long[] headingHistogram()
+    {
+        long[] histogram = new long[HOVER_HEADING + 1];
+        for (int i = 0; i < size; i++)
+        {
+            histogram[angles[i] == LongLat.HOVER_VALUE ? HOVER_HEADING : Math.floorMod(angles[i], 360) / 10]++;
+        }
+        return histogram;
+    }
+
+    /**
+     * Counts the moves that end within a distance of a no-fly-zone. Every move takes the same time, so this measures
+     * the time the drones spend close to the zones.
+     * @param airspace the no-fly-zones
+     * @param distance the distance, in degrees
+     * @return the number of moves ending within the distance
+     */
+    public long movesNearNoFlyZones(Airspace airspace, double distance)
+    {
+        long near = 0;
+        for (int i = 0; i < size; i++)
+        {
+            if (airspace.distanceToNoFlyZone(toLongitudes[i], toLatitudes[i]) <= distance) { near++; }
+        }
+        return near;
+    }
+
+    /**
+     * Totals the moves of every day in the store.
+     * @return the totals of every day, in date order
+     */
+    public ArrayList<DayAggregate> dailyAggregates()
+    {
+        Map<Integer, DayAggregate> days = new HashMap<>();
+        Map<Integer, boolean[]> ordersSeen = new HashMap<>();
+        for (int i = 0; i < size; i++)
+        {
+            DayAggregate day = days.computeIfAbsent(epochDays[i], d -> new DayAggregate(LocalDate.ofEpochDay(d)));
+            boolean[] seen = ordersSeen.computeIfAbsent(epochDays[i], d -> new boolean[orderNumbers.size()]);
+            day.moves++;
+            if (angles[i] == LongLat.HOVER_VALUE) { day.hovers++; }
+            if (!seen[orderIds[i]])
+            {
+                seen[orderIds[i]] = true;
+                day.orders++;
+            }
+            day.distance += Math.hypot(toLongitudes[i] - fromLongitudes[i], toLatitudes[i] - fromLatitudes[i]);
+        }
+
+        ArrayList<DayAggregate> aggregates = new ArrayList<>(days.values());
+        aggregates.sort((a, b) -> a.getDate().compareTo(b.getDate()));
+        return aggregates;
+    }
+
+    /**
+     * Retrieves the number of moves in the store.
+     * @return the move count
+     */
+    public int size() { return size; }
+
+    /**
+     * Retrieves the latest date in the store.
+     * @return the date, or null if the store is empty
+     */
+    public LocalDate getLastDate()
+    {
+        if (size == 0) { return null; }
+        int last = Integer.MIN_VALUE;
+        for (int i = 0; i < size; i++) { last = Math.max(last, epochDays[i]); }
+        return LocalDate.ofEpochDay(last);
+    }
+
+    /**
+     * Saves the store to a file, overwriting it if it exists. The file holds a header, the order number dictionary and
+     * then each column in turn.
+     * @param file the file
+     * @throws IOException if the file cannot be written
+     */
+    public void save(Path file) throws IOException
+    {
+        ArrayList<byte[]> encodedOrders = new ArrayList<>();
+        long dictionaryBytes = 0;
+        for (String orderNo : orderNumbers)
+        {
+            byte[] encoded = orderNo.getBytes(StandardCharsets.UTF_8);
+            encodedOrders.add(encoded);
+            dictionaryBytes += Integer.BYTES + encoded.length;
+        }
+        long length = 4 * Integer.BYTES + dictionaryBytes +
+                (long)size * (3 * Integer.BYTES + Short.BYTES + 4 * Double.BYTES);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(orderNumbers.size());
+            for (byte[] encoded : encodedOrders) { buffer.putInt(encoded.length).put(encoded); }
+
+            buffer.asIntBuffer().put(epochDays, 0, size);
+            buffer.position(buffer.position() + size * Integer.BYTES);
+            buffer.asIntBuffer().put(orderIds, 0, size);
+            buffer.position(buffer.position() + size * Integer.BYTES);
+            buffer.asIntBuffer().put(droneIds, 0, size);
+            buffer.position(buffer.position() + size * Integer.BYTES);
+            buffer.asShortBuffer().put(angles, 0, size);
+            buffer.position(buffer.position() + size * Short.BYTES);
+            for (double[] column : new double[][]{fromLongitudes, fromLatitudes, toLongitudes, toLatitudes})
+            {
+                buffer.asDoubleBuffer().put(column, 0, size);
+                buffer.position(buffer.position() + size * Double.BYTES);
+            }
+            buffer.force();
+        }
+    }
+
+    /**
+     * Loads a store saved by save, reading the file through a memory-mapped buffer.
+     * @param file the file
+     * @return the store
+     * @throws IOException if the file cannot be read or is not a saved flight history
+     */
+    public static FlightHistory load(Path file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC) { throw new IOException("Not a flight history: " + file); }
+            int version = buffer.getInt();
+            if (version != VERSION) { throw new IOException("Unsupported flight history version: " + version); }
+
+            FlightHistory history = new FlightHistory();
+            int size = buffer.getInt();
+            int orderCount = buffer.getInt();
+            for (int id = 0; id < orderCount; id++)
+            {
+                byte[] encoded = new byte[buffer.getInt()];
+                buffer.get(encoded);
+                String orderNo = new String(encoded, StandardCharsets.UTF_8);
+                history.orderNumbers.add(orderNo);
+                history.orderIndex.put(orderNo, id);
+            }
+
+            history.grow(Math.max(size, INITIAL_CAPACITY));
+            history.size = size;
+            buffer.asIntBuffer().get(history.epochDays, 0, size);
+            buffer.position(buffer.position() + size * Integer.BYTES);
+            buffer.asIntBuffer().get(history.orderIds, 0, size);
+            buffer.position(buffer.position() + size * Integer.BYTES);
+            buffer.asIntBuffer().get(history.droneIds, 0, size);
+            buffer.position(buffer.position() + size * Integer.BYTES);
+            buffer.asShortBuffer().get(history.angles, 0, size);
+            buffer.position(buffer.position() + size * Short.BYTES);
+            for (double[] column : new double[][]{history.fromLongitudes, history.fromLatitudes,
+                    history.toLongitudes, history.toLatitudes})
+            {
+                buffer.asDoubleBuffer().get(column, 0, size);
+                buffer.position(buffer.position() + size * Double.BYTES);
+            }
+            return history;
+        }
+    }
+}
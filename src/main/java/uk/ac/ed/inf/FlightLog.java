@@ -0,0 +1,326 @@
+package uk.ac.ed.inf;
+
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.FeatureCollection;
+import com.mapbox.geojson.LineString;
+import com.mapbox.geojson.Point;
+
+import java.io.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class for the compact binary flight log format, which stores a day's flight far more compactly than GeoJSON.
+ *
+ * A log starts with a header holding the date, the drone id and an index of the order numbers flown. This is followed by
+ * one record per committed leg. Each record holds the index of its order, the number of moves and the start position in
+ * fixed point, then a single heading byte per move (the angle divided by ten, or HOVER_HEADING). Every move's change in
+ * position is stored as a variable-length residual from the change its heading predicts, and because every move has the
+ * same length these residuals almost always fit in one byte each.
+ */
+public class FlightLog
+{
+    private static final int MAGIC = 0x494C5046; // "ILPF"
+    private static final int VERSION = 1;
+    private static final double FIXED_POINT_SCALE = 1E7;
+    private static final int HOVER_HEADING = 36;
+    private static final int[] PREDICTED_LONG_DELTAS = new int[HOVER_HEADING + 1];
+    private static final int[] PREDICTED_LAT_DELTAS = new int[HOVER_HEADING + 1];
+
+    static
+    {
+        LongLat origin = new LongLat(0, 0);
+        for (int heading = 0; heading < HOVER_HEADING; heading++)
+        {
+            LongLat next = origin.nextPosition(heading * 10);
+            PREDICTED_LONG_DELTAS[heading] = (int)Math.round(next.getLongitude() * FIXED_POINT_SCALE);
+            PREDICTED_LAT_DELTAS[heading] = (int)Math.round(next.getLatitude() * FIXED_POINT_SCALE);
+        }
+    }
+
+    /**
+     * Class to represent one committed leg of a flight: the path flown for one order, or the return to Appleton Tower.
+     */
+    public static class Leg
+    {
+        private final String orderNo;
+        private final ArrayList<LongLat> path;
+
+        /**
+         * Class constructor. Simply assigns the order number and the path.
+         * @param orderNo the order number the leg was flown for
+         * @param path the nodes of the leg, including its start point
+         */
+        public Leg(String orderNo, ArrayList<LongLat> path)
+        {
+            this.orderNo = orderNo;
+            this.path = path;
+        }
+
+        /**
+         * Retrieves the order number.
+         * @return the order number
+         */
+        public String getOrderNo() { return orderNo; }
+
+        /**
+         * Retrieves the nodes of the leg.
+         * @return the path
+         */
+        public ArrayList<LongLat> getPath() { return path; }
+    }
+
+    private final LocalDate date;
+    private final int droneId;
+    private final List<Leg> legs;
+
+    /**
+     * Class constructor. Simply assigns the attributes of the log.
+     * @param date the date the flight was planned for
+     * @param droneId the id of the drone, or Flight.SINGLE_DRONE_ID
+     * @param legs the committed legs of the flight, in the order they were flown
+     */
+    public FlightLog(LocalDate date, int droneId, List<Leg> legs)
+    {
+        this.date = date;
+        this.droneId = droneId;
+        this.legs = legs;
+    }
+
+    /**
+     * Writes the log to a file, overwriting it if it exists.
+     * @param filename the name of the file
+     * @return true if the file was written, false otherwise
+     */
+    public boolean writeToFile(String filename)
+    {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename))))
+        {
+            write(out);
+            return true;
+        } catch (IOException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Writes the log in the binary format.
+     * @param out the stream to write to
+     * @throws IOException if the stream cannot be written
+     */
+    public void write(DataOutputStream out) throws IOException
+    {
+        ArrayList<String> orderIndex = new ArrayList<>();
+        for (Leg leg : legs)
+        {
+            if (!orderIndex.contains(leg.orderNo)) { orderIndex.add(leg.orderNo); }
+        }
+
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt((int)date.toEpochDay());
+        out.writeInt(droneId);
+        writeVarInt(out, orderIndex.size());
+        for (String orderNo : orderIndex) { out.writeUTF(orderNo); }
+        writeVarInt(out, legs.size());
+
+        for (Leg leg : legs)
+        {
+            writeVarInt(out, orderIndex.indexOf(leg.orderNo));
+            writeVarInt(out, leg.path.size() - 1);
+
+            int longitude = toFixedPoint(leg.path.get(0).getLongitude());
+            int latitude = toFixedPoint(leg.path.get(0).getLatitude());
+            out.writeInt(longitude);
+            out.writeInt(latitude);
+
+            for (int i = 0; i < leg.path.size() - 1; i++)
+            {
+                int heading = headingOf(leg.path.get(i), leg.path.get(i + 1));
+                int nextLongitude = toFixedPoint(leg.path.get(i + 1).getLongitude());
+                int nextLatitude = toFixedPoint(leg.path.get(i + 1).getLatitude());
+
+                out.writeByte(heading);
+                writeVarInt(out, zigZag(nextLongitude - longitude - PREDICTED_LONG_DELTAS[heading]));
+                writeVarInt(out, zigZag(nextLatitude - latitude - PREDICTED_LAT_DELTAS[heading]));
+
+                longitude = nextLongitude;
+                latitude = nextLatitude;
+            }
+        }
+    }
+
+    /**
+     * Reads a log from a file.
+     * @param filename the name of the file
+     * @return the log
+     * @throws IOException if the file cannot be read or is not a flight log
+     */
+    public static FlightLog readFromFile(String filename) throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename))))
+        {
+            return read(in);
+        }
+    }
+
+    /**
+     * Reads a log in the binary format. Coordinates are restored to the precision of the fixed point encoding.
+     * @param in the stream to read from
+     * @return the log
+     * @throws IOException if the stream cannot be read or does not contain a flight log
+     */
+    public static FlightLog read(DataInputStream in) throws IOException
+    {
+        if (in.readInt() != MAGIC) { throw new IOException("Not a flight log"); }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) { throw new IOException("Unsupported flight log version: " + version); }
+
+        LocalDate date = LocalDate.ofEpochDay(in.readInt());
+        int droneId = in.readInt();
+
+        String[] orderIndex = new String[readVarInt(in)];
+        for (int i = 0; i < orderIndex.length; i++) { orderIndex[i] = in.readUTF(); }
+
+        int legCount = readVarInt(in);
+        ArrayList<Leg> legs = new ArrayList<>(legCount);
+        for (int l = 0; l < legCount; l++)
+        {
+            String orderNo = orderIndex[readVarInt(in)];
+            int moves = readVarInt(in);
+            int longitude = in.readInt();
+            int latitude = in.readInt();
+
+            ArrayList<LongLat> path = new ArrayList<>(moves + 1);
+            path.add(fromFixedPoint(longitude, latitude));
+            for (int i = 0; i < moves; i++)
+            {
+                int heading = in.readUnsignedByte();
+                if (heading > HOVER_HEADING) { throw new IOException("Invalid heading: " + heading); }
+                longitude += PREDICTED_LONG_DELTAS[heading] + unZigZag(readVarInt(in));
+                latitude += PREDICTED_LAT_DELTAS[heading] + unZigZag(readVarInt(in));
+                path.add(fromFixedPoint(longitude, latitude));
+            }
+            legs.add(new Leg(orderNo, path));
+        }
+        return new FlightLog(date, droneId, legs);
+    }
+
+    /**
+     * Converts the log into the same GeoJSON LineString that the flight produced.
+     * @return the GeoJSON FeatureCollection
+     */
+    public String toGeoJSON()
+    {
+        ArrayList<Point> points = new ArrayList<>();
+        for (Leg leg : legs)
+        {
+            for (LongLat node : leg.path)
+            {
+                points.add(Point.fromLngLat(node.getLongitude(), node.getLatitude()));
+            }
+        }
+        Feature feature = Feature.fromGeometry(LineString.fromLngLats(points));
+        if (droneId != Flight.SINGLE_DRONE_ID) { feature.addNumberProperty("droneId", droneId); }
+        return FeatureCollection.fromFeature(feature).toJson();
+    }
+
+    /**
+     * Finds the heading byte of a move, as written in the angle column of the flightpath table.
+     * @param from the start of the move
+     * @param to the end of the move
+     * @return the angle divided by ten, or HOVER_HEADING for a hover
+     */
+    private static int headingOf(LongLat from, LongLat to)
+    {
+        int angle = from.angleTo(to);
+        if (angle == LongLat.HOVER_VALUE) { return HOVER_HEADING; }
+        return (angle / 10) % HOVER_HEADING;
+    }
+
+    /**
+     * Converts a coordinate in degrees to fixed point.
+     * @param degrees the coordinate
+     * @return the coordinate in units of 1/FIXED_POINT_SCALE degrees
+     */
+    private static int toFixedPoint(double degrees) { return (int)Math.round(degrees * FIXED_POINT_SCALE); }
+
+    /**
+     * Converts a fixed point position back into a LongLat.
+     * @param longitude the fixed point longitude
+     * @param latitude the fixed point latitude
+     * @return the position
+     */
+    private static LongLat fromFixedPoint(int longitude, int latitude)
+    {
+        return new LongLat(longitude / FIXED_POINT_SCALE, latitude / FIXED_POINT_SCALE);
+    }
+
+    /**
+     * Maps a signed value to an unsigned one so that values close to zero stay small.
+     * @param value the signed value
+     * @return the zig-zag encoded value
+     */
+    private static int zigZag(int value) { return (value << 1) ^ (value >> 31); }
+
+    /**
+     * Reverses zigZag.
+     * @param value the zig-zag encoded value
+     * @return the signed value
+     */
+    private static int unZigZag(int value) { return (value >>> 1) ^ -(value & 1); }
+
+    /**
+     * Writes an unsigned variable-length integer, seven bits per byte.
+     * @param out the stream to write to
+     * @param value the value
+     * @throws IOException if the stream cannot be written
+     */
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException
+    {
+        while ((value & ~0x7F) != 0)
+        {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Reads an unsigned variable-length integer written by writeVarInt.
+     * @param in the stream to read from
+     * @return the value
+     * @throws IOException if the stream cannot be read
+     */
+    private static int readVarInt(DataInputStream in) throws IOException
+    {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7)
+        {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) { return value; }
+        }
+        throw new IOException("Malformed variable-length integer");
+    }
+
+    /**
+     * Retrieves the date of the flight.
+     * @return the date
+     */
+    public LocalDate getDate() { return date; }
+
+    /**
+     * Retrieves the id of the drone that flew the flight.
+     * @return the drone id, or Flight.SINGLE_DRONE_ID
+     */
+    public int getDroneId() { return droneId; }
+
+    /**
+     * Retrieves the committed legs of the flight.
+     * @return the legs
+     */
+    public List<Leg> getLegs() { return legs; }
+}
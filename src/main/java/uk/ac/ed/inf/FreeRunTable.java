@@ -0,0 +1,176 @@
+package uk.ac.ed.inf;
+
+/**
+ * Class that holds, for every cell of an OccupancyGrid and each of the 36 headings, the number of moves a drone starting
+ * anywhere in the cell can make at that heading before it could cross a no-fly-zone edge or leave the grid. A ray of
+ * moves can then be checked with a few table lookups instead of an intersection test per move.
+ *
+ * The counts are conservative. A move is only counted as free if the cells swept by every possible such move, from
+ * anywhere in the starting cell, contain no boundary cells, which a summed-area table over the boundary cells answers in
+ * constant time. Vertical moves are only ever tested against the longitude of the edges (see Airspace.linesIntersect),
+ * so for those headings a cell is free all the way to the edge of the grid unless an edge spans its column.
+ */
+public class FreeRunTable
+{
+    private static final int HEADINGS = 36;
+    // padding applied to the swept regions, so that rounding in repeated calls to nextPosition is always covered
+    private static final double SWEEP_PADDING = 1E-9;
+
+    private final int columns;
+    private final int rows;
+    private final byte[] freeMoves;
+    private final int[] boundaryCounts;
+
+    /**
+     * Class constructor. Computes the number of free moves for every cell and heading.
+     * @param grid the occupancy grid of the airspace
+     * @param edgeStartLongs the longitudes of the first point of every no-fly-zone edge
+     * @param edgeEndLongs the longitudes of the second point of every no-fly-zone edge
+     */
+    public FreeRunTable(OccupancyGrid grid, double[] edgeStartLongs, double[] edgeEndLongs)
+    {
+        columns = grid.getColumns();
+        rows = grid.getRows();
+        freeMoves = new byte[columns * rows * HEADINGS];
+
+        // summed-area table, where entry (row, column) counts the boundary cells below and to the left of that cell
+        boundaryCounts = new int[(rows + 1) * (columns + 1)];
+        for (int row = 0; row < rows; row++)
+        {
+            for (int column = 0; column < columns; column++)
+            {
+                boundaryCounts[(row + 1) * (columns + 1) + column + 1] = (grid.isBoundaryCell(column, row) ? 1 : 0) +
+                        boundaryCounts[row * (columns + 1) + column + 1] +
+                        boundaryCounts[(row + 1) * (columns + 1) + column] -
+                        boundaryCounts[row * (columns + 1) + column];
+            }
+        }
+
+        LongLat origin = new LongLat(0, 0);
+        for (int heading = 0; heading < HEADINGS; heading++)
+        {
+            LongLat step = origin.nextPosition(heading * 10);
+            boolean vertical = step.getLongitude() == 0;
+            for (int row = 0; row < rows; row++)
+            {
+                for (int column = 0; column < columns; column++)
+                {
+                    int moves;
+                    if (vertical)
+                    {
+                        moves = columnIsSpanned(column, edgeStartLongs, edgeEndLongs) ? 0 :
+                                countFreeMoves(column, row, 0, step.getLatitude(), true);
+                    }
+                    else
+                    {
+                        moves = countFreeMoves(column, row, step.getLongitude(), step.getLatitude(), false);
+                    }
+                    freeMoves[(row * columns + column) * HEADINGS + heading] = (byte)moves;
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts the moves that can be made from anywhere in a cell before the swept region touches a boundary cell or
+     * leaves the grid.
+     * @param column the column of the starting cell
+     * @param row the row of the starting cell
+     * @param dx the change in longitude of one move
+     * @param dy the change in latitude of one move
+     * @param ignoreBoundary true to only stop at the edge of the grid
+     * @return the number of free moves, at most Byte.MAX_VALUE
+     */
+    private int countFreeMoves(int column, int row, double dx, double dy, boolean ignoreBoundary)
+    {
+        double cellMinX = LongLat.MINIMUM_LONGITUDE + column * OccupancyGrid.CELL_SIZE;
+        double cellMinY = LongLat.MINIMUM_LATITUDE + row * OccupancyGrid.CELL_SIZE;
+
+        for (int move = 1; move <= Byte.MAX_VALUE; move++)
+        {
+            int firstColumn = columnOf(cellMinX + Math.min((move - 1) * dx, move * dx) - SWEEP_PADDING);
+            int lastColumn = columnOf(cellMinX + OccupancyGrid.CELL_SIZE + Math.max((move - 1) * dx, move * dx) +
+                    SWEEP_PADDING);
+            int firstRow = rowOf(cellMinY + Math.min((move - 1) * dy, move * dy) - SWEEP_PADDING);
+            int lastRow = rowOf(cellMinY + OccupancyGrid.CELL_SIZE + Math.max((move - 1) * dy, move * dy) +
+                    SWEEP_PADDING);
+
+            if (firstColumn < 0 || firstRow < 0 || lastColumn >= columns || lastRow >= rows) { return move - 1; }
+            if (!ignoreBoundary && boundaryCellsIn(firstColumn, firstRow, lastColumn, lastRow) > 0) { return move - 1; }
+        }
+        return Byte.MAX_VALUE;
+    }
+
+    /**
+     * Returns whether any edge spans part of a column, so that a vertical move within the column might straddle it.
+     * @param column the column
+     * @param edgeStartLongs the longitudes of the first point of every edge
+     * @param edgeEndLongs the longitudes of the second point of every edge
+     * @return true if an edge spans part of the column
+     */
+    private static boolean columnIsSpanned(int column, double[] edgeStartLongs, double[] edgeEndLongs)
+    {
+        double minX = LongLat.MINIMUM_LONGITUDE + column * OccupancyGrid.CELL_SIZE - SWEEP_PADDING;
+        double maxX = minX + OccupancyGrid.CELL_SIZE + 2 * SWEEP_PADDING;
+        for (int e = 0; e < edgeStartLongs.length; e++)
+        {
+            if (Math.min(edgeStartLongs[e], edgeEndLongs[e]) <= maxX &&
+                    Math.max(edgeStartLongs[e], edgeEndLongs[e]) >= minX)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Counts the boundary cells in a rectangle of cells, using the summed-area table.
+     * @param firstColumn the first column of the rectangle
+     * @param firstRow the first row of the rectangle
+     * @param lastColumn the last column of the rectangle, inclusive
+     * @param lastRow the last row of the rectangle, inclusive
+     * @return the number of boundary cells
+     */
+    private int boundaryCellsIn(int firstColumn, int firstRow, int lastColumn, int lastRow)
+    {
+        return boundaryCounts[(lastRow + 1) * (columns + 1) + lastColumn + 1] -
+                boundaryCounts[firstRow * (columns + 1) + lastColumn + 1] -
+                boundaryCounts[(lastRow + 1) * (columns + 1) + firstColumn] +
+                boundaryCounts[firstRow * (columns + 1) + firstColumn];
+    }
+
+    /**
+     * Retrieves the number of moves that can certainly be made from a point at an angle without crossing a no-fly-zone
+     * edge.
+     * @param point the starting point
+     * @param angle the angle of the moves, which may be any multiple of 10
+     * @return the number of free moves, or 0 if the point lies outside the grid
+     */
+    public int freeMovesFrom(LongLat point, int angle)
+    {
+        int column = columnOf(point.getLongitude());
+        int row = rowOf(point.getLatitude());
+        if (column < 0 || row < 0 || column >= columns || row >= rows) { return 0; }
+        return freeMoves[(row * columns + column) * HEADINGS + Math.floorMod(angle, 360) / 10];
+    }
+
+    /**
+     * Retrieves the column containing a longitude. The result may lie outside the grid.
+     * @param longitude the longitude
+     * @return the column index
+     */
+    private static int columnOf(double longitude)
+    {
+        return (int)Math.floor((longitude - LongLat.MINIMUM_LONGITUDE) / OccupancyGrid.CELL_SIZE);
+    }
+
+    /**
+     * Retrieves the row containing a latitude. The result may lie outside the grid.
+     * @param latitude the latitude
+     * @return the row index
+     */
+    private static int rowOf(double latitude)
+    {
+        return (int)Math.floor((latitude - LongLat.MINIMUM_LATITUDE) / OccupancyGrid.CELL_SIZE);
+    }
+}
@@ -1,10 +1,10 @@
 package uk.ac.ed.inf;
 
-import com.google.gson.Gson;
 import com.mapbox.geojson.Point;
 
 import java.net.http.HttpRequest;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Class with exclusively static methods that is used to convert locations between the different formats used in this
@@ -12,6 +12,9 @@ import java.util.ArrayList;
  */
 public class LocationConversion
 {
+    // what3words addresses that have already been converted, so each one is only requested once per run
+    private static final ConcurrentHashMap<String, LongLat> KNOWN_LOCATIONS = new ConcurrentHashMap<>();
+
     /**
      * Method to convert a list of what3words strings into longitude and latitude format.
      * @param w3ws the what3words strings
@@ -30,14 +33,37 @@ public class LocationConversion
     }
 
     /**
-     * Method to convert a what3words string into longitude and latitude format.
+     * Method to convert a what3words string into longitude and latitude format. Addresses that have been converted or
+     * preloaded before are answered without contacting the web server.
      * @param w3w the what3words string
      * @return a LongLat object representing the co-ordinates
      */
     public static LongLat w3wToLongLat(String w3w)
     {
-        Gson gson = new Gson();
+        LongLat known = KNOWN_LOCATIONS.get(w3w);
+        if (known != null) { return known; }
+
+        // the request is made outside the map so that lookups of other addresses are never held up by it
+        LongLat location = requestW3WLocation(w3w);
+        KNOWN_LOCATIONS.putIfAbsent(w3w, location);
+        return location;
+    }
+
+    /**
+     * Stores the co-ordinates of a what3words address whose location is already known, for example from a world
+     * snapshot.
+     * @param w3w the what3words string
+     * @param location the co-ordinates of the address
+     */
+    public static void preloadLocation(String w3w, LongLat location) { KNOWN_LOCATIONS.put(w3w, location); }
 
+    /**
+     * Requests the details.json file of a what3words address from the web server and extracts its co-ordinates.
+     * @param w3w the what3words string
+     * @return a LongLat object representing the co-ordinates
+     */
+    private static LongLat requestW3WLocation(String w3w)
+    {
         String[] words = w3w.split("\\.");
 
         HttpRequest request = App.webServer.buildServerRequest("/words/" + words[0] +
@@ -46,7 +72,7 @@ public class LocationConversion
                                                                     "/details.json");
 
         String response = App.webServer.getStringResponse(request);
-        W3WDetails details = gson.fromJson(response, W3WDetails.class);
+        W3WDetails details = WebClient.GSON.fromJson(response, W3WDetails.class);
 
         return new LongLat(details.coordinates.getLng(), details.coordinates.getLat());
     }
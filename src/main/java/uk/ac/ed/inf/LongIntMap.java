@@ -0,0 +1,117 @@
+package uk.ac.ed.inf;
+
+import java.util.Arrays;
+
+/**
+ * Class for a map from long keys, such as PositionKeys, to int values, stored in two primitive arrays with open
+ * addressing and linear probing. Long.MIN_VALUE marks an empty slot and so cannot be used as a key; no PositionKey takes
+ * that value.
+ */
+public class LongIntMap
+{
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+
+    /**
+     * Class constructor. Creates an empty map.
+     */
+    public LongIntMap()
+    {
+        keys = new long[INITIAL_CAPACITY];
+        values = new int[INITIAL_CAPACITY];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * Associates a value with a key, replacing any value it already had.
+     * @param key the key
+     * @param value the value
+     */
+    public void put(long key, int value)
+    {
+        if (key == EMPTY) { throw new IllegalArgumentException("Long.MIN_VALUE cannot be used as a key"); }
+
+        int slot = slotOf(keys, key);
+        if (keys[slot] != key)
+        {
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] = value;
+        if (size * 2 > keys.length) { resize(); }
+    }
+
+    /**
+     * Retrieves the value associated with a key.
+     * @param key the key
+     * @param defaultValue the value to return if the key is not in the map
+     * @return the value, or defaultValue
+     */
+    public int get(long key, int defaultValue)
+    {
+        if (key == EMPTY) { return defaultValue; }
+        int slot = slotOf(keys, key);
+        return keys[slot] == key ? values[slot] : defaultValue;
+    }
+
+    /**
+     * Returns whether a key is in the map.
+     * @param key the key
+     * @return true if the key is in the map
+     */
+    public boolean containsKey(long key) { return key != EMPTY && keys[slotOf(keys, key)] == key; }
+
+    /**
+     * Retrieves the number of keys in the map.
+     * @return the size
+     */
+    public int size() { return size; }
+
+    /**
+     * Removes every key from the map, keeping its capacity.
+     */
+    public void clear()
+    {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    /**
+     * Finds the slot holding a key, or the empty slot where it would be added.
+     * @param table the key table to search
+     * @param key the key
+     * @return the slot index
+     */
+    private static int slotOf(long[] table, long key)
+    {
+        int mask = table.length - 1;
+        int slot = PositionKey.hash(key) & mask;
+        while (table[slot] != EMPTY && table[slot] != key) { slot = (slot + 1) & mask; }
+        return slot;
+    }
+
+    /**
+     * Doubles the capacity of the tables, keeping the load factor at most one half.
+     */
+    private void resize()
+    {
+        long[] newKeys = new long[keys.length * 2];
+        int[] newValues = new int[newKeys.length];
+        Arrays.fill(newKeys, EMPTY);
+        for (int i = 0; i < keys.length; i++)
+        {
+            if (keys[i] != EMPTY)
+            {
+                int slot = slotOf(newKeys, keys[i]);
+                newKeys[slot] = keys[i];
+                newValues[slot] = values[i];
+            }
+        }
+        keys = newKeys;
+        values = newValues;
+    }
+}
@@ -0,0 +1,91 @@
+package uk.ac.ed.inf;
+
+import java.util.Arrays;
+
+/**
+ * Class for a set of long keys, such as PositionKeys, stored in a single primitive array with open addressing and
+ * linear probing. Long.MIN_VALUE marks an empty slot and so cannot be stored; no PositionKey takes that value.
+ */
+public class LongSet
+{
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] keys;
+    private int size;
+
+    /**
+     * Class constructor. Creates an empty set.
+     */
+    public LongSet()
+    {
+        keys = new long[INITIAL_CAPACITY];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * Adds a key to the set.
+     * @param key the key
+     * @return true if the key was added, false if it was already in the set
+     */
+    public boolean add(long key)
+    {
+        if (key == EMPTY) { throw new IllegalArgumentException("Long.MIN_VALUE cannot be stored"); }
+
+        int slot = slotOf(keys, key);
+        if (keys[slot] == key) { return false; }
+        keys[slot] = key;
+        if (++size * 2 > keys.length) { resize(); }
+        return true;
+    }
+
+    /**
+     * Returns whether a key is in the set.
+     * @param key the key
+     * @return true if the key is in the set
+     */
+    public boolean contains(long key) { return key != EMPTY && keys[slotOf(keys, key)] == key; }
+
+    /**
+     * Retrieves the number of keys in the set.
+     * @return the size
+     */
+    public int size() { return size; }
+
+    /**
+     * Removes every key from the set, keeping its capacity.
+     */
+    public void clear()
+    {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    /**
+     * Finds the slot holding a key, or the empty slot where it would be added.
+     * @param table the table to search
+     * @param key the key
+     * @return the slot index
+     */
+    private static int slotOf(long[] table, long key)
+    {
+        int mask = table.length - 1;
+        int slot = PositionKey.hash(key) & mask;
+        while (table[slot] != EMPTY && table[slot] != key) { slot = (slot + 1) & mask; }
+        return slot;
+    }
+
+    /**
+     * Doubles the capacity of the table, keeping the load factor at most one half.
+     */
+    private void resize()
+    {
+        long[] newKeys = new long[keys.length * 2];
+        Arrays.fill(newKeys, EMPTY);
+        for (long key : keys)
+        {
+            if (key != EMPTY) { newKeys[slotOf(newKeys, key)] = key; }
+        }
+        keys = newKeys;
+    }
+}
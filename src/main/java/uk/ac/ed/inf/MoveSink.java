@@ -0,0 +1,26 @@
+package uk.ac.ed.inf;
+
+import java.util.List;
+
+/**
+ * Interface for receivers of a flight's moves while it is still being planned. A flight publishes each leg as soon as
+ * it is committed, so a drone can be dispatched on its first order while the rest of the day is planned.
+ */
+public interface MoveSink
+{
+    /**
+     * Called when a leg of a flight has been committed. Flights of a fleet are planned on separate threads, so this may
+     * be called concurrently.
+     * @param droneId the id of the drone, or Flight.SINGLE_DRONE_ID
+     * @param orderNo the order number the leg is flown for, or "return"
+     * @param path the nodes of the leg, including its start point
+     */
+    void legCommitted(int droneId, String orderNo, List<LongLat> path);
+
+    /**
+     * Called once a flight has committed its return to Appleton Tower, after which it publishes no more legs.
+     * @param droneId the id of the drone, or Flight.SINGLE_DRONE_ID
+     * @param moveCount the total number of moves of the flight
+     */
+    void flightComplete(int droneId, int moveCount);
+}
@@ -0,0 +1,240 @@
+package uk.ac.ed.inf;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Class that streams committed moves to dispatchers as server-sent events on a local HTTP endpoint, GET /moves. Each
+ * planned day is framed by a "day" event carrying the date, followed by one "leg" event per committed leg and one
+ * "flight" event per finished flight, and ends with a "complete" event once every flight of the day has been planned.
+ * A dispatcher that connects part-way through a day is first sent the events of that day so far.
+ *
+ * The data of every event is a JSON object: {"date"} for day, {"droneId", "orderNo", "moves"} for leg, where moves is a
+ * list of [longitude, latitude] pairs starting at the leg's start point, {"droneId", "moveCount"} for flight and
+ * {"date", "moveCount"} for complete.
+ *
+ * The planner never writes to a dispatcher itself: publishing an event only queues it for every subscriber, and each
+ * subscriber's queue is written out by its own thread. A dispatcher that falls so far behind that its queue fills up is
+ * disconnected rather than allowed to hold up planning.
+ */
+public class MoveStreamServer implements MoveSink
+{
+    // the number of events a subscriber may fall behind by before it is disconnected
+    private static final int SUBSCRIBER_QUEUE_CAPACITY = 4096;
+    // queued in place of an event to tell a subscriber's writer to stop
+    private static final byte[] CLOSE = new byte[0];
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ArrayList<Subscriber> subscribers = new ArrayList<>();
+    // the events of the day being planned, sent to dispatchers that connect late
+    private final ArrayList<byte[]> dayEvents = new ArrayList<>();
+    private String date;
+    private int dayMoveCount;
+
+    /**
+     * Class constructor. Binds the endpoint to the loopback address and starts serving subscriptions.
+     * @param port the local port to listen on
+     * @throws IOException if the port cannot be bound
+     */
+    public MoveStreamServer(int port) throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/moves", this::handleSubscription);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Starts the events of a new day, forgetting the events of the previous one.
+     * @param date the date being planned, as YYYY-MM-DD
+     */
+    public synchronized void dayStarted(String date)
+    {
+        this.date = date;
+        dayMoveCount = 0;
+        dayEvents.clear();
+        publish("day", WebClient.GSON.toJson(new DayEvent(date, null)));
+    }
+
+    /**
+     * Sends the completion event of the day being planned.
+     */
+    public synchronized void dayComplete()
+    {
+        publish("complete", WebClient.GSON.toJson(new DayEvent(date, dayMoveCount)));
+    }
+
+    @Override
+    public synchronized void legCommitted(int droneId, String orderNo, List<LongLat> path)
+    {
+        double[][] moves = new double[path.size()][];
+        for (int i = 0; i < moves.length; i++)
+        {
+            moves[i] = new double[]{path.get(i).getLongitude(), path.get(i).getLatitude()};
+        }
+        publish("leg", WebClient.GSON.toJson(new LegEvent(droneId, orderNo, moves)));
+    }
+
+    @Override
+    public synchronized void flightComplete(int droneId, int moveCount)
+    {
+        dayMoveCount += moveCount;
+        publish("flight", WebClient.GSON.toJson(new FlightEvent(droneId, moveCount)));
+    }
+
+    /**
+     * Stops serving subscriptions, closing the stream of every connected dispatcher. Each writer is given up to a second
+     * to end its stream cleanly.
+     */
+    public synchronized void stop()
+    {
+        for (Subscriber subscriber : subscribers) { subscriber.close(); }
+        subscribers.clear();
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    /**
+     * Accepts a dispatcher's subscription, queueing the events of the current day so far, and then writes the
+     * subscriber's queue to it until the dispatcher disconnects or is dropped. This runs on the server's thread for the
+     * subscription, so it is the subscriber's writer thread.
+     * @param exchange the subscription request
+     * @throws IOException if the response headers cannot be sent
+     */
+    private void handleSubscription(HttpExchange exchange) throws IOException
+    {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+
+        Subscriber subscriber;
+        synchronized (this)
+        {
+            // the replay may be longer than the usual capacity, but the subscriber must not be dropped for it
+            subscriber = new Subscriber(dayEvents.size() + SUBSCRIBER_QUEUE_CAPACITY);
+            subscriber.queue.addAll(dayEvents);
+            subscribers.add(subscriber);
+        }
+
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            while (true)
+            {
+                byte[] event = subscriber.queue.take();
+                if (event == CLOSE) { break; }
+                out.write(event);
+                // a dispatcher that is keeping up gets every event straight away, one that is behind gets them batched
+                if (subscriber.queue.isEmpty()) { out.flush(); }
+            }
+        } catch (IOException | InterruptedException e)
+        {
+            synchronized (this) { subscribers.remove(subscriber); }
+        } finally
+        {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Records an event of the current day and queues it for every connected dispatcher. A dispatcher whose queue is full
+     * is dropped instead of waited for.
+     * @param name the name of the event
+     * @param data the JSON data of the event
+     */
+    private void publish(String name, String data)
+    {
+        byte[] event = ("event: " + name + "\ndata: " + data + "\n\n").getBytes(StandardCharsets.UTF_8);
+        dayEvents.add(event);
+
+        Iterator<Subscriber> iterator = subscribers.iterator();
+        while (iterator.hasNext())
+        {
+            Subscriber subscriber = iterator.next();
+            if (!subscriber.queue.offer(event))
+            {
+                System.err.println("Move stream subscriber fell too far behind and was disconnected");
+                subscriber.close();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * A connected dispatcher: the queue of events still to be written to it by its writer thread.
+     */
+    private static class Subscriber
+    {
+        private final LinkedBlockingQueue<byte[]> queue;
+
+        Subscriber(int capacity) { queue = new LinkedBlockingQueue<>(capacity); }
+
+        /**
+         * Tells the writer to stop, discarding the events it has not written yet.
+         */
+        void close()
+        {
+            queue.clear();
+            queue.offer(CLOSE);
+        }
+    }
+
+    /**
+     * The data of a day or complete event.
+     */
+    private static class DayEvent
+    {
+        private final String date;
+        private final Integer moveCount;
+
+        DayEvent(String date, Integer moveCount)
+        {
+            this.date = date;
+            this.moveCount = moveCount;
+        }
+    }
+
+    /**
+     * The data of a leg event.
+     */
+    private static class LegEvent
+    {
+        private final int droneId;
+        private final String orderNo;
+        private final double[][] moves;
+
+        LegEvent(int droneId, String orderNo, double[][] moves)
+        {
+            this.droneId = droneId;
+            this.orderNo = orderNo;
+            this.moves = moves;
+        }
+    }
+
+    /**
+     * The data of a flight event.
+     */
+    private static class FlightEvent
+    {
+        private final int droneId;
+        private final int moveCount;
+
+        FlightEvent(int droneId, int moveCount)
+        {
+            this.droneId = droneId;
+            this.moveCount = moveCount;
+        }
+    }
+}
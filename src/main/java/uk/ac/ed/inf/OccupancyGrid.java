@@ -0,0 +1,185 @@
+package uk.ac.ed.inf;
+
+import java.util.BitSet;
+
+/**
+ * Class that rasterizes the drone confinement area into a grid of small cells, marking every cell crossed by a
+ * no-fly-zone edge as a boundary cell. A move whose bounding box contains no boundary cell cannot cross any
+ * no-fly-zone edge, so the exact intersection test only needs to run for the other moves.
+ */
+public class OccupancyGrid
+{
+    static final double CELL_SIZE = 0.00005;
+    // padding applied to cells when testing them against edges, so that rounding never lets an edge slip between cells
+    private static final double EDGE_PADDING = 1E-9;
+
+    private final int columns;
+    private final int rows;
+    private final BitSet boundary;
+
+    /**
+     * Class constructor. Rasterizes the given no-fly-zone edges over the confinement area.
+     * @param edgeStartLongs the longitudes of the first point of every edge
+     * @param edgeStartLats the latitudes of the first point of every edge
+     * @param edgeEndLongs the longitudes of the second point of every edge
+     * @param edgeEndLats the latitudes of the second point of every edge
+     */
+    public OccupancyGrid(double[] edgeStartLongs, double[] edgeStartLats, double[] edgeEndLongs, double[] edgeEndLats)
+    {
+        columns = (int)Math.ceil((LongLat.MAXIMUM_LONGITUDE - LongLat.MINIMUM_LONGITUDE) / CELL_SIZE);
+        rows = (int)Math.ceil((LongLat.MAXIMUM_LATITUDE - LongLat.MINIMUM_LATITUDE) / CELL_SIZE);
+        boundary = new BitSet(columns * rows);
+
+        for (int e = 0; e < edgeStartLongs.length; e++)
+        {
+            markEdge(edgeStartLongs[e], edgeStartLats[e], edgeEndLongs[e], edgeEndLats[e]);
+        }
+    }
+
+    /**
+     * Marks every cell crossed by an edge as a boundary cell. Vertical edges are treated as blocking every move that
+     * crosses their longitude (this is how the exact test in Airspace.linesIntersect treats them), so their whole
+     * column is marked.
+     * @param x1 the longitude of the first point of the edge
+     * @param y1 the latitude of the first point of the edge
+     * @param x2 the longitude of the second point of the edge
+     * @param y2 the latitude of the second point of the edge
+     */
+    private void markEdge(double x1, double y1, double x2, double y2)
+    {
+        int firstColumn = columnOf(Math.min(x1, x2) - EDGE_PADDING);
+        int lastColumn = columnOf(Math.max(x1, x2) + EDGE_PADDING);
+
+        if (x1 == x2)
+        {
+            for (int column = Math.max(firstColumn, 0); column <= Math.min(lastColumn, columns - 1); column++)
+            {
+                for (int row = 0; row < rows; row++) { boundary.set(row * columns + column); }
+            }
+            return;
+        }
+
+        int firstRow = rowOf(Math.min(y1, y2) - EDGE_PADDING);
+        int lastRow = rowOf(Math.max(y1, y2) + EDGE_PADDING);
+
+        for (int row = Math.max(firstRow, 0); row <= Math.min(lastRow, rows - 1); row++)
+        {
+            for (int column = Math.max(firstColumn, 0); column <= Math.min(lastColumn, columns - 1); column++)
+            {
+                double minX = LongLat.MINIMUM_LONGITUDE + column * CELL_SIZE - EDGE_PADDING;
+                double minY = LongLat.MINIMUM_LATITUDE + row * CELL_SIZE - EDGE_PADDING;
+                if (segmentTouchesRectangle(x1, y1, x2, y2, minX, minY,
+                        minX + CELL_SIZE + 2 * EDGE_PADDING, minY + CELL_SIZE + 2 * EDGE_PADDING))
+                {
+                    boundary.set(row * columns + column);
+                }
+            }
+        }
+    }
+
+    /**
+     * Liang-Barsky clipping test of whether a segment touches an axis-aligned rectangle.
+     * @param x1 the longitude of the first point of the segment
+     * @param y1 the latitude of the first point of the segment
+     * @param x2 the longitude of the second point of the segment
+     * @param y2 the latitude of the second point of the segment
+     * @param minX the minimum longitude of the rectangle
+     * @param minY the minimum latitude of the rectangle
+     * @param maxX the maximum longitude of the rectangle
+     * @param maxY the maximum latitude of the rectangle
+     * @return true if any part of the segment lies within the rectangle
+     */
+    private static boolean segmentTouchesRectangle(double x1, double y1, double x2, double y2,
+                                                   double minX, double minY, double maxX, double maxY)
+    {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double[] p = {-dx, dx, -dy, dy};
+        double[] q = {x1 - minX, maxX - x1, y1 - minY, maxY - y1};
+        double enter = 0;
+        double exit = 1;
+
+        for (int i = 0; i < 4; i++)
+        {
+            if (p[i] == 0)
+            {
+                if (q[i] < 0) { return false; }
+            }
+            else
+            {
+                double t = q[i] / p[i];
+                if (p[i] < 0) { enter = Math.max(enter, t); }
+                else { exit = Math.min(exit, t); }
+                if (enter > exit) { return false; }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether a move between two points is guaranteed not to cross any no-fly-zone edge, by checking that no
+     * cell in the bounding box of the move is a boundary cell. Vertical moves and moves that leave the grid are never
+     * reported as clear, so the caller falls back to the exact test for them.
+     * @param point1 the first point of the move
+     * @param point2 the second point of the move
+     * @return true if the move certainly does not cross an edge, false if the exact test is needed
+     */
+    public boolean moveIsClear(LongLat point1, LongLat point2)
+    {
+        if (point1.getLongitude() == point2.getLongitude()) { return false; }
+
+        int firstColumn = columnOf(Math.min(point1.getLongitude(), point2.getLongitude()));
+        int lastColumn = columnOf(Math.max(point1.getLongitude(), point2.getLongitude()));
+        int firstRow = rowOf(Math.min(point1.getLatitude(), point2.getLatitude()));
+        int lastRow = rowOf(Math.max(point1.getLatitude(), point2.getLatitude()));
+
+        if (firstColumn < 0 || firstRow < 0 || lastColumn >= columns || lastRow >= rows) { return false; }
+
+        for (int row = firstRow; row <= lastRow; row++)
+        {
+            int next = boundary.nextSetBit(row * columns + firstColumn);
+            if (next != -1 && next <= row * columns + lastColumn) { return false; }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether a cell is a boundary cell.
+     * @param column the column of the cell
+     * @param row the row of the cell
+     * @return true if a no-fly-zone edge crosses the cell
+     */
+    public boolean isBoundaryCell(int column, int row) { return boundary.get(row * columns + column); }
+
+    /**
+     * Retrieves the column containing a longitude. The result may lie outside the grid.
+     * @param longitude the longitude
+     * @return the column index
+     */
+    private int columnOf(double longitude)
+    {
+        return (int)Math.floor((longitude - LongLat.MINIMUM_LONGITUDE) / CELL_SIZE);
+    }
+
+    /**
+     * Retrieves the row containing a latitude. The result may lie outside the grid.
+     * @param latitude the latitude
+     * @return the row index
+     */
+    private int rowOf(double latitude)
+    {
+        return (int)Math.floor((latitude - LongLat.MINIMUM_LATITUDE) / CELL_SIZE);
+    }
+
+    /**
+     * Retrieves the number of columns in the grid.
+     * @return the column count
+     */
+    public int getColumns() { return columns; }
+
+    /**
+     * Retrieves the number of rows in the grid.
+     * @return the row count
+     */
+    public int getRows() { return rows; }
+}
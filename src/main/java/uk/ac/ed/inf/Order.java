@@ -9,17 +9,17 @@ public class Order
 {
     private final String orderNo;
     private final String w3wDeliveryLocation;
-    private final LongLat deliveryLocation;
+    private LongLat deliveryLocation;
     private ArrayList<LongLat> pickupLocations;
     private ArrayList<String> items;
     private int totalCost;
     private final static int DELIVERY_FEE = 50;
-    public static int totalPlacedOrderCost;
     private final static int ITEM_NOT_FOUND_FLAG_VAL = -1;
 
     /**
-     * Class constructor. Assigns the order number, and calls LocationConversion to convert the what3words address of
-     * the delivery location to longitude and latitude co-ordinates using words.json.
+     * Class constructor. Simply assigns the order number and the what3words delivery location. The locations are
+     * resolved later by setOrderDetails, so that orders can be read from the database without waiting on the web
+     * server.
      * @param orderNo the order number
      * @param w3w the what3words delivery location
      */
@@ -27,13 +27,13 @@ public class Order
     {
         this.orderNo = orderNo;
         this.w3wDeliveryLocation = w3w;
-        deliveryLocation = LocationConversion.w3wToLongLat(w3w);
     }
 
     /**
      * Method used to assign the information contained within the orderDetails database table to each order. This includes
      * the items being delivered, the locations of the businesses that need to be visited to pick up the order, and the
-     * total cost of the order.
+     * total cost of the order. The delivery location is converted to longitude and latitude co-ordinates here too,
+     * using words.json.
      * @param items the items that have been ordered under this order number
      * @param menus the menus.json file, parsed into respective java objects
      */
@@ -63,6 +63,7 @@ public class Order
 
         setTotalCost(cost);
         setPickupLocations(LocationConversion.wordsToLongLats(locations));
+        deliveryLocation = LocationConversion.w3wToLongLat(w3wDeliveryLocation);
     }
 
     /**
@@ -0,0 +1,128 @@
+package uk.ac.ed.inf;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Class that resolves the details of a day's orders in the background and publishes each order as soon as it is
+ * ready. Every order's items are read from the orderDetails table and its what3words locations are converted on a
+ * pool of threads. Iterating over the pipeline returns the orders in their original order, blocking only until the
+ * next one is resolved, so a Flight can start planning the first order while the rest are still loading.
+ */
+public class OrderPipeline implements Iterable<Order>
+{
+    private static final int RESOLVER_THREADS = 8;
+    private final ArrayList<CompletableFuture<Order>> resolvedOrders = new ArrayList<>();
+
+    /**
+     * Class constructor. Starts resolving every order straight away.
+     * @param orders the orders retrieved from the orders table, with their details still unresolved
+     * @param menus the contents of menus.json, which may still be loading
+     * @param database the database client used to read the orderDetails table
+     */
+    public OrderPipeline(ArrayList<Order> orders, CompletableFuture<ArrayList<Shop>> menus, SQLClient database)
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(RESOLVER_THREADS, orders.size())));
+        for (Order order : orders)
+        {
+            resolvedOrders.add(menus.thenApplyAsync(shops -> resolve(order, shops, database), executor));
+        }
+        // the submitted work still runs to completion, this only stops the pool from accepting more
+        executor.shutdown();
+    }
+
+    /**
+     * Resolves the details of a single order.
+     * @param order the order
+     * @param menus the contents of menus.json
+     * @param database the database client used to read the orderDetails table
+     * @return the resolved order
+     * @throws IllegalStateException if the order's items cannot be read from the database
+     */
+    private static Order resolve(Order order, ArrayList<Shop> menus, SQLClient database)
+    {
+        try
+        {
+            order.setOrderDetails(database.retrieveOrderItems(order.getOrderNo()), menus);
+            return order;
+        } catch (SQLException e)
+        {
+            throw new IllegalStateException("Order details could not be read for order " + order.getOrderNo(), e);
+        }
+    }
+
+    /**
+     * Waits for a single order to be resolved. A failure to resolve the order is rethrown as it was raised, rather than
+     * wrapped by the future, so that it is not mistaken for a failed web request.
+     * @param resolvedOrder the future of the order
+     * @return the resolved order
+     * @throws IllegalStateException if the order's items could not be read from the database
+     */
+    private static Order join(CompletableFuture<Order> resolvedOrder)
+    {
+        try
+        {
+            return resolvedOrder.join();
+        } catch (CompletionException e)
+        {
+            if (e.getCause() instanceof IllegalStateException) { throw (IllegalStateException) e.getCause(); }
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for every order to be resolved.
+     * @return the resolved orders, in their original order
+     */
+    public ArrayList<Order> awaitAll()
+    {
+        ArrayList<Order> orders = new ArrayList<>();
+        for (CompletableFuture<Order> order : resolvedOrders)
+        {
+            orders.add(join(order));
+        }
+        return orders;
+    }
+
+    /**
+     * Waits for every order to be resolved and adds up their costs. The total belongs to this pipeline alone, so days
+     * planned at the same time do not share it.
+     * @return the total cost of the orders placed, in pence
+     */
+    public int getTotalPlacedOrderCost()
+    {
+        int totalCost = 0;
+        for (Order order : awaitAll()) { totalCost += order.getTotalCost(); }
+        return totalCost;
+    }
+
+    /**
+     * Returns an iterator over the orders in their original order. Each call to next blocks until that order has been
+     * resolved.
+     * @return the iterator
+     */
+    @Override
+    public Iterator<Order> iterator()
+    {
+        return new Iterator<>()
+        {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() { return next < resolvedOrders.size(); }
+
+            @Override
+            public Order next()
+            {
+                if (!hasNext()) { throw new NoSuchElementException(); }
+                return join(resolvedOrders.get(next++));
+            }
+        };
+    }
+}
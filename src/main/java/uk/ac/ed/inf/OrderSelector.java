@@ -0,0 +1,338 @@
+package uk.ac.ed.inf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Class that chooses which of a day's orders to deliver, and in which order, to maximise the total value delivered
+ * within the move budget. This is an orienteering problem, solved here with a large neighbourhood search: starting from
+ * the better of the orders as placed and a greedy insertion, each step removes a few orders from the route and
+ * re-inserts unrouted orders where they add the fewest moves, keeping the result if it is no worse. A fixed number of
+ * searches, each with its own fixed seed, run in parallel for a fixed number of steps, and the best route found is
+ * used, so the same day always gives the same selection however many processors there are.
+ *
+ * Leg costs are estimates: the straight-line distance in moves, scaled up to allow for detours around no-fly-zones, and
+ * the cost-to-home field for the return to Appleton Tower. A margin is kept back from the budget so that the planned
+ * route usually fits when it is flown, and Flight still checks every order against the real remaining moves.
+ */
+public class OrderSelector
+{
+    // the number of steps each search takes, set with -Dilp.select.iterations=N
+    private static final int ITERATIONS = Integer.getInteger("ilp.select.iterations", 2000);
+    // the number of searches, each with its own seed, set with -Dilp.select.searches=N
+    private static final int SEARCHES = Integer.getInteger("ilp.select.searches", 4);
+    private static final double DETOUR_FACTOR = 1.15;
+    private static final int BUDGET_MARGIN = 60;
+    // the moves flown at each order that are not travel: one hover after the pickups and one after the delivery
+    private static final int HOVERS_PER_ORDER = 2;
+    private static final long SEED = 0x5EED;
+
+    private final ArrayList<Order> orders;
+    private final int budget;
+    private final int[] values;
+    private final int[] serviceCosts;
+    // travel[i][j] is the estimated cost from the end of order i to the start of order j, where index n is home
+    private final int[][] travel;
+    private final int[] returnCosts;
+
+    /**
+     * Class constructor. Estimates the cost of every order and of travel between every pair of orders.
+     * @param orders the resolved orders of the day
+     * @param airspace the compiled no-fly-zones, whose cost-to-home field estimates the return legs
+     * @param maxMoves the move budget of the drone
+     */
+    public OrderSelector(ArrayList<Order> orders, Airspace airspace, int maxMoves)
+    {
+        this.orders = orders;
+        this.budget = maxMoves - BUDGET_MARGIN;
+
+        int n = orders.size();
+        values = new int[n];
+        serviceCosts = new int[n];
+        returnCosts = new int[n];
+        travel = new int[n + 1][n];
+
+        LongLat[] starts = new LongLat[n + 1];
+        LongLat[] ends = new LongLat[n + 1];
+        starts[n] = Flight.APPLETON_TOWER;
+        ends[n] = Flight.APPLETON_TOWER;
+
+        for (int i = 0; i < n; i++)
+        {
+            Order order = orders.get(i);
+            values[i] = order.getTotalCost();
+
+            // an order with no items has no shops to visit, and is flown straight to its delivery location
+            LongLat start = order.getPickupLocations().isEmpty() ?
+                    order.getDeliveryLocation() : order.getPickupLocations().get(0);
+            LongLat position = start;
+            int cost = HOVERS_PER_ORDER;
+            for (LongLat pickup : order.getPickupLocations())
+            {
+                cost += estimateMoves(position, pickup);
+                position = pickup;
+            }
+            cost += estimateMoves(position, order.getDeliveryLocation());
+            serviceCosts[i] = cost;
+
+            starts[i] = start;
+            ends[i] = order.getDeliveryLocation();
+
+            int movesHome = airspace.getCostToHome().movesHomeFrom(ends[i]);
+            returnCosts[i] = movesHome == CostToHomeField.UNREACHABLE ?
+                    estimateMoves(ends[i], Flight.APPLETON_TOWER) : movesHome;
+        }
+
+        for (int from = 0; from <= n; from++)
+        {
+            for (int to = 0; to < n; to++) { travel[from][to] = estimateMoves(ends[from], starts[to]); }
+        }
+    }
+
+    /**
+     * Estimates the number of moves between two points.
+     * @param from the first point
+     * @param to the second point
+     * @return the estimated number of moves
+     */
+    private static int estimateMoves(LongLat from, LongLat to)
+    {
+        return (int)Math.ceil(from.distanceTo(to) / LongLat.CLOSE_DISTANCE * DETOUR_FACTOR);
+    }
+
+    /**
+     * Runs the search and returns the chosen orders.
+     * @return the orders to deliver, in the order they should be delivered
+     */
+    public ArrayList<Order> select()
+    {
+        int[] initial = bestInitialRoute();
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(SEARCHES, Runtime.getRuntime().availableProcessors())));
+        int[] best = initial;
+        try
+        {
+            ArrayList<Future<int[]>> results = new ArrayList<>();
+            for (int s = 0; s < SEARCHES; s++)
+            {
+                Random random = new Random(SEED + s);
+                results.add(executor.submit(() -> search(initial, random)));
+            }
+            // the results are compared in search order, so ties always go to the lowest seed
+            for (Future<int[]> result : results)
+            {
+                int[] route = result.get();
+                if (isBetter(route, best)) { best = route; }
+            }
+        } catch (InterruptedException | ExecutionException e)
+        {
+            e.printStackTrace();
+        } finally
+        {
+            executor.shutdown();
+        }
+
+        ArrayList<Order> selected = new ArrayList<>();
+        for (int i : best) { selected.add(orders.get(i)); }
+        return selected;
+    }
+
+    /**
+     * Builds the starting route for the search: the better of the longest prefix of the orders as placed that fits the
+     * budget, and a greedy insertion of every order.
+     * @return the starting route
+     */
+    private int[] bestInitialRoute()
+    {
+        ArrayList<Integer> prefix = new ArrayList<>();
+        for (int i = 0; i < orders.size(); i++)
+        {
+            prefix.add(i);
+            if (routeCost(prefix) > budget)
+            {
+                prefix.remove(prefix.size() - 1);
+                break;
+            }
+        }
+
+        ArrayList<Integer> unrouted = new ArrayList<>();
+        for (int i = 0; i < orders.size(); i++) { unrouted.add(i); }
+        int[] greedy = toArray(insertGreedily(new ArrayList<>(), unrouted, null));
+
+        int[] placed = toArray(prefix);
+        return isBetter(greedy, placed) ? greedy : placed;
+    }
+
+    /**
+     * A single large neighbourhood search, run for ITERATIONS steps.
+     * @param initial the starting route
+     * @param random the source of randomness for this search
+     * @return the best route found
+     */
+    private int[] search(int[] initial, Random random)
+    {
+        int[] best = initial;
+        int maxRemoved = Math.max(2, orders.size() / 5);
+
+        for (int iteration = 0; iteration < ITERATIONS; iteration++)
+        {
+            ArrayList<Integer> route = toList(best);
+            ArrayList<Integer> unrouted = new ArrayList<>();
+            for (int i = 0; i < orders.size(); i++)
+            {
+                if (!route.contains(i)) { unrouted.add(i); }
+            }
+
+            int removals = Math.min(route.size(), 1 + random.nextInt(maxRemoved));
+            for (int r = 0; r < removals; r++) { unrouted.add(route.remove(random.nextInt(route.size()))); }
+
+            int[] candidate = toArray(insertGreedily(route, unrouted, random));
+            if (!isBetter(best, candidate)) { best = candidate; }
+        }
+        return best;
+    }
+
+    /**
+     * Repeatedly inserts the unrouted order with the best ratio of value to added moves at its cheapest position, until
+     * no more orders fit the budget.
+     * @param route the route to insert into, which is modified
+     * @param unrouted the orders not on the route, which is modified
+     * @param random the source of noise applied to the ratios, or null for a deterministic insertion
+     * @return the route
+     */
+    private ArrayList<Integer> insertGreedily(ArrayList<Integer> route, ArrayList<Integer> unrouted, Random random)
+    {
+        int cost = routeCost(route);
+        while (true)
+        {
+            int bestOrder = -1;
+            int bestPosition = -1;
+            int bestAddedCost = 0;
+            double bestScore = -1;
+
+            for (int order : unrouted)
+            {
+                for (int position = 0; position <= route.size(); position++)
+                {
+                    int addedCost = insertionCost(route, order, position);
+                    if (cost + addedCost > budget) { continue; }
+
+                    double score = values[order] / (double)Math.max(1, addedCost);
+                    if (random != null) { score *= 0.8 + 0.4 * random.nextDouble(); }
+                    if (score > bestScore)
+                    {
+                        bestScore = score;
+                        bestOrder = order;
+                        bestPosition = position;
+                        bestAddedCost = addedCost;
+                    }
+                }
+            }
+            if (bestOrder == -1) { return route; }
+
+            route.add(bestPosition, bestOrder);
+            unrouted.remove(Integer.valueOf(bestOrder));
+            cost += bestAddedCost;
+        }
+    }
+
+    /**
+     * Calculates how many moves inserting an order into a route would add.
+     * @param route the route
+     * @param order the order to insert
+     * @param position the index the order would take in the route
+     * @return the added moves
+     */
+    private int insertionCost(List<Integer> route, int order, int position)
+    {
+        int home = orders.size();
+        int previous = position == 0 ? home : route.get(position - 1);
+        int added = travel[previous][order] + serviceCosts[order];
+
+        if (position == route.size())
+        {
+            added += returnCosts[order];
+            if (position > 0) { added -= returnCosts[previous]; }
+        }
+        else
+        {
+            int next = route.get(position);
+            added += travel[order][next] - travel[previous][next];
+        }
+        return added;
+    }
+
+    /**
+     * Calculates the estimated moves of a whole route, including the return to Appleton Tower.
+     * @param route the route
+     * @return the estimated moves
+     */
+    private int routeCost(List<Integer> route)
+    {
+        if (route.isEmpty()) { return 0; }
+        int previous = orders.size();
+        int cost = 0;
+        for (int order : route)
+        {
+            cost += travel[previous][order] + serviceCosts[order];
+            previous = order;
+        }
+        return cost + returnCosts[previous];
+    }
+
+    /**
+     * Returns whether one route is better than another: it delivers more value, or the same value in fewer moves.
+     * @param route the route
+     * @param other the route to compare with
+     * @return true if route is strictly better
+     */
+    private boolean isBetter(int[] route, int[] other)
+    {
+        int value = routeValue(route);
+        int otherValue = routeValue(other);
+        if (value != otherValue) { return value > otherValue; }
+        return routeCost(toList(route)) < routeCost(toList(other));
+    }
+
+    /**
+     * Calculates the total value of the orders on a route.
+     * @param route the route
+     * @return the value in pence
+     */
+    private int routeValue(int[] route)
+    {
+        int value = 0;
+        for (int order : route) { value += values[order]; }
+        return value;
+    }
+
+    /**
+     * Converts a route to an array.
+     * @param route the route
+     * @return the array
+     */
+    private static int[] toArray(List<Integer> route)
+    {
+        int[] array = new int[route.size()];
+        for (int i = 0; i < array.length; i++) { array[i] = route.get(i); }
+        return array;
+    }
+
+    /**
+     * Converts a route to a list.
+     * @param route the route
+     * @return the list
+     */
+    private static ArrayList<Integer> toList(int[] route)
+    {
+        ArrayList<Integer> list = new ArrayList<>(route.length);
+        for (int order : route) { list.add(order); }
+        return list;
+    }
+}
@@ -0,0 +1,125 @@
+package uk.ac.ed.inf;
+
+/**
+ * Class that counts the work done while planning one leg of a flight: the path for one order, or the return to
+ * Appleton Tower. The counters are plain fields incremented by Flight and Airspace, cheap enough to be kept on every
+ * run, and show which orders' geometry makes the planner work hardest. A day's profiles are written to a JSON sidecar
+ * next to the GeoJSON output.
+ */
+public class PlanningProfile
+{
+    private final String orderNo;
+    private final int droneId;
+    private double planningMillis;
+    private long lineChecks;
+    private long gridAcceptedChecks;
+    private long edgesTested;
+    private long raysCast;
+    private long rayMoves;
+    private long freeRunMoves;
+    private int maxTurnDepth;
+    private int fallbacks;
+
+    /**
+     * Class constructor. Creates a profile with every counter at zero.
+     * @param orderNo the order number the leg is planned for, or "return"
+     * @param droneId the id of the drone, or Flight.SINGLE_DRONE_ID
+     */
+    public PlanningProfile(String orderNo, int droneId)
+    {
+        this.orderNo = orderNo;
+        this.droneId = droneId;
+    }
+
+    /**
+     * Records one call to lineEntersNoFlyZone.
+     * @param edges the number of edges tested exactly, or 0 if the occupancy grid answered the call
+     */
+    public void recordLineCheck(int edges)
+    {
+        lineChecks++;
+        if (edges == 0) { gridAcceptedChecks++; }
+        edgesTested += edges;
+    }
+
+    /**
+     * Records one ray cast by testPath.
+     * @param moves the number of moves in the ray
+     * @param freeMoves the number of those moves that the free-run table showed to be clear
+     */
+    public void recordRay(int moves, int freeMoves)
+    {
+        raysCast++;
+        rayMoves += moves;
+        freeRunMoves += freeMoves;
+    }
+
+    /**
+     * Records the depth of a call to turnTowardsDestination.
+     * @param depth the recursion depth, starting at 1
+     */
+    public void recordTurnDepth(int depth) { maxTurnDepth = Math.max(maxTurnDepth, depth); }
+
+    /**
+     * Records one "Algorithm failed" fallback, where the planner jumps straight to the destination.
+     */
+    public void recordFallback() { fallbacks++; }
+
+    /**
+     * Sets the wall-clock time spent planning the leg.
+     * @param planningMillis the time in milliseconds
+     */
+    public void setPlanningMillis(double planningMillis) { this.planningMillis = planningMillis; }
+
+    /**
+     * Adds the counters of another profile to this one, for work on the same leg that was counted separately.
+     * @param other the other profile
+     */
+    public void merge(PlanningProfile other)
+    {
+        lineChecks += other.lineChecks;
+        gridAcceptedChecks += other.gridAcceptedChecks;
+        edgesTested += other.edgesTested;
+        raysCast += other.raysCast;
+        rayMoves += other.rayMoves;
+        freeRunMoves += other.freeRunMoves;
+        maxTurnDepth = Math.max(maxTurnDepth, other.maxTurnDepth);
+        fallbacks += other.fallbacks;
+    }
+
+    /**
+     * Retrieves the order number the leg was planned for.
+     * @return the order number, or "return"
+     */
+    public String getOrderNo() { return orderNo; }
+
+    /**
+     * Retrieves the id of the drone.
+     * @return the drone id
+     */
+    public int getDroneId() { return droneId; }
+
+    /**
+     * Retrieves the number of calls to lineEntersNoFlyZone.
+     * @return the count
+     */
+    public long getLineChecks() { return lineChecks; }
+
+    /**
+     * Retrieves the number of edges tested exactly.
+     * @return the count
+     */
+    public long getEdgesTested() { return edgesTested; }
+
+    /**
+     * Retrieves the number of rays cast by testPath.
+     * @return the count
+     */
+    public long getRaysCast() { return raysCast; }
+
+    /**
+     * Retrieves the number of "Algorithm failed" fallbacks.
+     * @return the count
+     */
+    public int getFallbacks() { return fallbacks; }
+}
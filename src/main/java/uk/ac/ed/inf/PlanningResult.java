@@ -0,0 +1,71 @@
+package uk.ac.ed.inf;
+
+/**
+ * Class that holds the outcome of planning a single day: the GeoJSON flightpath and the figures printed by the
+ * performance analysis.
+ */
+public class PlanningResult
+{
+    private final String flightPath;
+    private final int moveCount;
+    private final int movesSavedByShortcuts;
+    private final int deliveredOrderCost;
+    private final int placedOrderCost;
+
+    /**
+     * Class constructor. Simply assigns the outcome of the planning run.
+     * @param flightPath the GeoJSON flightpath
+     * @param moveCount the number of moves flown
+     * @param movesSavedByShortcuts the number of moves removed by shortcutting
+     * @param deliveredOrderCost the total cost of the orders delivered, in pence
+     * @param placedOrderCost the total cost of the orders placed, in pence
+     */
+    public PlanningResult(String flightPath, int moveCount, int movesSavedByShortcuts, int deliveredOrderCost,
+                          int placedOrderCost)
+    {
+        this.flightPath = flightPath;
+        this.moveCount = moveCount;
+        this.movesSavedByShortcuts = movesSavedByShortcuts;
+        this.deliveredOrderCost = deliveredOrderCost;
+        this.placedOrderCost = placedOrderCost;
+    }
+
+    /**
+     * Retrieves the GeoJSON flightpath.
+     * @return the flightpath
+     */
+    public String getFlightPath() { return flightPath; }
+
+    /**
+     * Retrieves the number of moves flown.
+     * @return the move count
+     */
+    public int getMoveCount() { return moveCount; }
+
+    /**
+     * Retrieves the number of moves removed by shortcutting.
+     * @return the number of moves saved
+     */
+    public int getMovesSavedByShortcuts() { return movesSavedByShortcuts; }
+
+    /**
+     * Retrieves the total cost of the orders delivered.
+     * @return the delivered cost in pence
+     */
+    public int getDeliveredOrderCost() { return deliveredOrderCost; }
+
+    /**
+     * Retrieves the total cost of the orders placed.
+     * @return the placed cost in pence
+     */
+    public int getPlacedOrderCost() { return placedOrderCost; }
+
+    /**
+     * Retrieves the percentage monetary value: the delivered cost as a percentage of the placed cost.
+     * @return the percentage monetary value
+     */
+    public double getPercentageMonetaryValue()
+    {
+        return placedOrderCost == 0 ? 0 : deliveredOrderCost * 100.0 / placedOrderCost;
+    }
+}
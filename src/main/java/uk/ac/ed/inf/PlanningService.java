@@ -0,0 +1,154 @@
+package uk.ac.ed.inf;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+
+/**
+ * Class for the resident planning service. The service keeps the menus and the compiled airspace (including its
+ * cost-to-home field) in memory for its whole lifetime, so every planning request after the first runs on warm caches
+ * and JIT-compiled planning loops instead of paying for a fresh JVM and a fresh set of HTTP calls.
+ *
+ * Requests are made to a local HTTP endpoint, GET /plan?date=YYYY-MM-DD, and the response is the GeoJSON flightpath.
+ * Each request is handled on its own thread. With the run-partitioned tables (-Dilp.runTables=true) and no move stream,
+ * every run writes under its own run id, so requests for different days are planned at the same time and only
+ * requests for the same day, which write the same output files, wait for each other. Otherwise the runs share the
+ * output tables in the database, so they are carried out one at a time, in the order the requests arrive.
+ */
+public class PlanningService
+{
+    private final HttpServer server;
+    private final CompletableFuture<ArrayList<Shop>> menus;
+    private final CompletableFuture<Airspace> airspace;
+    private final Object planningLock = new Object();
+    private final ConcurrentHashMap<LocalDate, Object> dayLocks = new ConcurrentHashMap<>();
+
+    /**
+     * Class constructor. Binds the endpoint to the loopback address, but does not start serving requests.
+     * @param port the local port to listen on
+     * @param menus the contents of menus.json
+     * @param airspace the compiled no-fly-zones
+     * @throws IOException if the port cannot be bound
+     */
+    public PlanningService(int port, ArrayList<Shop> menus, Airspace airspace) throws IOException
+    {
+        this.menus = CompletableFuture.completedFuture(menus);
+        this.airspace = CompletableFuture.completedFuture(airspace);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/plan", this::handlePlanRequest);
+        server.setExecutor(Executors.newCachedThreadPool());
+    }
+
+    /**
+     * Builds the cost-to-home field, so the first request does not pay for it, and starts serving requests.
+     */
+    public void start()
+    {
+        airspace.join().getCostToHome();
+        server.start();
+    }
+
+    /**
+     * Stops serving requests, waiting up to the given time for requests that are being handled.
+     * @param delaySeconds the maximum time to wait, in seconds
+     */
+    public void stop(int delaySeconds) { server.stop(delaySeconds); }
+
+    /**
+     * Handles a single planning request.
+     * @param exchange the request and its response
+     * @throws IOException if the response cannot be sent
+     */
+    private void handlePlanRequest(HttpExchange exchange) throws IOException
+    {
+        if (!exchange.getRequestMethod().equals("GET"))
+        {
+            respond(exchange, 405, "Only GET is supported");
+            return;
+        }
+
+        LocalDate date;
+        try
+        {
+            date = LocalDate.parse(queryParameter(exchange, "date"));
+        } catch (DateTimeParseException | NullPointerException e)
+        {
+            respond(exchange, 400, "Expected /plan?date=YYYY-MM-DD");
+            return;
+        }
+
+        try
+        {
+            String flightPath;
+            Object lock = App.plansConcurrently() ? dayLocks.computeIfAbsent(date, d -> new Object()) : planningLock;
+            synchronized (lock)
+            {
+                long runStart = System.nanoTime();
+                flightPath = App.planDay(String.format("%02d", date.getDayOfMonth()),
+                        String.format("%02d", date.getMonthValue()),
+                        String.valueOf(date.getYear()),
+                        menus,
+                        airspace,
+                        runStart).getFlightPath();
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/geo+json");
+            respond(exchange, 200, flightPath);
+        } catch (IllegalArgumentException e)
+        {
+            respond(exchange, 404, e.getMessage());
+        } catch (Exception e)
+        {
+            e.printStackTrace();
+            respond(exchange, 500, "Planning failed for " + date);
+        }
+    }
+
+    /**
+     * Retrieves the value of a parameter from the query string of a request.
+     * @param exchange the request
+     * @param name the name of the parameter
+     * @return the value of the parameter, or null if it is not present
+     */
+    private static String queryParameter(HttpExchange exchange, String name)
+    {
+        String query = exchange.getRequestURI().getQuery();
+        if (query == null) { return null; }
+        for (String parameter : query.split("&"))
+        {
+            int separator = parameter.indexOf('=');
+            if (separator > 0 && parameter.substring(0, separator).equals(name))
+            {
+                return parameter.substring(separator + 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sends a response and closes the exchange.
+     * @param exchange the request and its response
+     * @param status the HTTP status code
+     * @param body the response body
+     * @throws IOException if the response cannot be sent
+     */
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException
+    {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package uk.ac.ed.inf;
+
+/**
+ * Class of static helpers for position keys: canonical keys for LongLat positions, packed into a single long so that
+ * positions can be deduplicated, cached and compared without boxing. The longitude and latitude are each quantized to a
+ * fixed-point offset from the south-west corner of the confinement area, with QUANTUM degrees per unit, and stored in
+ * the high and low 32 bits of the key. Two positions that differ only by floating-point rounding get the same key.
+ */
+public final class PositionKey
+{
+    // the size of one fixed-point unit in degrees, far smaller than a move but larger than accumulated rounding error
+    static final double QUANTUM = 1E-9;
+
+    /**
+     * Private constructor, as this class only holds static helpers.
+     */
+    private PositionKey() { }
+
+    /**
+     * Retrieves the key of a position.
+     * @param point the position
+     * @return the key
+     */
+    public static long of(LongLat point) { return of(point.getLongitude(), point.getLatitude()); }
+
+    /**
+     * Retrieves the key of a position. Positions up to about two degrees outside the confinement area are supported.
+     * @param longitude the longitude of the position
+     * @param latitude the latitude of the position
+     * @return the key
+     */
+    public static long of(double longitude, double latitude)
+    {
+        long x = Math.round((longitude - LongLat.MINIMUM_LONGITUDE) / QUANTUM);
+        long y = Math.round((latitude - LongLat.MINIMUM_LATITUDE) / QUANTUM);
+        return (x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Retrieves the longitude of a key, to the precision of the quantization.
+     * @param key the key
+     * @return the longitude
+     */
+    public static double longitude(long key) { return LongLat.MINIMUM_LONGITUDE + (int)(key >> 32) * QUANTUM; }
+
+    /**
+     * Retrieves the latitude of a key, to the precision of the quantization.
+     * @param key the key
+     * @return the latitude
+     */
+    public static double latitude(long key) { return LongLat.MINIMUM_LATITUDE + (int)key * QUANTUM; }
+
+    /**
+     * Converts a key back into a position, to the precision of the quantization.
+     * @param key the key
+     * @return the position
+     */
+    public static LongLat toLongLat(long key) { return new LongLat(longitude(key), latitude(key)); }
+
+    /**
+     * Mixes the bits of a key, so that keys of nearby positions are spread over a hash table.
+     * @param key the key
+     * @return the hash
+     */
+    static int hash(long key)
+    {
+        key ^= key >>> 33;
+        key *= 0xFF51AFD7ED558CCDL;
+        key ^= key >>> 33;
+        return (int)key;
+    }
+}
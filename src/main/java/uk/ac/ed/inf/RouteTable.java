@@ -0,0 +1,169 @@
+package uk.ac.ed.inf;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class for the persistent route table, which keeps the paths planned between stops (shops and Appleton Tower) so they
+ * can be reused on later days instead of planned again. Shops and no-fly-zones rarely change, so the path between two
+ * stops found on one day is still a good path between them on later days.
+ *
+ * Routes are keyed by the stops themselves, not by where the drone happened to be: a drone only gets close to a stop,
+ * so it rarely starts a leg from exactly the same point twice. The route stored is the path that was flown from close
+ * to the first stop to close to the second, and Flight joins it up with the drone's actual position when it is used.
+ * The table is tied to the hash of the no-fly-zones it was filled with: a table loaded for different zones is
+ * discarded and filled again.
+ *
+ * The file is a header (magic, version, zone hash, route count) followed by each route: the co-ordinates of both
+ * stops, the number of nodes and the co-ordinates of every node, all as big-endian doubles.
+ */
+public class RouteTable
+{
+    private static final int MAGIC = 0x494C5052; // "ILPR"
+    private static final int VERSION = 2;
+
+    private final String filename;
+    private final long zoneHash;
+    private final HashMap<String, double[]> routes = new HashMap<>();
+    private boolean modified;
+    private int hits;
+    private int misses;
+
+    /**
+     * Class constructor. Loads the table from its file if the file exists and was filled with the same no-fly-zones,
+     * and starts an empty table otherwise.
+     * @param filename the name of the file the table is kept in
+     * @param airspace the current no-fly-zones
+     */
+    public RouteTable(String filename, Airspace airspace)
+    {
+        this.filename = filename;
+        this.zoneHash = airspace.getZoneHash();
+
+        File file = new File(filename);
+        if (!file.exists()) { return; }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+        {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) { throw new IOException("Not a route table"); }
+            if (in.readLong() != zoneHash)
+            {
+                System.out.println("No-fly-zones have changed, route table " + filename + " will be rebuilt");
+                modified = true;
+                return;
+            }
+            int routeCount = in.readInt();
+            for (int r = 0; r < routeCount; r++)
+            {
+                String key = key(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+                double[] nodes = new double[2 * in.readInt()];
+                for (int i = 0; i < nodes.length; i++) { nodes[i] = in.readDouble(); }
+                routes.put(key, nodes);
+            }
+        } catch (IOException e)
+        {
+            System.err.println("Route table " + filename + " could not be read and will be rebuilt");
+            routes.clear();
+            modified = true;
+        }
+    }
+
+    /**
+     * Looks up the route stored between two stops. The route is not checked against the airspace here, as it is only
+     * flown once it has been joined up with the drone's actual position.
+     * @param originStop the stop the route starts at
+     * @param destinationStop the stop the route ends at
+     * @return the path, including its first node, or null if no route is stored
+     */
+    public synchronized ArrayList<LongLat> lookup(LongLat originStop, LongLat destinationStop)
+    {
+        double[] nodes = routes.get(key(originStop.getLongitude(), originStop.getLatitude(),
+                destinationStop.getLongitude(), destinationStop.getLatitude()));
+        if (nodes == null) { return null; }
+
+        ArrayList<LongLat> path = new ArrayList<>(nodes.length / 2);
+        for (int i = 0; i < nodes.length; i += 2) { path.add(new LongLat(nodes[i], nodes[i + 1])); }
+        return path;
+    }
+
+    /**
+     * Records whether a leg between two stops was flown along a stored route, or had to be planned.
+     * @param hit true if a stored route was used
+     */
+    public synchronized void recordLookup(boolean hit)
+    {
+        if (hit) { hits++; }
+        else { misses++; }
+    }
+
+    /**
+     * Stores the route between two stops, replacing any route already stored for them.
+     * @param originStop the stop the route starts at
+     * @param destinationStop the stop the route ends at
+     * @param path the path, including its first node
+     */
+    public synchronized void store(LongLat originStop, LongLat destinationStop, List<LongLat> path)
+    {
+        double[] nodes = new double[2 * path.size()];
+        for (int i = 0; i < path.size(); i++)
+        {
+            nodes[2 * i] = path.get(i).getLongitude();
+            nodes[2 * i + 1] = path.get(i).getLatitude();
+        }
+        routes.put(key(originStop.getLongitude(), originStop.getLatitude(),
+                destinationStop.getLongitude(), destinationStop.getLatitude()), nodes);
+        modified = true;
+    }
+
+    /**
+     * Writes the table to its file if routes have been added since it was loaded.
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void save() throws IOException
+    {
+        if (!modified) { return; }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename))))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(zoneHash);
+            out.writeInt(routes.size());
+            for (Map.Entry<String, double[]> route : routes.entrySet())
+            {
+                for (String coordinate : route.getKey().split(",")) { out.writeDouble(Double.parseDouble(coordinate)); }
+                out.writeInt(route.getValue().length / 2);
+                for (double value : route.getValue()) { out.writeDouble(value); }
+            }
+        }
+        modified = false;
+    }
+
+    /**
+     * Builds the key of the route between two stops. Doubles print exactly in Java, so the key identifies the exact
+     * stops.
+     * @param originLongitude the longitude of the first stop
+     * @param originLatitude the latitude of the first stop
+     * @param destinationLongitude the longitude of the second stop
+     * @param destinationLatitude the latitude of the second stop
+     * @return the key
+     */
+    private static String key(double originLongitude, double originLatitude, double destinationLongitude,
+                              double destinationLatitude)
+    {
+        return originLongitude + "," + originLatitude + "," + destinationLongitude + "," + destinationLatitude;
+    }
+
+    /**
+     * Retrieves the number of legs between stops flown along a stored route.
+     * @return the hit count
+     */
+    public synchronized int getHits() { return hits; }
+
+    /**
+     * Retrieves the number of legs between stops that had to be planned.
+     * @return the miss count
+     */
+    public synchronized int getMisses() { return misses; }
+}
@@ -1,7 +1,14 @@
 package uk.ac.ed.inf;
 
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Class to handle all direct interaction with the database.
@@ -14,11 +21,55 @@ public class SQLClient
     private final Connection CONN;
     private final String CONNECTION_ERROR_MESSAGE =
             "Database connection failed. Check database is running and port number is correct.";
+    private boolean bulkMode;
+    // rows held in bulk mode, by the table they are loaded into
+    private final LinkedHashMap<String, ArrayList<Object[]>> pendingRows = new LinkedHashMap<>();
+    private final AtomicLong statementCount = new AtomicLong();
+
+    // SQLState Derby reports when creating a table or index that already exists
+    private static final String OBJECT_EXISTS = "X0Y32";
+    private static final String RUNS_TABLE = "planningRuns";
+    private static final String DELIVERY_HISTORY_TABLE = "deliveryHistory";
+    private static final String FLIGHTPATH_HISTORY_TABLE = "flightpathHistory";
+    private static final int HISTORY_FETCH_SIZE = 10000;
+
+    /**
+     * Class to represent one run in the run-partitioned output tables, as returned by startRun.
+     */
+    public static class Run
+    {
+        private final long id;
+        private final java.sql.Date date;
+
+        /**
+         * Class constructor. Simply assigns the run id and the delivery date.
+         * @param id the run id in the planningRuns table
+         * @param date the delivery date being planned
+         */
+        private Run(long id, java.sql.Date date)
+        {
+            this.id = id;
+            this.date = date;
+        }
+
+        /**
+         * Retrieves the run id.
+         * @return the run id
+         */
+        public long getId() { return id; }
+
+        /**
+         * Retrieves the delivery date being planned.
+         * @return the delivery date
+         */
+        public java.sql.Date getDate() { return date; }
+    }
 
     /**
      * Class constructor. Stores the machine name and port number, and calls buildJDBCString.
      * @param machine the machine name
      * @param port the port number
+     * @throws IllegalStateException if the database cannot be connected to
      */
     public SQLClient(String machine, String port)
     {
@@ -32,6 +83,7 @@ public class SQLClient
      * Retrieve the information from the orders table relating to the given date.
      * @param sqlDate the given date
      * @return a list of Order objects containing the retrieved information
+     * @throws IllegalStateException if the orders cannot be read from the database
      */
     public ArrayList<Order> retrieveOrders(java.sql.Date sqlDate)
     {
@@ -44,6 +96,7 @@ public class SQLClient
             psOrdersQuery.setDate(1, sqlDate);
 
             ArrayList<Order> orders = new ArrayList<>();
+            statementCount.incrementAndGet();
             ResultSet resultSet = psOrdersQuery.executeQuery();
             System.out.println("Orders query successful");
 
@@ -54,13 +107,10 @@ public class SQLClient
                 orders.add(new Order(orderNo, w3wLocation));
             }
             return orders;
-        } catch (Exception e)
+        } catch (SQLException e)
         {
-            e.printStackTrace();
-            System.exit(1);
+            throw new IllegalStateException("Orders could not be read for " + sqlDate, e);
         }
-        assert false;
-        return null;
     }
 
 
@@ -68,6 +118,7 @@ public class SQLClient
      * Creates a table in the database with a specified name, and specified column headings and datatypes.
      * @param tableName the table title
      * @param columns a variable number of strings that contain the column heading and datatype for each column
+     * @throws IllegalStateException if the table cannot be created
      */
     public void createTable(String tableName, String ... columns)
     {
@@ -83,23 +134,166 @@ public class SQLClient
         try
         {
             Statement statement = CONN.createStatement();
+            statementCount.incrementAndGet();
             statement.execute(str.toString());
-        } catch (Exception e)
+        } catch (SQLException e)
+        {
+            throw new IllegalStateException("Table " + tableName + " could not be created", e);
+        }
+    }
+
+    /**
+     * Starts a run in the run-partitioned output tables, creating the tables and their indexes if they do not exist.
+     * Unlike createTable, nothing is ever dropped: every run gets a new run id from the planningRuns table, and the
+     * rows written for the rest of the run are appended to deliveryHistory and flightpathHistory under that run id and
+     * the delivery date. The run is identified by the returned handle, which is passed to every write belonging to
+     * it, so planners for different days, in this process or in others, can write at the same time without destroying
+     * each other's output.
+     * @param sqlDate the delivery date being planned
+     * @return the handle of the new run
+     * @throws IllegalStateException if the tables cannot be created or the run cannot be recorded
+     */
+    public Run startRun(java.sql.Date sqlDate)
+    {
+        try
+        {
+            createIfMissing("create table " + RUNS_TABLE + "(" +
+                    "runId bigint generated always as identity primary key, " +
+                    "deliveryDate date not null, " +
+                    "startedAt timestamp not null)");
+            createIfMissing("create table " + DELIVERY_HISTORY_TABLE + "(" +
+                    "runId bigint not null, " +
+                    "deliveryDate date not null, " +
+                    "orderNo char(8), " +
+                    "deliveredTo varchar(19), " +
+                    "costInPence int, " +
+                    "droneId integer)");
+            // deliveryHistory tables created before deliveries recorded their drone
+            createIfMissing("alter table " + DELIVERY_HISTORY_TABLE + " add column droneId integer");
+            createIfMissing("create table " + FLIGHTPATH_HISTORY_TABLE + "(" +
+                    "runId bigint not null, " +
+                    "deliveryDate date not null, " +
+                    "orderNo char(8), " +
+                    "fromLongitude double, " +
+                    "fromLatitude double, " +
+                    "angle integer, " +
+                    "toLongitude double, " +
+                    "toLatitude double, " +
+                    "droneId integer)");
+            createIfMissing("create index planningRunsDate on " + RUNS_TABLE + "(deliveryDate, startedAt)");
+            createIfMissing("create index deliveryHistoryRun on " + DELIVERY_HISTORY_TABLE + "(runId)");
+            createIfMissing("create index deliveryHistoryDate on " + DELIVERY_HISTORY_TABLE + "(deliveryDate)");
+            createIfMissing("create index flightpathHistoryRun on " + FLIGHTPATH_HISTORY_TABLE + "(runId)");
+            createIfMissing("create index flightpathHistoryDate on " + FLIGHTPATH_HISTORY_TABLE + "(deliveryDate)");
+
+            PreparedStatement psRun = CONN.prepareStatement(
+                    "insert into " + RUNS_TABLE + "(deliveryDate, startedAt) values (?, ?)",
+                    Statement.RETURN_GENERATED_KEYS);
+            psRun.setDate(1, sqlDate);
+            psRun.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
+            statementCount.incrementAndGet();
+            psRun.executeUpdate();
+            ResultSet keys = psRun.getGeneratedKeys();
+            keys.next();
+            return new Run(keys.getLong(1), sqlDate);
+        } catch (SQLException e)
         {
-            e.printStackTrace();
-            System.exit(1);
+            throw new IllegalStateException("Run could not be started for " + sqlDate, e);
         }
     }
 
+    /**
+     * Executes a create table or create index statement, ignoring the error raised if the object already exists. Other
+     * planners may create the same objects concurrently, so this is checked by the statement itself rather than
+     * beforehand.
+     * @param ddl the statement
+     * @throws SQLException if the statement fails for any other reason
+     */
+    private void createIfMissing(String ddl) throws SQLException
+    {
+        try
+        {
+            Statement statement = CONN.createStatement();
+            statementCount.incrementAndGet();
+            statement.execute(ddl);
+        } catch (SQLException e)
+        {
+            if (!OBJECT_EXISTS.equals(e.getSQLState())) { throw e; }
+        }
+    }
+
+    /**
+     * Deletes every run started more than the given number of days ago from the run-partitioned tables, along with its
+     * deliveries and flightpath rows. Does nothing if the tables have not been created yet.
+     * @param retentionDays the number of days for which runs are kept
+     * @return the number of runs deleted
+     * @throws IllegalStateException if the runs cannot be deleted
+     */
+    public int purgeRunsOlderThan(int retentionDays)
+    {
+        Timestamp cutoff = new Timestamp(System.currentTimeMillis() - retentionDays * 24L * 60 * 60 * 1000);
+        String expiredRuns = "select runId from " + RUNS_TABLE + " where startedAt < ?";
+        try
+        {
+            if (!tableExists(RUNS_TABLE)) { return 0; }
+            for (String table : new String[]{DELIVERY_HISTORY_TABLE, FLIGHTPATH_HISTORY_TABLE})
+            {
+                PreparedStatement psDelete = CONN.prepareStatement(
+                        "delete from " + table + " where runId in (" + expiredRuns + ")");
+                psDelete.setTimestamp(1, cutoff);
+                statementCount.incrementAndGet();
+                psDelete.executeUpdate();
+            }
+            PreparedStatement psDeleteRuns = CONN.prepareStatement("delete from " + RUNS_TABLE + " where startedAt < ?");
+            psDeleteRuns.setTimestamp(1, cutoff);
+            statementCount.incrementAndGet();
+            return psDeleteRuns.executeUpdate();
+        } catch (SQLException e)
+        {
+            throw new IllegalStateException("Runs older than " + retentionDays + " days could not be deleted", e);
+        }
+    }
+
+    /**
+     * Checks if a table with the specified name exists within the database.
+     * @param tableName the name of the table
+     * @return true if the table exists
+     * @throws SQLException if the database metadata cannot be read
+     */
+    private boolean tableExists(String tableName) throws SQLException
+    {
+        DatabaseMetaData databaseMetaData = CONN.getMetaData();
+        statementCount.incrementAndGet();
+        ResultSet resultSet = databaseMetaData.getTables(null, null, tableName.toUpperCase(), null);
+        return resultSet.next();
+    }
+
+    /**
+     * Retrieves the name of the table deliveries are written to: deliveryHistory for a run, deliveries otherwise.
+     * @param run the run the deliveries belong to, or null for the per-run tables
+     * @return the table name
+     */
+    private static String deliveriesTable(Run run) { return run == null ? "deliveries" : DELIVERY_HISTORY_TABLE; }
+
+    /**
+     * Retrieves the name of the table flightpath rows are written to: flightpathHistory for a run, flightpath
+     * otherwise.
+     * @param run the run the rows belong to, or null for the per-run tables
+     * @return the table name
+     */
+    private static String flightpathTable(Run run) { return run == null ? "flightpath" : FLIGHTPATH_HISTORY_TABLE; }
+
     /**
      * Checks if a table with the specified name exists within the database, and if it does, it is removed.
      * @param tableName the name of the table to be dropped
+     * @throws IllegalStateException if the table cannot be dropped
      */
     private void dropTableIfExists(String tableName)
     {
         try
         {
             DatabaseMetaData databaseMetaData = CONN.getMetaData();
+            statementCount.incrementAndGet();
             ResultSet resultSet = databaseMetaData.getTables(null,
                     null,
                     tableName.toUpperCase(),
@@ -107,35 +301,58 @@ public class SQLClient
             if (resultSet.next())
             {
                 Statement drop_statement = CONN.createStatement();
+                statementCount.incrementAndGet();
                 drop_statement.execute("drop table " + tableName);
             }
-        } catch (Exception e)
+        } catch (SQLException e)
         {
-            e.printStackTrace();
-            System.exit(1);
+            throw new IllegalStateException("Table " + tableName + " could not be dropped", e);
         }
     }
 
     /**
-     * Writes one entry into the deliveries table.
+     * Writes one entry into the deliveries table. In bulk mode the entry is held in memory until flushBulkRows.
      * @param orderNo the order number of the order that has been delivered
      * @param deliveredTo the what3words location of the delivery
      * @param costInPence the cost of the order in pence
      */
     public void writeToDeliveriesTable(String orderNo, String deliveredTo, int costInPence)
     {
-        try
+        writeToDeliveriesTable(null, orderNo, deliveredTo, costInPence, Flight.SINGLE_DRONE_ID);
+    }
+
+    /**
+     * Writes one entry into the deliveries table, or into deliveryHistory under the run id and delivery date of the
+     * given run. When the order was delivered by a drone of a fleet, the drone id is written into the additional
+     * droneId column, which deliveryHistory always has. In bulk mode the entry is held in memory until flushBulkRows.
+     * @param run the run the delivery belongs to, or null for the per-run tables
+     * @param orderNo the order number of the order that has been delivered
+     * @param deliveredTo the what3words location of the delivery
+     * @param costInPence the cost of the order in pence
+     * @param droneId the id of the drone that delivered the order, or Flight.SINGLE_DRONE_ID
+     * @throws IllegalStateException if the entry cannot be written
+     */
+    public void writeToDeliveriesTable(Run run, String orderNo, String deliveredTo, int costInPence, int droneId)
+    {
+        Object[] row;
+        if (run != null) { row = new Object[]{run.getId(), run.getDate(), orderNo, deliveredTo, costInPence, droneId}; }
+        // the droneId column only exists in the per-run table when a fleet is being planned
+        else if (droneId != Flight.SINGLE_DRONE_ID) { row = new Object[]{orderNo, deliveredTo, costInPence, droneId}; }
+        else { row = new Object[]{orderNo, deliveredTo, costInPence}; }
+        ArrayList<Object[]> rows = new ArrayList<>();
+        rows.add(row);
+        if (bulkMode)
         {
-            PreparedStatement psDeliveries = CONN.prepareStatement("insert into deliveries values (?,?,?)");
+            holdRows(deliveriesTable(run), rows);
+            return;
+        }
 
-            psDeliveries.setString(1, orderNo);
-            psDeliveries.setString(2, deliveredTo);
-            psDeliveries.setInt(3, costInPence);
-            psDeliveries.execute();
-        } catch (Exception e)
+        try
         {
-            e.printStackTrace();
-            System.exit(1);
+            batchInsert(deliveriesTable(run), rows);
+        } catch (SQLException e)
+        {
+            throw new IllegalStateException("Delivery of order " + orderNo + " could not be written", e);
         }
     }
 
@@ -147,75 +364,230 @@ public class SQLClient
      */
     public int writeToFlightpathTable(String orderNo, ArrayList<LongLat> path)
     {
-        int moveCount = 0;
-        try
-        {
-            PreparedStatement psFlightpath = CONN.prepareStatement("insert into flightpath values (?,?,?,?,?,?)");
+        return writeToFlightpathTable(orderNo, path, Flight.SINGLE_DRONE_ID);
+    }
+
+    /**
+     * Writes one complete order path into the flightpath table. When the path was flown by a drone of a fleet, the
+     * drone id is written into the additional droneId column. During a run in the run-partitioned tables, every row is
+     * prefixed with the run id and the delivery date, and the droneId column is always written. In bulk mode the rows
+     * are held in memory until flushBulkRows.
+     * @param orderNo the order number of the order path that is being written
+     * @param path the order path
+     * @param droneId the id of the drone that flew the path, or Flight.SINGLE_DRONE_ID
+     * @return the number of moves taken to complete the path
+     */
+    public int writeToFlightpathTable(String orderNo, ArrayList<LongLat> path, int droneId)
+    {
+        return writeToFlightpathTable(null, orderNo, path, droneId);
+    }
 
-            for (int i = 0; i < path.size() - 1; i++)
+    /**
+     * Writes one complete order path into the flightpath table, or into flightpathHistory under the run id and delivery
+     * date of the given run, in the same way as writeToFlightpathTable(orderNo, path, droneId).
+     * @param run the run the path belongs to, or null for the per-run tables
+     * @param orderNo the order number of the order path that is being written
+     * @param path the order path
+     * @param droneId the id of the drone that flew the path, or Flight.SINGLE_DRONE_ID
+     * @return the number of moves taken to complete the path
+     * @throws IllegalStateException if the path cannot be written
+     */
+    public int writeToFlightpathTable(Run run, String orderNo, ArrayList<LongLat> path, int droneId)
+    {
+        ArrayList<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < path.size() - 1; i++)
+        {
+            Object[] row = {orderNo,
+                    path.get(i).getLongitude(),
+                    path.get(i).getLatitude(),
+                    path.get(i).angleTo(path.get(i + 1)),
+                    path.get(i + 1).getLongitude(),
+                    path.get(i + 1).getLatitude(),
+                    droneId};
+            if (run != null)
             {
-                psFlightpath.setString(1, orderNo);
-                psFlightpath.setDouble(2, path.get(i).getLongitude());
-                psFlightpath.setDouble(3, path.get(i).getLatitude());
-                psFlightpath.setInt(4, path.get(i).angleTo(path.get(i + 1)));
-                psFlightpath.setDouble(5, path.get(i + 1).getLongitude());
-                psFlightpath.setDouble(6, path.get(i + 1).getLatitude());
-                psFlightpath.execute();
-                moveCount++;
+                Object[] runRow = new Object[row.length + 2];
+                runRow[0] = run.getId();
+                runRow[1] = run.getDate();
+                System.arraycopy(row, 0, runRow, 2, row.length);
+                rows.add(runRow);
             }
-            return moveCount;
-        } catch (Exception e)
+            // the droneId column only exists in the per-run table when a fleet is being planned
+            else { rows.add(droneId != Flight.SINGLE_DRONE_ID ? row : Arrays.copyOf(row, 6)); }
+        }
+
+        if (bulkMode)
         {
-            e.printStackTrace();
-            System.exit(1);
+            holdRows(flightpathTable(run), rows);
+            return rows.size();
+        }
+
+        try
+        {
+            batchInsert(flightpathTable(run), rows);
+            return rows.size();
+        } catch (SQLException e)
+        {
+            throw new IllegalStateException("Path of order " + orderNo + " could not be written", e);
         }
-        assert false;
-        return 0;
     }
 
     /**
-     * Retrieves the information from the orderDetails relating to the given orders.
-     * @param orders the orders
-     * @param menus the contents of menus.json, parsed into java objects.
+     * Holds rows in memory until flushBulkRows loads them into their table.
+     * @param tableName the table the rows are loaded into
+     * @param rows the rows, each holding one value per column of the table
      */
-    public void retrieveOrderDetails(ArrayList<Order> orders, ArrayList<Shop> menus)
+    private void holdRows(String tableName, ArrayList<Object[]> rows)
     {
-        String orderDetailsQuery = "select * from orderDetails where orderNo=(?)";
-        for (Order order: orders)
+        synchronized (pendingRows) { pendingRows.computeIfAbsent(tableName, t -> new ArrayList<>()).addAll(rows); }
+    }
+
+    /**
+     * Inserts rows into a table with a single JDBC batch.
+     * @param tableName the table to insert into
+     * @param rows the rows, each holding one value per column of the table
+     * @throws SQLException if the insert fails
+     */
+    private void batchInsert(String tableName, ArrayList<Object[]> rows) throws SQLException
+    {
+        if (rows.size() == 0) { return; }
+
+        StringBuilder str = new StringBuilder("insert into " + tableName + " values (");
+        for (int i = 0; i < rows.get(0).length; i++) { str.append(i == 0 ? "?" : ",?"); }
+        str.append(")");
+
+        PreparedStatement psInsert = CONN.prepareStatement(str.toString());
+        for (Object[] row : rows)
         {
-            try
-            {
-                PreparedStatement psOrderDetailsQuery = CONN.prepareStatement(orderDetailsQuery);
-                psOrderDetailsQuery.setString(1, order.getOrderNo());
-                ArrayList<String> items = new ArrayList<>();
-                ResultSet resultSet = psOrderDetailsQuery.executeQuery();
+            for (int i = 0; i < row.length; i++) { psInsert.setObject(i + 1, row[i]); }
+            psInsert.addBatch();
+        }
+        statementCount.incrementAndGet();
+        psInsert.executeBatch();
+    }
 
-                while (resultSet.next())
+    /**
+     * Turns bulk mode on or off. In bulk mode, rows written to the deliveries and flightpath tables are held in memory
+     * and loaded in one call per table by flushBulkRows.
+     * @param bulkMode true to hold rows until flushBulkRows, false to insert them immediately
+     */
+    public void setBulkMode(boolean bulkMode) { this.bulkMode = bulkMode; }
+
+    /**
+     * Loads all held deliveries and flightpath rows into their tables. Each table is written to a temporary delimited
+     * file and loaded with SYSCS_UTIL.SYSCS_IMPORT_DATA. If the import fails, the rows are inserted with a batched
+     * insert instead. The import reads the file on the database server's machine, so the fast path only applies when
+     * the server runs locally. Rows held for runs that are still being planned are loaded too, which is harmless as
+     * every row of the run-partitioned tables carries its own run id.
+     * @throws IllegalStateException if the rows of a table cannot be loaded either way
+     */
+    public void flushBulkRows()
+    {
+        synchronized (pendingRows)
+        {
+            for (String tableName : pendingRows.keySet()) { bulkLoad(tableName, pendingRows.get(tableName)); }
+            pendingRows.clear();
+        }
+    }
+
+    /**
+     * Loads rows into a table with SYSCS_UTIL.SYSCS_IMPORT_DATA, falling back to a batched insert on failure.
+     * @param tableName the table to load
+     * @param rows the rows, each holding one value per column of the table
+     * @throws IllegalStateException if the rows cannot be loaded either way
+     */
+    private void bulkLoad(String tableName, ArrayList<Object[]> rows)
+    {
+        if (rows.size() == 0) { return; }
+
+        Path importFile = null;
+        try
+        {
+            importFile = Files.createTempFile(tableName, ".csv");
+            try (BufferedWriter writer = Files.newBufferedWriter(importFile, StandardCharsets.UTF_8))
+            {
+                for (Object[] row : rows)
                 {
-                    items.add(resultSet.getString("item"));
+                    for (int i = 0; i < row.length; i++)
+                    {
+                        if (i > 0) { writer.write(','); }
+                        if (row[i] instanceof String) { writer.write("\"" + row[i] + "\""); }
+                        else { writer.write(String.valueOf(row[i])); }
+                    }
+                    writer.newLine();
                 }
+            }
 
-                order.setOrderDetails(items, menus);
-                Order.totalPlacedOrderCost += order.getTotalCost();
-            } catch (Exception e)
+            CallableStatement csImport = CONN.prepareCall(
+                    "CALL SYSCS_UTIL.SYSCS_IMPORT_DATA(null, ?, null, null, ?, null, null, 'UTF-8', 0)");
+            csImport.setString(1, tableName.toUpperCase());
+            csImport.setString(2, importFile.toAbsolutePath().toString());
+            statementCount.incrementAndGet();
+            csImport.execute();
+        } catch (Exception importException)
+        {
+            System.err.println("Bulk import into " + tableName + " failed, falling back to batched inserts");
+            try
+            {
+                batchInsert(tableName, rows);
+            } catch (SQLException e)
             {
-                e.printStackTrace();
+                throw new IllegalStateException("Rows could not be loaded into " + tableName, e);
             }
+        } finally
+        {
+            try
+            {
+                if (importFile != null) { Files.deleteIfExists(importFile); }
+            } catch (Exception ignored) { }
         }
     }
 
+    /**
+     * Retrieves the items of one order from the orderDetails table.
+     * @param orderNo the order number
+     * @return the names of the items ordered
+     * @throws SQLException if the query fails
+     */
+    public ArrayList<String> retrieveOrderItems(String orderNo) throws SQLException
+    {
+        String orderDetailsQuery = "select * from orderDetails where orderNo=(?)";
+        PreparedStatement psOrderDetailsQuery = CONN.prepareStatement(orderDetailsQuery);
+        psOrderDetailsQuery.setString(1, orderNo);
+        ArrayList<String> items = new ArrayList<>();
+        statementCount.incrementAndGet();
+        ResultSet resultSet = psOrderDetailsQuery.executeQuery();
+
+        while (resultSet.next())
+        {
+            items.add(resultSet.getString("item"));
+        }
+        return items;
+    }
+
     /**
      * Retrieves the contents of the flightpath table.
      * @return a list of strings where each string is a table entry
      */
-    public ArrayList<String> getFlightpathTable()
+    public ArrayList<String> getFlightpathTable() { return getFlightpathTable(null); }
+
+    /**
+     * Retrieves the contents of the flightpath table, or the rows of the given run in the run-partitioned tables.
+     * @param run the run whose rows are retrieved, or null for the flightpath table
+     * @return a list of strings where each string is a table entry
+     */
+    public ArrayList<String> getFlightpathTable(Run run)
     {
         ArrayList<String> path = new ArrayList<>();
-        String flightpathQuery = "select * from flightpath";
+        String flightpathQuery = run == null ?
+                "select * from flightpath" :
+                "select * from " + FLIGHTPATH_HISTORY_TABLE + " where runId=(?)";
         try
         {
-            Statement query = CONN.createStatement();
-            ResultSet resultSet = query.executeQuery(flightpathQuery);
+            PreparedStatement query = CONN.prepareStatement(flightpathQuery);
+            if (run != null) { query.setLong(1, run.getId()); }
+            statementCount.incrementAndGet();
+            ResultSet resultSet = query.executeQuery();
 
             while (resultSet.next())
             {
@@ -234,6 +606,91 @@ public class SQLClient
             return null;
         }
     }
+    /**
+     * Appends the flightpath rows of a range of delivery dates to a flight history store, reading the run-partitioned
+     * flightpathHistory table. A day planned more than once is read from its latest run only, so its moves are not
+     * counted once per run. The rows are read straight into the store's columns, without building a string per row.
+     * @param history the store to append to
+     * @param first the first delivery date
+     * @param last the last delivery date
+     * @return the number of rows read
+     * @throws IllegalStateException if the rows cannot be read
+     */
+    public int loadFlightHistory(FlightHistory history, java.sql.Date first, java.sql.Date last)
+    {
+        String historyQuery = "select h.* from " + FLIGHTPATH_HISTORY_TABLE + " h join " +
+                "(select deliveryDate, max(runId) as latestRunId from " + FLIGHTPATH_HISTORY_TABLE +
+                " where deliveryDate between (?) and (?) group by deliveryDate) latest" +
+                " on h.runId = latest.latestRunId order by h.runId";
+        try
+        {
+            if (!tableExists(FLIGHTPATH_HISTORY_TABLE)) { return 0; }
+            PreparedStatement psHistoryQuery = CONN.prepareStatement(historyQuery);
+            psHistoryQuery.setDate(1, first);
+            psHistoryQuery.setDate(2, last);
+            statementCount.incrementAndGet();
+            return appendFlightpathRows(history, psHistoryQuery.executeQuery(), null);
+        } catch (SQLException e)
+        {
+            throw new IllegalStateException("Flight history could not be read from " + first + " to " + last, e);
+        }
+    }
+
+    /**
+     * Appends the rows of the per-run flightpath table to a flight history store.
+     * @param history the store to append to
+     * @param date the date the rows were planned for, which the per-run table does not record
+     * @return the number of rows read
+     * @throws IllegalStateException if the rows cannot be read
+     */
+    public int loadFlightpathTable(FlightHistory history, java.time.LocalDate date)
+    {
+        try
+        {
+            Statement query = CONN.createStatement();
+            statementCount.incrementAndGet();
+            return appendFlightpathRows(history, query.executeQuery("select * from flightpath"), date);
+        } catch (SQLException e)
+        {
+            throw new IllegalStateException("The flightpath table could not be read", e);
+        }
+    }
+
+    /**
+     * Appends the rows of a flightpath query to a flight history store.
+     * @param history the store to append to
+     * @param resultSet the rows
+     * @param date the date of every row, or null to read it from the deliveryDate column
+     * @return the number of rows read
+     * @throws SQLException if the rows cannot be read
+     */
+    private int appendFlightpathRows(FlightHistory history, ResultSet resultSet, java.time.LocalDate date)
+            throws SQLException
+    {
+        resultSet.setFetchSize(HISTORY_FETCH_SIZE);
+        ResultSetMetaData columns = resultSet.getMetaData();
+        boolean hasDroneId = false;
+        for (int c = 1; c <= columns.getColumnCount(); c++)
+        {
+            if (columns.getColumnName(c).equalsIgnoreCase("droneId")) { hasDroneId = true; }
+        }
+
+        int rows = 0;
+        while (resultSet.next())
+        {
+            history.addMove(date != null ? date : resultSet.getDate("deliveryDate").toLocalDate(),
+                    resultSet.getString("orderNo").trim(),
+                    hasDroneId ? resultSet.getInt("droneId") : Flight.SINGLE_DRONE_ID,
+                    resultSet.getDouble("fromLongitude"),
+                    resultSet.getDouble("fromLatitude"),
+                    resultSet.getInt("angle"),
+                    resultSet.getDouble("toLongitude"),
+                    resultSet.getDouble("toLatitude"));
+            rows++;
+        }
+        return rows;
+    }
+
     /**
      * Method to establish a connection to the Derby database
      * @return an SQL connection over which to execute statements
@@ -243,14 +700,10 @@ public class SQLClient
         try
         {
             return DriverManager.getConnection(JDBC_STRING);
-        } catch (Exception e)
+        } catch (SQLException e)
         {
-            System.err.println(CONNECTION_ERROR_MESSAGE);
-            e.printStackTrace();
-            System.exit(1);
+            throw new IllegalStateException(CONNECTION_ERROR_MESSAGE, e);
         }
-        assert false;
-        return null;
     }
 
     /**
@@ -267,4 +720,11 @@ public class SQLClient
                 PORT +
                 DATABASE_NAME;
     }
+
+    /**
+     * Retrieves the number of statements sent to the database so far by this client. A batch of inserts counts as one
+     * statement.
+     * @return the statement count
+     */
+    public long getStatementCount() { return statementCount.get(); }
 }
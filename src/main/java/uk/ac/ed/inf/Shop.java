@@ -1,16 +1,26 @@
 package uk.ac.ed.inf;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Serializable;
 import java.util.ArrayList;
 
 /**
  * Class to allow the menus.json data to be parsed into corresponding java objects.
  */
-public class Shop
+public class Shop implements Serializable
 {
+    private static final long serialVersionUID = 1L;
+
     /**
      * Class to represent the individual items on the shop menus.
      */
-    private static class MenuItem
+    private static class MenuItem implements Serializable
     {
+        private static final long serialVersionUID = 1L;
+
         private final String item;
         private final int pence;
 
@@ -65,4 +75,127 @@ public class Shop
      * @return the location
      */
     public String getLocation() { return location; }
+
+    /**
+     * Retrieves the name of the shop.
+     * @return the name
+     */
+    public String getName() { return name; }
+
+    /**
+     * Retrieves the names of the items on the shop's menu, in menu order.
+     * @return the item names
+     */
+    public ArrayList<String> getItemNames()
+    {
+        ArrayList<String> itemNames = new ArrayList<>();
+        for (MenuItem menuItem : menu) { itemNames.add(menuItem.item); }
+        return itemNames;
+    }
+
+    /**
+     * Builds a shop from the names and prices of its menu items.
+     * @param name the name of the shop
+     * @param location the what3words location of the shop
+     * @param itemNames the names of the items on the menu
+     * @param itemPence the prices of the items in pence, in the same order as the names
+     * @return the shop
+     */
+    public static Shop fromMenu(String name, String location, ArrayList<String> itemNames, ArrayList<Integer> itemPence)
+    {
+        ArrayList<MenuItem> menu = new ArrayList<>();
+        for (int i = 0; i < itemNames.size(); i++) { menu.add(new MenuItem(itemNames.get(i), itemPence.get(i))); }
+        return new Shop(name, location, menu);
+    }
+
+    /**
+     * Streaming adapter that reads a shop from menus.json field by field, without reflection. Unknown fields are
+     * skipped.
+     */
+    public static class Adapter extends TypeAdapter<Shop>
+    {
+        /**
+         * Writes a shop in the menus.json format.
+         * @param out the writer
+         * @param shop the shop to write
+         * @throws IOException if the writer fails
+         */
+        @Override
+        public void write(JsonWriter out, Shop shop) throws IOException
+        {
+            out.beginObject();
+            out.name("name").value(shop.name);
+            out.name("location").value(shop.location);
+            out.name("menu").beginArray();
+            for (MenuItem menuItem : shop.menu)
+            {
+                out.beginObject();
+                out.name("item").value(menuItem.item);
+                out.name("pence").value(menuItem.pence);
+                out.endObject();
+            }
+            out.endArray();
+            out.endObject();
+        }
+
+        /**
+         * Reads a shop from a menus.json object.
+         * @param in the reader, positioned at the start of the object
+         * @return the shop
+         * @throws IOException if the reader fails
+         */
+        @Override
+        public Shop read(JsonReader in) throws IOException
+        {
+            String name = null;
+            String location = null;
+            ArrayList<MenuItem> menu = new ArrayList<>();
+
+            in.beginObject();
+            while (in.hasNext())
+            {
+                switch (in.nextName())
+                {
+                    case "name":
+                        name = in.nextString();
+                        break;
+                    case "location":
+                        location = in.nextString();
+                        break;
+                    case "menu":
+                        in.beginArray();
+                        while (in.hasNext()) { menu.add(readMenuItem(in)); }
+                        in.endArray();
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return new Shop(name, location, menu);
+        }
+
+        /**
+         * Reads one item of a shop's menu.
+         * @param in the reader, positioned at the start of the item
+         * @return the menu item
+         * @throws IOException if the reader fails
+         */
+        private static MenuItem readMenuItem(JsonReader in) throws IOException
+        {
+            String item = null;
+            int pence = 0;
+
+            in.beginObject();
+            while (in.hasNext())
+            {
+                String field = in.nextName();
+                if (field.equals("item")) { item = in.nextString(); }
+                else if (field.equals("pence")) { pence = in.nextInt(); }
+                else { in.skipValue(); }
+            }
+            in.endObject();
+            return new MenuItem(item, pence);
+        }
+    }
 }
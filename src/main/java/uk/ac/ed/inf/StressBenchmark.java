@@ -0,0 +1,161 @@
+package uk.ac.ed.inf;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Class that measures how the planner scales with the geometry of the no-fly-zones. For every combination of polygon
+ * count, vertex count and density, a synthetic set of zones is generated by a ZoneGenerator, compiled into an Airspace,
+ * and a fixed number of paths between random points outside the zones are planned through it. Each configuration
+ * becomes one row of a CSV report, so the rows for one varying parameter form a scaling curve that can be compared
+ * from release to release.
+ *
+ * A path fails if the planner fell back to flying straight at its destination, if any of its moves enters a zone or
+ * leaves the confinement area, or if it does not end close to its destination. The configurations can be set with
+ * system properties holding comma-separated lists: ilp.stress.polygons (1,2,4,8,16,32 by default), ilp.stress.vertices
+ * (4,8,16,32 by default) and ilp.stress.densities (0.05,0.1,0.2 by default), along with ilp.stress.paths (the paths
+ * planned per configuration, 50 by default) and ilp.stress.seed.
+ */
+public class StressBenchmark
+{
+    private static final String HEADER = "polygons,vertices,density,airspaceMillis,paths,meanPlanningMillis," +
+            "p95PlanningMillis,maxPlanningMillis,meanMoves,failureRate";
+    private static final int MAX_ENDPOINT_ATTEMPTS = 10000;
+
+    private final int[] polygonCounts = parseInts(System.getProperty("ilp.stress.polygons", "1,2,4,8,16,32"));
+    private final int[] vertexCounts = parseInts(System.getProperty("ilp.stress.vertices", "4,8,16,32"));
+    private final double[] densities = Arrays.stream(System.getProperty("ilp.stress.densities", "0.05,0.1,0.2")
+            .split(",")).mapToDouble(Double::parseDouble).toArray();
+    private final int pathsPerConfiguration = Integer.getInteger("ilp.stress.paths", 50);
+    private final long seed = Long.getLong("ilp.stress.seed", 46);
+    private final ArrayList<String> rows = new ArrayList<>();
+
+    /**
+     * Plans the paths of every configuration, recording a row of the report for each.
+     */
+    public void run()
+    {
+        for (double density : densities)
+        {
+            for (int vertices : vertexCounts)
+            {
+                for (int polygons : polygonCounts)
+                {
+                    rows.add(runConfiguration(polygons, vertices, density));
+                    System.out.println(rows.get(rows.size() - 1));
+                }
+            }
+        }
+    }
+
+    /**
+     * Generates the zones of one configuration and plans its paths. The zones and the endpoints are seeded by the
+     * configuration, so every release is measured on the same geometry.
+     * @param polygons the number of zones
+     * @param vertices the number of vertices of each zone
+     * @param density the fraction of the confinement area covered by the zones
+     * @return the row of the report
+     */
+    private String runConfiguration(int polygons, int vertices, double density)
+    {
+        long configurationSeed = seed + 31L * (31L * polygons + vertices) + Double.hashCode(density);
+        long airspaceStart = System.nanoTime();
+        Airspace airspace = new Airspace(new ZoneGenerator(configurationSeed).generate(polygons, vertices, density));
+        double airspaceMillis = (System.nanoTime() - airspaceStart) / 1E6;
+
+        Random random = new Random(configurationSeed);
+        double[] planningMillis = new double[pathsPerConfiguration];
+        long totalMoves = 0;
+        int failures = 0;
+
+        for (int p = 0; p < pathsPerConfiguration; p++)
+        {
+            LongLat origin = randomEndpoint(airspace, random);
+            LongLat destination = randomEndpoint(airspace, random);
+            Flight flight = new Flight(new ArrayList<Order>(), airspace, Flight.SINGLE_DRONE_ID);
+
+            long pathStart = System.nanoTime();
+            ArrayList<LongLat> path = flight.planPath(origin, destination);
+            planningMillis[p] = (System.nanoTime() - pathStart) / 1E6;
+
+            totalMoves += path.size() - 1;
+            if (flight.getProfiles().get(0).getFallbacks() > 0 || !isValid(path, destination, airspace)) { failures++; }
+        }
+
+        Arrays.sort(planningMillis);
+        return String.format(Locale.ROOT, "%d,%d,%.3f,%.3f,%d,%.3f,%.3f,%.3f,%.1f,%.3f", polygons, vertices, density,
+                airspaceMillis,
+                pathsPerConfiguration,
+                Arrays.stream(planningMillis).average().orElse(0),
+                planningMillis[(int)Math.ceil(0.95 * pathsPerConfiguration) - 1],
+                planningMillis[pathsPerConfiguration - 1],
+                (double)totalMoves / pathsPerConfiguration,
+                (double)failures / pathsPerConfiguration);
+    }
+
+    /**
+     * Chooses a random point in the confinement area that lies outside every zone.
+     * @param airspace the compiled zones
+     * @param random the source of randomness
+     * @return the point
+     */
+    private static LongLat randomEndpoint(Airspace airspace, Random random)
+    {
+        for (int attempt = 0; attempt < MAX_ENDPOINT_ATTEMPTS; attempt++)
+        {
+            LongLat point = new LongLat(
+                    LongLat.MINIMUM_LONGITUDE + (LongLat.MAXIMUM_LONGITUDE - LongLat.MINIMUM_LONGITUDE) * random.nextDouble(),
+                    LongLat.MINIMUM_LATITUDE + (LongLat.MAXIMUM_LATITUDE - LongLat.MINIMUM_LATITUDE) * random.nextDouble());
+            if (point.isConfined() && !airspace.contains(point.getLongitude(), point.getLatitude())) { return point; }
+        }
+        throw new IllegalArgumentException("No point outside the zones could be found");
+    }
+
+    /**
+     * Returns whether a planned path could be flown: every node is confined, no move enters a zone, and the path ends
+     * close to its destination.
+     * @param path the path
+     * @param destination the destination of the path
+     * @param airspace the compiled zones
+     * @return true if the path is valid
+     */
+    private static boolean isValid(List<LongLat> path, LongLat destination, Airspace airspace)
+    {
+        for (int i = 0; i < path.size(); i++)
+        {
+            if (!path.get(i).isConfined()) { return false; }
+            if (i > 0 && airspace.lineEntersNoFlyZone(path.get(i - 1), path.get(i))) { return false; }
+        }
+        return path.get(path.size() - 1).closeTo(destination);
+    }
+
+    /**
+     * Writes the report of the configurations run so far as CSV, overwriting the file if it exists.
+     * @param filename the name of the report file
+     * @throws IOException if the file cannot be written
+     */
+    public void writeReport(String filename) throws IOException
+    {
+        ArrayList<String> lines = new ArrayList<>();
+        lines.add(HEADER);
+        lines.addAll(rows);
+        Files.write(Paths.get(filename), lines, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses a comma-separated list of integers.
+     * @param list the list
+     * @return the integers
+     */
+    private static int[] parseInts(String list)
+    {
+        return Arrays.stream(list.split(",")).mapToInt(Integer::parseInt).toArray();
+    }
+}
@@ -0,0 +1,249 @@
+package uk.ac.ed.inf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class to represent a trip: a group of orders carried together on one route, which visits every shop needed by any of
+ * the orders before delivering them. Orders that share a shop only need it visited once, and orders with nearby
+ * delivery locations are delivered one after the other.
+ *
+ * Trips are formed by batch. Each trip starts from the first order not yet on a trip, and then repeatedly takes on the
+ * order whose addition saves the most estimated moves, as long as that order shares a shop with the trip or is
+ * delivered near one of its deliveries, and the drone has capacity left. The moves are estimated from straight-line
+ * distances, in the same way as in OrderSelector.
+ */
+public class Trip
+{
+    // deliveries within this distance of each other are considered nearby
+    private static final double NEARBY_DISTANCE = 10 * LongLat.CLOSE_DISTANCE;
+
+    /**
+     * Class to represent one stop of a trip: a shop visited to pick up, or a delivery location.
+     */
+    public static class Stop
+    {
+        private final LongLat location;
+        private final Order order;
+
+        /**
+         * Class constructor. Simply assigns the location and the order.
+         * @param location the location of the stop
+         * @param order the order the stop is made for. A shop visited for several orders is made for the first of them
+         */
+        public Stop(LongLat location, Order order)
+        {
+            this.location = location;
+            this.order = order;
+        }
+
+        /**
+         * Retrieves the location of the stop.
+         * @return the location
+         */
+        public LongLat getLocation() { return location; }
+
+        /**
+         * Retrieves the order the stop is made for, which the moves to the stop are recorded under.
+         * @return the order
+         */
+        public Order getOrder() { return order; }
+    }
+
+    private final List<Order> orders;
+    private final ArrayList<Stop> stops = new ArrayList<>();
+
+    /**
+     * Class constructor. Plans the sequence of stops: every shop is visited first, nearest first from the first shop of
+     * the first order, and the deliveries are then made nearest first from the last shop. If none of the orders has a
+     * shop to visit, which happens for an order with no items, the deliveries are made nearest first from the first
+     * order's delivery location.
+     * @param orders the orders carried on the trip, of which there must be at least one
+     */
+    public Trip(List<Order> orders)
+    {
+        this.orders = orders;
+
+        ArrayList<Stop> pickups = new ArrayList<>();
+        LongSet visited = new LongSet();
+        for (Order order : orders)
+        {
+            for (LongLat pickup : order.getPickupLocations())
+            {
+                if (visited.add(PositionKey.of(pickup))) { pickups.add(new Stop(pickup, order)); }
+            }
+        }
+        ArrayList<Stop> deliveries = new ArrayList<>();
+        for (Order order : orders) { deliveries.add(new Stop(order.getDeliveryLocation(), order)); }
+
+        LongLat lastPickup = pickups.isEmpty() ?
+                deliveries.get(0).getLocation() : addNearestFirst(pickups, pickups.get(0).getLocation());
+        addNearestFirst(deliveries, lastPickup);
+    }
+
+    /**
+     * Appends stops to the trip, each time choosing the remaining stop nearest to the last one.
+     * @param remaining the stops to append, which are removed from the list
+     * @param position the location the stops are visited from
+     * @return the location of the last stop appended
+     */
+    private LongLat addNearestFirst(ArrayList<Stop> remaining, LongLat position)
+    {
+        while (!remaining.isEmpty())
+        {
+            Stop nearest = remaining.get(0);
+            for (Stop stop : remaining)
+            {
+                if (stop.getLocation().distanceTo(position) < nearest.getLocation().distanceTo(position))
+                {
+                    nearest = stop;
+                }
+            }
+            remaining.remove(nearest);
+            stops.add(nearest);
+            position = nearest.getLocation();
+        }
+        return position;
+    }
+
+    /**
+     * Groups orders into trips of at most the given number of orders. The trips are returned in the order of their
+     * first orders.
+     * @param orders the orders, in the order they would otherwise be delivered
+     * @param capacity the maximum number of orders on a trip
+     * @return the trips
+     */
+    public static ArrayList<Trip> batch(Iterable<Order> orders, int capacity)
+    {
+        ArrayList<Order> remaining = new ArrayList<>();
+        for (Order order : orders) { remaining.add(order); }
+
+        ArrayList<Trip> trips = new ArrayList<>();
+        while (!remaining.isEmpty())
+        {
+            ArrayList<Order> batch = new ArrayList<>();
+            batch.add(remaining.remove(0));
+            Trip trip = new Trip(batch);
+
+            while (batch.size() < capacity)
+            {
+                Trip best = null;
+                Order bestOrder = null;
+                double bestSaving = 0;
+                for (Order order : remaining)
+                {
+                    if (!trip.sharesShopWith(order) && !trip.deliversNear(order)) { continue; }
+
+                    ArrayList<Order> extended = new ArrayList<>(batch);
+                    extended.add(order);
+                    Trip candidate = new Trip(extended);
+                    Trip alone = new Trip(List.of(order));
+                    // flying the order on its own trip means travelling there from the end of this one
+                    double saving = trip.estimateMoves() + alone.estimateMoves() +
+                            trip.getEnd().distanceTo(alone.getStart()) / LongLat.CLOSE_DISTANCE -
+                            candidate.estimateMoves();
+                    if (saving > bestSaving)
+                    {
+                        bestSaving = saving;
+                        best = candidate;
+                        bestOrder = order;
+                    }
+                }
+                if (best == null) { break; }
+
+                batch.add(bestOrder);
+                remaining.remove(bestOrder);
+                trip = best;
+            }
+            trips.add(trip);
+        }
+        return trips;
+    }
+
+    /**
+     * Returns whether an order needs any of the shops this trip visits.
+     * @param order the order
+     * @return true if a shop is shared
+     */
+    private boolean sharesShopWith(Order order)
+    {
+        for (Stop stop : stops)
+        {
+            for (LongLat pickup : order.getPickupLocations())
+            {
+                if (PositionKey.of(pickup) == PositionKey.of(stop.getLocation())) { return true; }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether an order is delivered near any of this trip's deliveries.
+     * @param order the order
+     * @return true if a delivery is nearby
+     */
+    private boolean deliversNear(Order order)
+    {
+        for (Order tripOrder : orders)
+        {
+            if (tripOrder.getDeliveryLocation().distanceTo(order.getDeliveryLocation()) < NEARBY_DISTANCE)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Estimates the number of moves from the first stop to the last, counting a hover at every stop.
+     * @return the estimated moves
+     */
+    private double estimateMoves()
+    {
+        double moves = stops.size();
+        for (int i = 1; i < stops.size(); i++)
+        {
+            moves += stops.get(i - 1).getLocation().distanceTo(stops.get(i).getLocation()) / LongLat.CLOSE_DISTANCE;
+        }
+        return moves;
+    }
+
+    /**
+     * Retrieves the orders carried on the trip.
+     * @return the orders
+     */
+    public List<Order> getOrders() { return orders; }
+
+    /**
+     * Retrieves the stops of the trip, in the order they are visited.
+     * @return the stops
+     */
+    public ArrayList<Stop> getStops() { return stops; }
+
+    /**
+     * Retrieves the location of the first stop.
+     * @return the location
+     */
+    public LongLat getStart() { return stops.get(0).getLocation(); }
+
+    /**
+     * Retrieves the location of the last stop.
+     * @return the location
+     */
+    public LongLat getEnd() { return stops.get(stops.size() - 1).getLocation(); }
+
+    /**
+     * Retrieves a label for the trip, made of the order numbers of its orders.
+     * @return the order numbers, joined with "+"
+     */
+    public String getLabel()
+    {
+        StringBuilder label = new StringBuilder();
+        for (Order order : orders)
+        {
+            if (label.length() > 0) { label.append('+'); }
+            label.append(order.getOrderNo());
+        }
+        return label.toString();
+    }
+}
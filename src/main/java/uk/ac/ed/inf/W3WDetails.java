@@ -1,5 +1,11 @@
 package uk.ac.ed.inf;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
 /**
  * Class to parse the details.json file of the what3words locations.
  */
@@ -85,4 +91,66 @@ public class W3WDetails
             this.northeast = northeast;
         }
     }
+
+    /**
+     * Streaming adapter that reads only the co-ordinates from details.json, skipping every other value without binding
+     * it. The other attributes of the returned W3WDetails are left null.
+     */
+    public static class Adapter extends TypeAdapter<W3WDetails>
+    {
+        /**
+         * Writes the co-ordinates of a W3WDetails object, the only part of it this adapter reads back.
+         * @param out the writer
+         * @param details the details to write
+         * @throws IOException if the writer fails
+         */
+        @Override
+        public void write(JsonWriter out, W3WDetails details) throws IOException
+        {
+            out.beginObject();
+            out.name("coordinates").beginObject();
+            out.name("lng").value(details.coordinates.lng);
+            out.name("lat").value(details.coordinates.lat);
+            out.endObject();
+            out.endObject();
+        }
+
+        /**
+         * Reads the co-ordinates from a details.json object.
+         * @param in the reader, positioned at the start of the object
+         * @return a W3WDetails object holding only the co-ordinates
+         * @throws IOException if the reader fails or the co-ordinates are missing
+         */
+        @Override
+        public W3WDetails read(JsonReader in) throws IOException
+        {
+            double lng = Double.NaN;
+            double lat = Double.NaN;
+
+            in.beginObject();
+            while (in.hasNext())
+            {
+                if (!in.nextName().equals("coordinates"))
+                {
+                    in.skipValue();
+                    continue;
+                }
+                in.beginObject();
+                while (in.hasNext())
+                {
+                    String name = in.nextName();
+                    if (name.equals("lng")) { lng = in.nextDouble(); }
+                    else if (name.equals("lat")) { lat = in.nextDouble(); }
+                    else { in.skipValue(); }
+                }
+                in.endObject();
+            }
+            in.endObject();
+
+            if (Double.isNaN(lng) || Double.isNaN(lat)) { throw new IOException("details.json has no coordinates"); }
+            W3WDetails details = new W3WDetails(null, null, null, null, null, null, null);
+            details.coordinates = details.new LngLat(lng, lat);
+            return details;
+        }
+    }
 }
@@ -1,26 +1,100 @@
 package uk.ac.ed.inf;
 
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
 
+import java.io.*;
 import java.lang.reflect.Type;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 /**
  * Class to handle all direct interaction with the web server.
+ *
+ * Every request has a timeout. A request that times out, fails to connect or is answered with 429 or a 5xx status is
+ * retried a bounded number of times, after an exponentially growing delay with random jitter. With hedging enabled,
+ * a duplicate of each attempt is sent if it has not been answered within the 95th percentile of recent response times,
+ * and the first usable answer wins. Requests that fail for good raise a WebRequestException rather than ending the
+ * program. These can be set with system properties: ilp.http.timeoutMillis (5000 by default), ilp.http.retries (2 by
+ * default), ilp.http.backoffMillis (100 by default), ilp.http.hedge (false by default) and ilp.http.hedgeDelayMillis
+ * (the hedging delay used until enough response times are known, 50 by default).
  */
 public class WebClient
 {
     private static final HttpClient CLIENT = HttpClient.newHttpClient();
+    private static final AtomicLong REQUEST_COUNT = new AtomicLong();
+    // shared Gson instance, with streaming adapters that read only the fields this program uses
+    public static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(W3WDetails.class, new W3WDetails.Adapter())
+            .registerTypeAdapter(Shop.class, new Shop.Adapter())
+            .create();
     private final String MACHINE;
     private final String PORT;
-    private final String CONNECTION_ERROR_MESSAGE =
+    public static final String CONNECTION_ERROR_MESSAGE =
             "Web server connection failed. Check server is running and port number is correct.";
+    // directory holding cached response bodies, their validators and the objects parsed from them
+    private static final Path CACHE_DIRECTORY = Paths.get(System.getProperty("ilp.cacheDir", ".ilp-cache"));
+    private static final long TIMEOUT_MILLIS = Long.getLong("ilp.http.timeoutMillis", 5000);
+    private static final int MAX_RETRIES = Integer.getInteger("ilp.http.retries", 2);
+    private static final long BACKOFF_MILLIS = Long.getLong("ilp.http.backoffMillis", 100);
+    private static final boolean HEDGE = Boolean.getBoolean("ilp.http.hedge");
+    private static final long DEFAULT_HEDGE_DELAY_MILLIS = Long.getLong("ilp.http.hedgeDelayMillis", 50);
+    // recent response times in nanoseconds, from which the hedging delay is taken once there are enough of them
+    private static final long[] LATENCIES = new long[256];
+    private static final int MINIMUM_LATENCY_SAMPLES = 20;
+    private static int latencyCount;
+
+    /**
+     * Class to hold a response body returned through the cache, together with whether the server reported that it was
+     * unchanged since it was cached.
+     */
+    public static class CachedResponse
+    {
+        private final String body;
+        private final boolean notModified;
+
+        /**
+         * Class constructor. Simply assigns the body and whether it was unchanged.
+         * @param body the response body
+         * @param notModified true if the server answered 304 Not Modified and the body came from the cache
+         */
+        public CachedResponse(String body, boolean notModified)
+        {
+            this.body = body;
+            this.notModified = notModified;
+        }
+
+        /**
+         * Retrieves the response body.
+         * @return the body
+         */
+        public String getBody() { return body; }
+
+        /**
+         * Retrieves whether the body came from the cache.
+         * @return true if the server reported the resource as unchanged
+         */
+        public boolean isNotModified() { return notModified; }
+    }
 
     /**
      * Class constructor. Simply sets the values of the machine and port on which the web server is running.
@@ -37,36 +111,338 @@ public class WebClient
     {
         return HttpRequest.newBuilder()
                 .uri(URI.create("http://" + MACHINE + ":"+ PORT + resource))
+                .timeout(Duration.ofMillis(TIMEOUT_MILLIS))
                 .build();
     }
 
-    public String getStringResponse(HttpRequest request)
+    /**
+     * Sends a request and waits for the body of its response.
+     * @param request the request
+     * @return the response body
+     * @throws WebRequestException if the request fails for good or is not answered with 200 OK
+     */
+    public String getStringResponse(HttpRequest request) { return await(getStringResponseAsync(request)); }
+
+    /**
+     * Sends a request without waiting for its response.
+     * @param request the request
+     * @return a future of the response body, which fails with a WebRequestException if the request fails for good or
+     * is not answered with 200 OK
+     */
+    public CompletableFuture<String> getStringResponseAsync(HttpRequest request)
+    {
+        return sendAsync(request).thenApply(response ->
+        {
+            if (response.statusCode() != 200) { throw new WebRequestException(request.uri(), response.statusCode()); }
+            return response.body();
+        });
+    }
+
+    /**
+     * Sends a request, retrying it while it fails with a retryable error.
+     * @param request the request
+     * @return a future of the first answer with a status that is not retried, or of the last answer once the retries
+     * are used up. It fails with a WebRequestException if the last attempt was not answered at all
+     */
+    private CompletableFuture<HttpResponse<String>> sendAsync(HttpRequest request)
     {
-        try {
-            HttpResponse<String> response = CLIENT.send(request, BodyHandlers.ofString());
-            if (response.statusCode() != 200) {
-                System.err.println("HTTP request failed with status code: " + response.statusCode());
-                System.exit(1);
-            } else {
-                return response.body();
+        return sendAttempt(request, 0);
+    }
+
+    /**
+     * Makes one attempt at a request, hedged if hedging is enabled, and schedules the next attempt if it fails with a
+     * retryable error.
+     * @param request the request
+     * @param retry the number of attempts already made
+     * @return a future of the answer, as described in sendAsync
+     */
+    private CompletableFuture<HttpResponse<String>> sendAttempt(HttpRequest request, int retry)
+    {
+        CompletableFuture<HttpResponse<String>> attempt = HEDGE ? sendHedged(request) : sendOnce(request);
+        return attempt.handle((response, error) ->
+        {
+            if (error == null && !isRetryable(response.statusCode()))
+            {
+                return CompletableFuture.completedFuture(response);
             }
-        } catch (Exception e)
+            if (retry >= MAX_RETRIES)
+            {
+                return error == null ? CompletableFuture.completedFuture(response) :
+                        CompletableFuture.<HttpResponse<String>>failedFuture(
+                                new WebRequestException(request.uri(), unwrap(error)));
+            }
+            // exponential backoff, with half of each delay chosen at random so that clients do not retry in step
+            long backoff = BACKOFF_MILLIS << retry;
+            long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+            return CompletableFuture.runAsync(() -> { },
+                    CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS))
+                    .thenCompose(v -> sendAttempt(request, retry + 1));
+        }).thenCompose(future -> future);
+    }
+
+    /**
+     * Sends a request once, recording its response time if it is answered.
+     * @param request the request
+     * @return a future of the answer, which fails if there is none within the timeout
+     */
+    private CompletableFuture<HttpResponse<String>> sendOnce(HttpRequest request)
+    {
+        REQUEST_COUNT.incrementAndGet();
+        long start = System.nanoTime();
+        return CLIENT.sendAsync(request, BodyHandlers.ofString())
+                .orTimeout(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .thenApply(response ->
+                {
+                    recordLatency(System.nanoTime() - start);
+                    return response;
+                });
+    }
+
+    /**
+     * Sends a request, and sends a duplicate of it if it has not been answered within the hedging delay. The first
+     * usable answer from either is taken. If the original fails before the delay, no duplicate is sent and the failure
+     * is left to the retries.
+     * @param request the request
+     * @return a future of the first usable answer, or of the last failure if neither is usable
+     */
+    private CompletableFuture<HttpResponse<String>> sendHedged(HttpRequest request)
+    {
+        CompletableFuture<HttpResponse<String>> result = new CompletableFuture<>();
+        Object lock = new Object();
+        int[] outstanding = {1};
+
+        BiConsumer<HttpResponse<String>, Throwable> settle = (response, error) ->
+        {
+            synchronized (lock)
+            {
+                outstanding[0]--;
+                if (error == null && !isRetryable(response.statusCode())) { result.complete(response); }
+                else if (outstanding[0] == 0)
+                {
+                    if (error != null) { result.completeExceptionally(error); }
+                    else { result.complete(response); }
+                }
+            }
+        };
+
+        sendOnce(request).whenComplete(settle);
+        CompletableFuture.delayedExecutor(hedgeDelayMillis(), TimeUnit.MILLISECONDS).execute(() ->
         {
-            System.err.println(CONNECTION_ERROR_MESSAGE);
-            e.printStackTrace();
-            System.exit(1);
+            synchronized (lock)
+            {
+                if (result.isDone()) { return; }
+                outstanding[0]++;
+            }
+            sendOnce(request).whenComplete(settle);
+        });
+        return result;
+    }
+
+    /**
+     * Returns whether an answer with the given status is worth retrying.
+     * @param statusCode the HTTP status code
+     * @return true for 429 Too Many Requests and every 5xx status
+     */
+    private static boolean isRetryable(int statusCode) { return statusCode == 429 || statusCode >= 500; }
+
+    /**
+     * Records the response time of an answered request.
+     * @param nanos the response time in nanoseconds
+     */
+    private static synchronized void recordLatency(long nanos)
+    {
+        LATENCIES[latencyCount % LATENCIES.length] = nanos;
+        latencyCount++;
+    }
+
+    /**
+     * Calculates the hedging delay: the 95th percentile of the recent response times, or the default delay until
+     * enough of them are known.
+     * @return the delay in milliseconds
+     */
+    private static synchronized long hedgeDelayMillis()
+    {
+        if (latencyCount < MINIMUM_LATENCY_SAMPLES) { return DEFAULT_HEDGE_DELAY_MILLIS; }
+        long[] recent = Arrays.copyOf(LATENCIES, Math.min(latencyCount, LATENCIES.length));
+        Arrays.sort(recent);
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(recent[(int)Math.ceil(0.95 * recent.length) - 1]));
+    }
+
+    /**
+     * Waits for a future of a request, rethrowing its failure as a WebRequestException.
+     * @param future the future
+     * @param <T> the type of the result
+     * @return the result
+     * @throws WebRequestException if the future failed
+     */
+    private static <T> T await(CompletableFuture<T> future)
+    {
+        try
+        {
+            return future.join();
+        } catch (CompletionException e)
+        {
+            if (e.getCause() instanceof WebRequestException) { throw (WebRequestException)e.getCause(); }
+            throw e;
         }
-        assert false;
-        return null;
     }
 
-    public ArrayList<Shop> getMenus()
+    /**
+     * Removes the CompletionException wrapped around the failure of a dependent future.
+     * @param error the failure
+     * @return the underlying failure
+     */
+    private static Throwable unwrap(Throwable error)
     {
-        HttpRequest request = buildServerRequest("/menus/menus.json");
-        String response = getStringResponse(request);
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
 
-        Type listType = new TypeToken<ArrayList<Shop>>() {}.getType();
+    /**
+     * Retrieves a resource through the local response cache. If the resource has been cached before, the request is
+     * sent with the cached ETag and Last-Modified values, and a 304 Not Modified answer is served from the cache.
+     * @param resource the path of the resource on the web server
+     * @return the response body, and whether it came from the cache
+     * @throws WebRequestException if the request fails for good, or is answered with neither 200 OK nor a usable 304
+     */
+    public CachedResponse getCachedResponse(String resource)
+    {
+        Path bodyFile = cacheFile(resource, ".body");
+        Path metaFile = cacheFile(resource, ".meta");
+        Properties validators = new Properties();
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(URI.create("http://" + MACHINE + ":" + PORT + resource))
+                .timeout(Duration.ofMillis(TIMEOUT_MILLIS));
+        if (Files.exists(bodyFile) && Files.exists(metaFile))
+        {
+            try (Reader reader = Files.newBufferedReader(metaFile, StandardCharsets.UTF_8))
+            {
+                validators.load(reader);
+                if (validators.containsKey("ETag")) { builder.header("If-None-Match", validators.getProperty("ETag")); }
+                if (validators.containsKey("Last-Modified"))
+                {
+                    builder.header("If-Modified-Since", validators.getProperty("Last-Modified"));
+                }
+            } catch (IOException e)
+            {
+                validators.clear();
+            }
+        }
+
+        HttpRequest request = builder.build();
+        HttpResponse<String> response = await(sendAsync(request));
+        if (response.statusCode() == 304 && !validators.isEmpty())
+        {
+            try
+            {
+                return new CachedResponse(Files.readString(bodyFile, StandardCharsets.UTF_8), true);
+            } catch (IOException e)
+            {
+                throw new WebRequestException(request.uri(), e);
+            }
+        }
+        if (response.statusCode() != 200) { throw new WebRequestException(request.uri(), response.statusCode()); }
+
+        Properties newValidators = new Properties();
+        response.headers().firstValue("ETag").ifPresent(etag -> newValidators.setProperty("ETag", etag));
+        response.headers().firstValue("Last-Modified")
+                .ifPresent(modified -> newValidators.setProperty("Last-Modified", modified));
+        storeInCache(resource, response.body(), newValidators);
+        return new CachedResponse(response.body(), false);
+    }
+
+    /**
+     * Retrieves a resource through the local response cache and parses it. The parsed object is serialized next to the
+     * cached body, so when the server reports the resource as unchanged it is deserialized instead of parsed again.
+     * @param resource the path of the resource on the web server
+     * @param parser the function that parses the response body
+     * @param <T> the type of the parsed object
+     * @return the parsed object
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Serializable> T getParsed(String resource, Function<String, T> parser)
+    {
+        CachedResponse response = getCachedResponse(resource);
+        Path parsedFile = cacheFile(resource, ".parsed");
+
+        if (response.isNotModified() && Files.exists(parsedFile))
+        {
+            try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(parsedFile))))
+            {
+                return (T)in.readObject();
+            } catch (IOException | ClassNotFoundException | ClassCastException e)
+            {
+                // a stale or unreadable parsed object is simply rebuilt from the body
+            }
+        }
 
-        return new Gson().fromJson(response, listType);
+        T parsed = parser.apply(response.getBody());
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(parsedFile))))
+        {
+            out.writeObject(parsed);
+        } catch (IOException e)
+        {
+            System.err.println("Could not cache parsed " + resource);
+        }
+        return parsed;
     }
+
+    /**
+     * Writes a response body and its validators to the cache. A resource without any validators cannot be requested
+     * conditionally, so only its body is kept. Failing to write the cache is reported but does not stop the run.
+     * @param resource the path of the resource on the web server
+     * @param body the response body
+     * @param validators the ETag and Last-Modified values sent with the response
+     */
+    private void storeInCache(String resource, String body, Properties validators)
+    {
+        try
+        {
+            Files.createDirectories(CACHE_DIRECTORY);
+            Files.writeString(cacheFile(resource, ".body"), body, StandardCharsets.UTF_8);
+            Files.deleteIfExists(cacheFile(resource, ".parsed"));
+            Path metaFile = cacheFile(resource, ".meta");
+            if (validators.isEmpty())
+            {
+                Files.deleteIfExists(metaFile);
+                return;
+            }
+            try (Writer writer = Files.newBufferedWriter(metaFile, StandardCharsets.UTF_8))
+            {
+                validators.store(writer, resource);
+            }
+        } catch (IOException e)
+        {
+            System.err.println("Could not cache " + resource);
+        }
+    }
+
+    /**
+     * Builds the path of a cache file for a resource.
+     * @param resource the path of the resource on the web server
+     * @param extension the extension identifying the kind of cache file
+     * @return the path of the cache file
+     */
+    private Path cacheFile(String resource, String extension)
+    {
+        return CACHE_DIRECTORY.resolve(MACHINE + "_" + PORT + resource.replaceAll("[^A-Za-z0-9.-]", "_") + extension);
+    }
+
+    /**
+     * Retrieves menus.json and parses it into Shop objects. The response is cached, so unchanged menus are deserialized
+     * rather than parsed again.
+     * @return the shops and their menus
+     */
+    public ArrayList<Shop> getMenus()
+    {
+        Type listType = new TypeToken<ArrayList<Shop>>() {}.getType();
+        return getParsed("/menus/menus.json", response -> GSON.<ArrayList<Shop>>fromJson(response, listType));
+    }
+
+    /**
+     * Retrieves the number of HTTP requests sent to the web server so far by all web clients, including requests that
+     * were answered from the response cache.
+     * @return the request count
+     */
+    public static long getRequestCount() { return REQUEST_COUNT.get(); }
 }
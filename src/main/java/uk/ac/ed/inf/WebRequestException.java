@@ -0,0 +1,43 @@
+package uk.ac.ed.inf;
+
+import java.net.URI;
+
+/**
+ * Exception thrown when a request to the web server fails for good: it kept timing out or failing to connect after
+ * every retry, or the server answered with an error status.
+ */
+public class WebRequestException extends RuntimeException
+{
+    private static final long serialVersionUID = 1L;
+
+    public static final int NO_STATUS = -1;
+    private final int statusCode;
+
+    /**
+     * Class constructor for a request that was answered with an error status.
+     * @param uri the requested URI
+     * @param statusCode the HTTP status code of the last answer
+     */
+    public WebRequestException(URI uri, int statusCode)
+    {
+        super("HTTP request for " + uri + " failed with status code: " + statusCode);
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * Class constructor for a request that was never answered.
+     * @param uri the requested URI
+     * @param cause the reason the last attempt failed
+     */
+    public WebRequestException(URI uri, Throwable cause)
+    {
+        super("HTTP request for " + uri + " failed: " + cause, cause);
+        this.statusCode = NO_STATUS;
+    }
+
+    /**
+     * Retrieves the status code of the last answer.
+     * @return the status code, or NO_STATUS if the request was never answered
+     */
+    public int getStatusCode() { return statusCode; }
+}
@@ -0,0 +1,255 @@
+package uk.ac.ed.inf;
+
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.Polygon;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Class for the world snapshot file, which holds all the static inputs of a run in one versioned binary file: the
+ * no-fly-zone edge table, the landmarks, and the shops with their menus and co-ordinates. Loading a snapshot
+ * memory-maps the file and checks it against the CRC32 checksum in its header, replacing the dozens of HTTP calls that
+ * would otherwise be needed before planning can start.
+ *
+ * The file is a header (magic, version, payload length, payload checksum) followed by the payload sections in the order
+ * listed above. All values are big-endian and strings are a two-byte length followed by UTF-8 bytes.
+ */
+public class WorldSnapshot
+{
+    private static final int MAGIC = 0x494C5057; // "ILPW"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 8;
+
+    private final ArrayList<Polygon> noFlyZones;
+    private final ArrayList<LongLat> landmarks;
+    private final ArrayList<Shop> shops;
+    private final ArrayList<LongLat> shopLocations;
+
+    /**
+     * Class constructor. Simply assigns the contents of the snapshot.
+     * @param noFlyZones the no-fly-zones
+     * @param landmarks the landmarks
+     * @param shops the shops and their menus
+     * @param shopLocations the co-ordinates of each shop, in the same order as the shops
+     */
+    private WorldSnapshot(ArrayList<Polygon> noFlyZones, ArrayList<LongLat> landmarks, ArrayList<Shop> shops,
+                          ArrayList<LongLat> shopLocations)
+    {
+        this.noFlyZones = noFlyZones;
+        this.landmarks = landmarks;
+        this.shops = shops;
+        this.shopLocations = shopLocations;
+    }
+
+    /**
+     * Writes a snapshot file from inputs that have been fetched from the web server.
+     * @param filename the name of the file to write
+     * @param noFlyZones the no-fly-zones
+     * @param landmarks the landmarks
+     * @param shops the shops and their menus
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(String filename, List<Polygon> noFlyZones, List<LongLat> landmarks, List<Shop> shops)
+            throws IOException
+    {
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(payloadBytes);
+
+        // edge table: the outline of every zone, where consecutive vertices form an edge
+        payload.writeInt(noFlyZones.size());
+        for (Polygon zone : noFlyZones)
+        {
+            List<Point> outline = zone.coordinates().get(0);
+            payload.writeInt(outline.size());
+            for (Point vertex : outline)
+            {
+                payload.writeDouble(vertex.longitude());
+                payload.writeDouble(vertex.latitude());
+            }
+        }
+
+        payload.writeInt(landmarks.size());
+        for (LongLat landmark : landmarks)
+        {
+            payload.writeDouble(landmark.getLongitude());
+            payload.writeDouble(landmark.getLatitude());
+        }
+
+        payload.writeInt(shops.size());
+        for (Shop shop : shops)
+        {
+            writeString(payload, shop.getName());
+            writeString(payload, shop.getLocation());
+            LongLat location = LocationConversion.w3wToLongLat(shop.getLocation());
+            payload.writeDouble(location.getLongitude());
+            payload.writeDouble(location.getLatitude());
+
+            ArrayList<String> itemNames = shop.getItemNames();
+            payload.writeInt(itemNames.size());
+            for (String itemName : itemNames)
+            {
+                writeString(payload, itemName);
+                payload.writeInt(shop.getPence(itemName));
+            }
+        }
+
+        payload.flush();
+
+        byte[] payloadArray = payloadBytes.toByteArray();
+        CRC32 checksum = new CRC32();
+        checksum.update(payloadArray);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(payloadArray.length).putLong(checksum.getValue()).flip();
+
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+        {
+            channel.write(header);
+            channel.write(ByteBuffer.wrap(payloadArray));
+        }
+    }
+
+    /**
+     * Memory-maps a snapshot file and loads it, after checking its magic number, version and checksum.
+     * @param filename the name of the snapshot file
+     * @return the snapshot
+     * @throws IOException if the file cannot be read, or is not a valid snapshot of this version
+     */
+    public static WorldSnapshot load(String filename) throws IOException
+    {
+        MappedByteBuffer file;
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ))
+        {
+            file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (file.capacity() < HEADER_SIZE || file.getInt() != MAGIC) { throw new IOException("Not a world snapshot"); }
+        int version = file.getInt();
+        if (version != VERSION) { throw new IOException("Unsupported world snapshot version: " + version); }
+        int payloadLength = file.getInt();
+        long expectedChecksum = file.getLong();
+        if (file.remaining() != payloadLength) { throw new IOException("World snapshot is truncated"); }
+
+        ByteBuffer payload = file.slice();
+        CRC32 checksum = new CRC32();
+        checksum.update(payload.duplicate());
+        if (checksum.getValue() != expectedChecksum) { throw new IOException("World snapshot checksum mismatch"); }
+
+        ArrayList<Polygon> noFlyZones = new ArrayList<>();
+        int zoneCount = payload.getInt();
+        for (int z = 0; z < zoneCount; z++)
+        {
+            int vertexCount = payload.getInt();
+            ArrayList<Point> outline = new ArrayList<>(vertexCount);
+            for (int v = 0; v < vertexCount; v++)
+            {
+                outline.add(Point.fromLngLat(payload.getDouble(), payload.getDouble()));
+            }
+            noFlyZones.add(Polygon.fromLngLats(List.of(outline)));
+        }
+
+        ArrayList<LongLat> landmarks = new ArrayList<>();
+        int landmarkCount = payload.getInt();
+        for (int l = 0; l < landmarkCount; l++)
+        {
+            landmarks.add(new LongLat(payload.getDouble(), payload.getDouble()));
+        }
+
+        ArrayList<Shop> shops = new ArrayList<>();
+        ArrayList<LongLat> shopLocations = new ArrayList<>();
+        int shopCount = payload.getInt();
+        for (int s = 0; s < shopCount; s++)
+        {
+            String name = readString(payload);
+            String location = readString(payload);
+            shopLocations.add(new LongLat(payload.getDouble(), payload.getDouble()));
+
+            int itemCount = payload.getInt();
+            ArrayList<String> itemNames = new ArrayList<>(itemCount);
+            ArrayList<Integer> itemPence = new ArrayList<>(itemCount);
+            for (int i = 0; i < itemCount; i++)
+            {
+                itemNames.add(readString(payload));
+                itemPence.add(payload.getInt());
+            }
+            shops.add(Shop.fromMenu(name, location, itemNames, itemPence));
+        }
+
+        return new WorldSnapshot(noFlyZones, landmarks, shops, shopLocations);
+    }
+
+    /**
+     * Makes the co-ordinates of every shop known to LocationConversion, so that resolving pickup locations needs no
+     * requests to the web server.
+     */
+    public void preloadShopLocations()
+    {
+        for (int s = 0; s < shops.size(); s++)
+        {
+            LocationConversion.preloadLocation(shops.get(s).getLocation(), shopLocations.get(s));
+        }
+    }
+
+    /**
+     * Writes a string as a two-byte length followed by its UTF-8 bytes.
+     * @param out the stream to write to
+     * @param str the string
+     * @throws IOException if the stream cannot be written
+     */
+    private static void writeString(DataOutputStream out, String str) throws IOException
+    {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by writeString.
+     * @param in the buffer to read from
+     * @return the string
+     */
+    private static String readString(ByteBuffer in)
+    {
+        byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Retrieves the no-fly-zones.
+     * @return the no-fly-zones
+     */
+    public ArrayList<Polygon> getNoFlyZones() { return noFlyZones; }
+
+    /**
+     * Retrieves the landmarks.
+     * @return the landmarks
+     */
+    public ArrayList<LongLat> getLandmarks() { return landmarks; }
+
+    /**
+     * Retrieves the shops and their menus.
+     * @return the shops
+     */
+    public ArrayList<Shop> getShops() { return shops; }
+
+    /**
+     * Checks whether a snapshot file exists.
+     * @param filename the name of the file
+     * @return true if the file exists
+     */
+    public static boolean exists(String filename) { return Files.exists(Paths.get(filename)); }
+}
@@ -0,0 +1,122 @@
+package uk.ac.ed.inf;
+
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.Polygon;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Class that generates synthetic sets of no-fly-zones inside the drone confinement area, for measuring how the planner
+ * scales with the number and complexity of the zones. Each zone is a star-shaped polygon around a random centre, with
+ * its vertices at evenly spread, jittered angles and random distances from the centre, so zones with many vertices are
+ * jagged and mostly non-convex. Zones may overlap each other, but never cover Appleton Tower.
+ *
+ * The density is the fraction of the confinement area that the zones would cover if they did not overlap, and is split
+ * evenly between them. The same seed always generates the same zones.
+ */
+public class ZoneGenerator
+{
+    // the clearance kept between every zone and Appleton Tower, so every flight can start and end
+    private static final double HOME_CLEARANCE = 2 * LongLat.CLOSE_DISTANCE;
+    private static final double MINIMUM_RADIUS_FRACTION = 0.5;
+    private static final int MAX_PLACEMENT_ATTEMPTS = 100;
+
+    private final Random random;
+
+    /**
+     * Class constructor.
+     * @param seed the seed of the generator
+     */
+    public ZoneGenerator(long seed) { this.random = new Random(seed); }
+
+    /**
+     * Generates a set of no-fly-zones.
+     * @param polygonCount the number of zones
+     * @param vertexCount the number of vertices of each zone, at least 3
+     * @param density the fraction of the confinement area the zones cover between them, greater than 0 and below 1
+     * @return the zones, as closed GeoJSON polygons
+     */
+    public ArrayList<Polygon> generate(int polygonCount, int vertexCount, double density)
+    {
+        assert vertexCount >= 3 && density > 0 && density < 1;
+        double width = LongLat.MAXIMUM_LONGITUDE - LongLat.MINIMUM_LONGITUDE;
+        double height = LongLat.MAXIMUM_LATITUDE - LongLat.MINIMUM_LATITUDE;
+        double zoneArea = width * height * density / polygonCount;
+
+        ArrayList<Polygon> zones = new ArrayList<>();
+        for (int z = 0; z < polygonCount; z++)
+        {
+            double[] angles = new double[vertexCount];
+            double[] radii = new double[vertexCount];
+            double step = 2 * Math.PI / vertexCount;
+            for (int v = 0; v < vertexCount; v++)
+            {
+                angles[v] = (v + 0.8 * random.nextDouble()) * step;
+                radii[v] = MINIMUM_RADIUS_FRACTION + (1 - MINIMUM_RADIUS_FRACTION) * random.nextDouble();
+            }
+
+            // scale the radii so the zone has exactly its share of the area
+            double scale = Math.sqrt(zoneArea / starArea(angles, radii));
+            double maxRadius = 0;
+            for (int v = 0; v < vertexCount; v++)
+            {
+                radii[v] *= scale;
+                maxRadius = Math.max(maxRadius, radii[v]);
+            }
+
+            LongLat centre = placeCentre(maxRadius, width, height);
+            List<Point> ring = new ArrayList<>();
+            for (int v = 0; v < vertexCount; v++)
+            {
+                ring.add(Point.fromLngLat(centre.getLongitude() + radii[v] * Math.cos(angles[v]),
+                        centre.getLatitude() + radii[v] * Math.sin(angles[v])));
+            }
+            ring.add(ring.get(0));
+            zones.add(Polygon.fromLngLats(List.of(ring)));
+        }
+        return zones;
+    }
+
+    /**
+     * Chooses the centre of a zone, keeping the zone clear of Appleton Tower and, where the zone fits, inside the
+     * confinement area.
+     * @param maxRadius the largest distance from the centre to a vertex of the zone
+     * @param width the width of the confinement area
+     * @param height the height of the confinement area
+     * @return the centre
+     */
+    private LongLat placeCentre(double maxRadius, double width, double height)
+    {
+        double marginX = Math.min(maxRadius, width / 2);
+        double marginY = Math.min(maxRadius, height / 2);
+        LongLat centre = null;
+        for (int attempt = 0; attempt < MAX_PLACEMENT_ATTEMPTS; attempt++)
+        {
+            centre = new LongLat(
+                    LongLat.MINIMUM_LONGITUDE + marginX + (width - 2 * marginX) * random.nextDouble(),
+                    LongLat.MINIMUM_LATITUDE + marginY + (height - 2 * marginY) * random.nextDouble());
+            if (centre.distanceTo(Flight.APPLETON_TOWER) > maxRadius + HOME_CLEARANCE) { return centre; }
+        }
+        throw new IllegalArgumentException("Zones of radius " + maxRadius + " cannot be placed clear of Appleton Tower");
+    }
+
+    /**
+     * Calculates the area of a star-shaped polygon from the angles and distances of its vertices around its centre.
+     * @param angles the angles of the vertices, in increasing order
+     * @param radii the distances of the vertices from the centre
+     * @return the area
+     */
+    private static double starArea(double[] angles, double[] radii)
+    {
+        double area = 0;
+        for (int v = 0; v < angles.length; v++)
+        {
+            int next = (v + 1) % angles.length;
+            double between = next == 0 ? angles[0] + 2 * Math.PI - angles[v] : angles[next] - angles[v];
+            area += 0.5 * radii[v] * radii[next] * Math.sin(between);
+        }
+        return area;
+    }
+}
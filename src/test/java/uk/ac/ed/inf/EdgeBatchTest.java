@@ -0,0 +1,197 @@
+package uk.ac.ed.inf;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that EdgeBatch.crossedBy gives the same answers as testing each edge in turn with Airspace.linesIntersect.
+ */
+public class EdgeBatchTest
+{
+    private static final long SEED = 0x5EED;
+    // not a multiple of the block size, so the padding edges are exercised as well
+    private static final int EDGE_COUNT = 37;
+    private static final int MOVE_COUNT = 20000;
+
+    /**
+     * A set of edges, held both as an EdgeBatch and as the arrays the reference loop runs over.
+     */
+    private static class Edges
+    {
+        private final double[] startLongs;
+        private final double[] startLats;
+        private final double[] endLongs;
+        private final double[] endLats;
+        private final EdgeBatch batch;
+
+        Edges(double[] startLongs, double[] startLats, double[] endLongs, double[] endLats)
+        {
+            this.startLongs = startLongs;
+            this.startLats = startLats;
+            this.endLongs = endLongs;
+            this.endLats = endLats;
+            batch = new EdgeBatch(startLongs, startLats, endLongs, endLats);
+        }
+
+        /**
+         * The reference answer: every edge tested in turn with linesIntersect, as Airspace does with
+         * -Dilp.edgeKernel=reference.
+         */
+        boolean crossedByReference(LongLat point1, LongLat point2)
+        {
+            for (int e = 0; e < startLongs.length; e++)
+            {
+                if (Airspace.linesIntersect(point1, point2,
+                        new LongLat(startLongs[e], startLats[e]),
+                        new LongLat(endLongs[e], endLats[e])))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Builds edges with random end points. Each edge is made vertical or horizontal with the given probability.
+     */
+    private static Edges randomEdges(Random random, double axisAlignedShare)
+    {
+        double[] startLongs = new double[EDGE_COUNT];
+        double[] startLats = new double[EDGE_COUNT];
+        double[] endLongs = new double[EDGE_COUNT];
+        double[] endLats = new double[EDGE_COUNT];
+        for (int e = 0; e < EDGE_COUNT; e++)
+        {
+            LongLat[] edge = randomSegment(random, axisAlignedShare);
+            startLongs[e] = edge[0].getLongitude();
+            startLats[e] = edge[0].getLatitude();
+            endLongs[e] = edge[1].getLongitude();
+            endLats[e] = edge[1].getLatitude();
+        }
+        return new Edges(startLongs, startLats, endLongs, endLats);
+    }
+
+    /**
+     * Builds a random segment within the confinement area, made vertical or horizontal with the given probability.
+     */
+    private static LongLat[] randomSegment(Random random, double axisAlignedShare)
+    {
+        double long1 = randomLongitude(random);
+        double lat1 = randomLatitude(random);
+        double long2 = randomLongitude(random);
+        double lat2 = randomLatitude(random);
+        if (random.nextDouble() < axisAlignedShare)
+        {
+            if (random.nextBoolean()) { long2 = long1; }
+            else { lat2 = lat1; }
+        }
+        return new LongLat[]{new LongLat(long1, lat1), new LongLat(long2, lat2)};
+    }
+
+    private static double randomLongitude(Random random)
+    {
+        return LongLat.MINIMUM_LONGITUDE +
+                random.nextDouble() * (LongLat.MAXIMUM_LONGITUDE - LongLat.MINIMUM_LONGITUDE);
+    }
+
+    private static double randomLatitude(Random random)
+    {
+        return LongLat.MINIMUM_LATITUDE +
+                random.nextDouble() * (LongLat.MAXIMUM_LATITUDE - LongLat.MINIMUM_LATITUDE);
+    }
+
+    /**
+     * Compares the batch with the reference loop for random moves against random edges.
+     */
+    private static void assertMatchesReference(double axisAlignedShare)
+    {
+        Random random = new Random(SEED);
+        for (int set = 0; set < 10; set++)
+        {
+            Edges edges = randomEdges(random, axisAlignedShare);
+            for (int m = 0; m < MOVE_COUNT / 10; m++)
+            {
+                LongLat[] move = randomSegment(random, axisAlignedShare);
+                assertEquals("move " + move[0] + " -> " + move[1],
+                        edges.crossedByReference(move[0], move[1]),
+                        edges.batch.crossedBy(move[0], move[1]));
+            }
+        }
+    }
+
+    @Test
+    public void randomSegmentsMatchReference()
+    {
+        assertMatchesReference(0);
+    }
+
+    @Test
+    public void axisAlignedSegmentsMatchReference()
+    {
+        assertMatchesReference(0.75);
+    }
+
+    @Test
+    public void verticalMoveCrossesSlopedEdgesThatStraddleItsLongitude()
+    {
+        // linesIntersect reports any sloped edge that straddles a vertical move's longitude, wherever it lies
+        Edges edges = new Edges(new double[]{-3.190}, new double[]{55.945}, new double[]{-3.185}, new double[]{55.943});
+        LongLat below = new LongLat(-3.187, 55.9425);
+        LongLat belowToo = new LongLat(-3.187, 55.9428);
+        assertTrue(edges.crossedByReference(below, belowToo));
+        assertTrue(edges.batch.crossedBy(below, belowToo));
+
+        LongLat beside = new LongLat(-3.184, 55.9425);
+        LongLat besideToo = new LongLat(-3.184, 55.946);
+        assertFalse(edges.crossedByReference(beside, besideToo));
+        assertFalse(edges.batch.crossedBy(beside, besideToo));
+    }
+
+    @Test
+    public void verticalMoveNeverCrossesVerticalEdges()
+    {
+        Edges edges = new Edges(new double[]{-3.187}, new double[]{55.943}, new double[]{-3.187}, new double[]{55.945});
+        LongLat start = new LongLat(-3.187, 55.942);
+        LongLat end = new LongLat(-3.187, 55.946);
+        assertFalse(edges.crossedByReference(start, end));
+        assertFalse(edges.batch.crossedBy(start, end));
+    }
+
+    @Test
+    public void slopedMoveCrossesVerticalEdgesWhoseLongitudeItStraddles()
+    {
+        // as with vertical moves, linesIntersect only compares longitudes against a vertical edge
+        Edges edges = new Edges(new double[]{-3.187}, new double[]{55.943}, new double[]{-3.187}, new double[]{55.944});
+        LongLat start = new LongLat(-3.188, 55.945);
+        LongLat end = new LongLat(-3.186, 55.946);
+        assertTrue(edges.crossedByReference(start, end));
+        assertTrue(edges.batch.crossedBy(start, end));
+
+        LongLat besideEnd = new LongLat(-3.1875, 55.946);
+        assertFalse(edges.crossedByReference(start, besideEnd));
+        assertFalse(edges.batch.crossedBy(start, besideEnd));
+    }
+
+    @Test
+    public void touchingEdgesAreNotCrossed()
+    {
+        // the documented difference: an end point lying exactly on the other segment is never a crossing for the
+        // batch, whatever rounding in linesIntersect's gradient arithmetic makes of it
+        Edges edgeEndingOnMove = new Edges(new double[]{1}, new double[]{0}, new double[]{1.5}, new double[]{1});
+        assertFalse(edgeEndingOnMove.batch.crossedBy(new LongLat(0, 0), new LongLat(2, 0)));
+
+        Edges edgeThroughMoveEnd = new Edges(new double[]{0}, new double[]{2}, new double[]{2}, new double[]{0});
+        assertFalse(edgeThroughMoveEnd.batch.crossedBy(new LongLat(0, 0), new LongLat(1, 1)));
+
+        // nudging the end point through the move makes it a proper crossing for both
+        Edges edgeThroughMove = new Edges(new double[]{1}, new double[]{-0.5}, new double[]{1.5}, new double[]{1});
+        assertTrue(edgeThroughMove.crossedByReference(new LongLat(0, 0), new LongLat(2, 0)));
+        assertTrue(edgeThroughMove.batch.crossedBy(new LongLat(0, 0), new LongLat(2, 0)));
+    }
+}
@@ -0,0 +1,152 @@
+package uk.ac.ed.inf;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that a FlightLog read back after being written holds the same flight, to the precision of the fixed point
+ * encoding, and produces the same GeoJSON.
+ */
+public class FlightLogTest
+{
+    private static final long SEED = 0x5EED;
+    private static final double PRECISION = 1E-7;
+    private static final LocalDate DATE = LocalDate.of(2022, 1, 12);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Extends a path by moves at random headings, with a hover every so often.
+     */
+    private static void addMoves(ArrayList<LongLat> path, Random random, int moves)
+    {
+        for (int m = 0; m < moves; m++)
+        {
+            LongLat last = path.get(path.size() - 1);
+            path.add(m % 7 == 3 ? last.nextPosition(LongLat.HOVER_VALUE) : last.nextPosition(10 * random.nextInt(36)));
+        }
+    }
+
+    /**
+     * Builds a flight of three legs. The second ends with the jump straight to the destination the planner makes when
+     * it fails, and the return leg starts with a jump back the other way, so both need residuals of several bytes.
+     */
+    private static List<FlightLog.Leg> flight()
+    {
+        Random random = new Random(SEED);
+        ArrayList<FlightLog.Leg> legs = new ArrayList<>();
+
+        ArrayList<LongLat> first = new ArrayList<>(List.of(Flight.APPLETON_TOWER));
+        addMoves(first, random, 30);
+        legs.add(new FlightLog.Leg("1ad5f1ff", first));
+
+        ArrayList<LongLat> second = new ArrayList<>(List.of(first.get(first.size() - 1)));
+        addMoves(second, random, 12);
+        second.add(new LongLat(-3.1913, 55.9456));
+        second.add(new LongLat(-3.1913, 55.9456));
+        legs.add(new FlightLog.Leg("b8a6a1ee", second));
+
+        ArrayList<LongLat> back = new ArrayList<>(List.of(second.get(second.size() - 1)));
+        back.add(new LongLat(-3.18501, 55.94271));
+        addMoves(back, random, 20);
+        back.add(Flight.APPLETON_TOWER);
+        legs.add(new FlightLog.Leg("return", back));
+        return legs;
+    }
+
+    private static FlightLog roundTrip(FlightLog log) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) { log.write(out); }
+        return FlightLog.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    private static void assertSameFlight(FlightLog expected, FlightLog actual)
+    {
+        assertEquals(expected.getDate(), actual.getDate());
+        assertEquals(expected.getDroneId(), actual.getDroneId());
+        assertEquals(expected.getLegs().size(), actual.getLegs().size());
+        for (int l = 0; l < expected.getLegs().size(); l++)
+        {
+            FlightLog.Leg expectedLeg = expected.getLegs().get(l);
+            FlightLog.Leg actualLeg = actual.getLegs().get(l);
+            assertEquals(expectedLeg.getOrderNo(), actualLeg.getOrderNo());
+            assertEquals(expectedLeg.getPath().size(), actualLeg.getPath().size());
+            for (int i = 0; i < expectedLeg.getPath().size(); i++)
+            {
+                LongLat expectedNode = expectedLeg.getPath().get(i);
+                LongLat actualNode = actualLeg.getPath().get(i);
+                assertEquals("leg " + l + " node " + i, expectedNode.getLongitude(), actualNode.getLongitude(),
+                        PRECISION);
+                assertEquals("leg " + l + " node " + i, expectedNode.getLatitude(), actualNode.getLatitude(),
+                        PRECISION);
+            }
+        }
+        assertEquals(expected.toGeoJSON(), actual.toGeoJSON());
+    }
+
+    @Test
+    public void flightIsReadBackAsWritten() throws IOException
+    {
+        FlightLog log = new FlightLog(DATE, Flight.SINGLE_DRONE_ID, flight());
+        assertSameFlight(log, roundTrip(log));
+    }
+
+    @Test
+    public void droneIdIsReadBack() throws IOException
+    {
+        FlightLog log = new FlightLog(DATE, 3, flight());
+        FlightLog read = roundTrip(log);
+        assertSameFlight(log, read);
+        assertTrue(read.toGeoJSON().contains("\"droneId\":3"));
+    }
+
+    @Test
+    public void readingBackIsStable() throws IOException
+    {
+        // once restored to fixed point precision, a log is written and read back exactly
+        FlightLog read = roundTrip(new FlightLog(DATE, Flight.SINGLE_DRONE_ID, flight()));
+        FlightLog readAgain = roundTrip(read);
+        for (int l = 0; l < read.getLegs().size(); l++)
+        {
+            ArrayList<LongLat> path = read.getLegs().get(l).getPath();
+            for (int i = 0; i < path.size(); i++)
+            {
+                assertEquals(path.get(i).getLongitude(), readAgain.getLegs().get(l).getPath().get(i).getLongitude(), 0);
+                assertEquals(path.get(i).getLatitude(), readAgain.getLegs().get(l).getPath().get(i).getLatitude(), 0);
+            }
+        }
+        assertEquals(read.toGeoJSON(), readAgain.toGeoJSON());
+    }
+
+    @Test
+    public void fileIsReadBackAsWritten() throws IOException
+    {
+        FlightLog log = new FlightLog(DATE, Flight.SINGLE_DRONE_ID, flight());
+        String filename = folder.newFile("flight.bin").getPath();
+        assertTrue(log.writeToFile(filename));
+        assertSameFlight(log, FlightLog.readFromFile(filename));
+    }
+
+    @Test
+    public void emptyFlightIsReadBack() throws IOException
+    {
+        FlightLog log = new FlightLog(DATE, Flight.SINGLE_DRONE_ID, new ArrayList<>());
+        assertSameFlight(log, roundTrip(log));
+    }
+}
@@ -0,0 +1,76 @@
+package uk.ac.ed.inf;
+
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.Polygon;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the check Flight makes, before committing an order, that the drone can still get back to Appleton Tower.
+ */
+public class FlightTest
+{
+    // a long thin wall south of Appleton Tower, which the planner only finds its way around on a long detour
+    private static final Airspace WALL = new Airspace(new ArrayList<>(List.of(Polygon.fromLngLats(List.of(List.of(
+            Point.fromLngLat(-3.1915, 55.9437),
+            Point.fromLngLat(-3.19145, 55.9438),
+            Point.fromLngLat(-3.18505, 55.9438),
+            Point.fromLngLat(-3.1850, 55.9437),
+            Point.fromLngLat(-3.1915, 55.9437)))))));
+    private static final LongLat BEHIND_WALL = new LongLat(-3.185173, 55.943417);
+
+    private static Flight flight() { return new Flight(new ArrayList<>(), WALL, Flight.SINGLE_DRONE_ID); }
+
+    @Test
+    public void returnLongerThanTwiceTheEstimateIsNotAccepted()
+    {
+        int estimate = WALL.getCostToHome().movesHomeFrom(BEHIND_WALL);
+        int planned = flight().planPath(BEHIND_WALL, Flight.APPLETON_TOWER).size() - 1;
+        assertTrue("planned " + planned + ", estimated " + estimate, planned > 2 * estimate + 20);
+
+        // enough moves left for twice the estimate and a margin, but not for the path that would be flown
+        assertFalse(flight().canReturnFrom(BEHIND_WALL, Flight.MAX_MOVE_COUNT - (2 * estimate + 21)));
+        assertTrue(flight().canReturnFrom(BEHIND_WALL, Flight.MAX_MOVE_COUNT - (planned + 2)));
+    }
+
+    @Test
+    public void pointsBeyondTheLowerBoundAreNotAccepted()
+    {
+        int lowerBound = WALL.getCostToHome().movesHomeLowerBound(BEHIND_WALL);
+        assertTrue(lowerBound > 0);
+        assertFalse(flight().canReturnFrom(BEHIND_WALL, Flight.MAX_MOVE_COUNT - lowerBound));
+    }
+
+    @Test
+    public void retracingIsAcceptedWhileLessThanHalfTheBudgetIsFlown()
+    {
+        // whatever the planner would fly, the moves flown so far can be flown back
+        assertTrue(flight().canReturnFrom(BEHIND_WALL, Flight.MAX_MOVE_COUNT / 2 - 1));
+    }
+
+    @Test
+    public void lowerBoundNeverExceedsThePlannedReturn()
+    {
+        CostToHomeField field = WALL.getCostToHome();
+        for (double longitude = LongLat.MINIMUM_LONGITUDE + 0.0003; longitude < LongLat.MAXIMUM_LONGITUDE;
+             longitude += 0.0005)
+        {
+            // only points behind the wall, from where Appleton Tower lies to the north, as the planner cannot handle
+            // headings that round to 360 degrees
+            for (double latitude = LongLat.MINIMUM_LATITUDE + 0.0001; latitude < 55.9436; latitude += 0.0002)
+            {
+                LongLat point = new LongLat(longitude, latitude);
+                int lowerBound = field.movesHomeLowerBound(point);
+                int planned = flight().planPath(point, Flight.APPLETON_TOWER).size() - 1;
+                assertTrue(longitude + "," + latitude, lowerBound != CostToHomeField.UNREACHABLE);
+                assertTrue(longitude + "," + latitude, lowerBound <= planned);
+                assertTrue(longitude + "," + latitude, lowerBound <= field.movesHomeFrom(point));
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package uk.ac.ed.inf;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that none of the moves FreeRunTable.freeMovesFrom counts as free is crossed by an edge, testing each edge in
+ * turn with Airspace.linesIntersect.
+ */
+public class FreeRunTableTest
+{
+    private static final long SEED = 0x5EED;
+    private static final int EDGE_COUNT = 40;
+    // the longest edge, about the size of the no-fly-zones around George Square
+    private static final double EDGE_LENGTH = 0.0008;
+    private static final int RAY_COUNT = 5000;
+
+    /**
+     * A set of edges, held both as a FreeRunTable and as the arrays the reference loop runs over.
+     */
+    private static class Edges
+    {
+        private final double[] startLongs;
+        private final double[] startLats;
+        private final double[] endLongs;
+        private final double[] endLats;
+        private final FreeRunTable table;
+
+        Edges(double[] startLongs, double[] startLats, double[] endLongs, double[] endLats)
+        {
+            this.startLongs = startLongs;
+            this.startLats = startLats;
+            this.endLongs = endLongs;
+            this.endLats = endLats;
+            table = new FreeRunTable(new OccupancyGrid(startLongs, startLats, endLongs, endLats), startLongs, endLongs);
+        }
+
+        /**
+         * The reference answer: every edge tested in turn with linesIntersect.
+         */
+        boolean crossedByReference(LongLat point1, LongLat point2)
+        {
+            for (int e = 0; e < startLongs.length; e++)
+            {
+                if (Airspace.linesIntersect(point1, point2,
+                        new LongLat(startLongs[e], startLats[e]),
+                        new LongLat(endLongs[e], endLats[e])))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Flies the free moves counted from a point at an angle, checking each against the reference.
+         * @return the number of free moves
+         */
+        int assertFreeMovesAreNotCrossed(LongLat start, int angle)
+        {
+            int free = table.freeMovesFrom(start, angle);
+            LongLat position = start;
+            for (int move = 0; move < free; move++)
+            {
+                LongLat next = position.nextPosition(angle);
+                assertFalse("move " + move + " of " + free + " from " + start + " at " + angle,
+                        crossedByReference(position, next));
+                position = next;
+            }
+            return free;
+        }
+    }
+
+    /**
+     * Builds short edges at random places in the confinement area. Each edge is made vertical or horizontal with the
+     * given probability.
+     */
+    private static Edges randomEdges(Random random, double axisAlignedShare)
+    {
+        double[] startLongs = new double[EDGE_COUNT];
+        double[] startLats = new double[EDGE_COUNT];
+        double[] endLongs = new double[EDGE_COUNT];
+        double[] endLats = new double[EDGE_COUNT];
+        for (int e = 0; e < EDGE_COUNT; e++)
+        {
+            startLongs[e] = randomLongitude(random);
+            startLats[e] = randomLatitude(random);
+            endLongs[e] = startLongs[e] + (random.nextDouble() - 0.5) * EDGE_LENGTH;
+            endLats[e] = startLats[e] + (random.nextDouble() - 0.5) * EDGE_LENGTH;
+            if (random.nextDouble() < axisAlignedShare)
+            {
+                if (random.nextBoolean()) { endLongs[e] = startLongs[e]; }
+                else { endLats[e] = startLats[e]; }
+            }
+        }
+        return new Edges(startLongs, startLats, endLongs, endLats);
+    }
+
+    private static double randomLongitude(Random random)
+    {
+        return LongLat.MINIMUM_LONGITUDE +
+                random.nextDouble() * (LongLat.MAXIMUM_LONGITUDE - LongLat.MINIMUM_LONGITUDE);
+    }
+
+    private static double randomLatitude(Random random)
+    {
+        return LongLat.MINIMUM_LATITUDE +
+                random.nextDouble() * (LongLat.MAXIMUM_LATITUDE - LongLat.MINIMUM_LATITUDE);
+    }
+
+    /**
+     * Checks the free moves of rays from random points at every heading, returning the total number of free moves.
+     */
+    private static long assertFreeRaysAreNotCrossed(double axisAlignedShare)
+    {
+        Random random = new Random(SEED);
+        long free = 0;
+        for (int set = 0; set < 5; set++)
+        {
+            Edges edges = randomEdges(random, axisAlignedShare);
+            for (int ray = 0; ray < RAY_COUNT / 5; ray++)
+            {
+                LongLat start = new LongLat(randomLongitude(random), randomLatitude(random));
+                free += edges.assertFreeMovesAreNotCrossed(start, 10 * random.nextInt(36));
+            }
+        }
+        return free;
+    }
+
+    @Test
+    public void freeMovesAreNotCrossed()
+    {
+        assertTrue(assertFreeRaysAreNotCrossed(0) > RAY_COUNT);
+    }
+
+    @Test
+    public void freeMovesAreNotCrossedByAxisAlignedEdges()
+    {
+        assertTrue(assertFreeRaysAreNotCrossed(0.75) > RAY_COUNT);
+    }
+
+    @Test
+    public void verticalMovesAreStoppedBySlopedEdgesThatStraddleTheirLongitude()
+    {
+        // linesIntersect reports any sloped edge that straddles a vertical move's longitude, wherever it lies
+        Edges edges = new Edges(new double[]{-3.19}, new double[]{55.9455}, new double[]{-3.185}, new double[]{55.945});
+        LongLat below = new LongLat(-3.1875, 55.9430);
+        assertTrue(edges.crossedByReference(below, below.nextPosition(90)));
+        assertEquals(0, edges.table.freeMovesFrom(below, 90));
+        assertEquals(0, edges.table.freeMovesFrom(below, 270));
+
+        LongLat beside = new LongLat(-3.1845, 55.9430);
+        assertTrue(edges.assertFreeMovesAreNotCrossed(beside, 90) > 0);
+    }
+
+    @Test
+    public void verticalMovesRunAlongsideVerticalEdges()
+    {
+        Edges edges = new Edges(new double[]{-3.187}, new double[]{55.944}, new double[]{-3.187}, new double[]{55.945});
+        // vertical moves never cross a vertical edge, but the table is conservative within the edge's own column
+        assertTrue(edges.assertFreeMovesAreNotCrossed(new LongLat(-3.1875, 55.9430), 90) > 0);
+        edges.assertFreeMovesAreNotCrossed(new LongLat(-3.187, 55.9430), 90);
+
+        // a sloped move straddling the edge's longitude is crossed however far north it lies
+        LongLat west = new LongLat(-3.18705, 55.9455);
+        assertTrue(edges.crossedByReference(west, west.nextPosition(0)));
+        assertEquals(0, edges.table.freeMovesFrom(west, 0));
+    }
+}
@@ -0,0 +1,108 @@
+package uk.ac.ed.inf;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that LongIntMap gives the same answers as a HashMap as it grows.
+ */
+public class LongIntMapTest
+{
+    private static final long SEED = 0x5EED;
+    // enough keys for the table to be resized many times over
+    private static final int KEY_COUNT = 20000;
+    private static final int MISSING = -1;
+
+    /**
+     * Builds a key: either a random long, or the key of a position on a lattice of nearby points, which the hash has to
+     * spread over the table.
+     */
+    private static long randomKey(Random random)
+    {
+        if (random.nextBoolean()) { return random.nextLong(); }
+        return PositionKey.of(LongLat.MINIMUM_LONGITUDE + random.nextInt(200) * LongLat.CLOSE_DISTANCE,
+                LongLat.MINIMUM_LATITUDE + (random.nextInt(200) - 100) * LongLat.CLOSE_DISTANCE);
+    }
+
+    private static void assertMatches(Map<Long, Integer> expected, LongIntMap map)
+    {
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Long, Integer> entry : expected.entrySet())
+        {
+            assertTrue(map.containsKey(entry.getKey()));
+            assertEquals((int)entry.getValue(), map.get(entry.getKey(), MISSING));
+        }
+    }
+
+    @Test
+    public void putAndGetMatchHashMapAcrossResizes()
+    {
+        Random random = new Random(SEED);
+        Map<Long, Integer> expected = new HashMap<>();
+        LongIntMap map = new LongIntMap();
+        for (int k = 0; k < KEY_COUNT; k++)
+        {
+            long key = randomKey(random);
+            expected.put(key, k);
+            map.put(key, k);
+            if (Integer.bitCount(k) == 1) { assertMatches(expected, map); }
+        }
+        assertMatches(expected, map);
+
+        for (int k = 0; k < KEY_COUNT; k++)
+        {
+            long key = randomKey(random);
+            assertEquals(expected.containsKey(key), map.containsKey(key));
+            assertEquals((int)expected.getOrDefault(key, MISSING), map.get(key, MISSING));
+        }
+    }
+
+    @Test
+    public void putReplacesTheValue()
+    {
+        LongIntMap map = new LongIntMap();
+        map.put(42, 1);
+        map.put(42, 2);
+        assertEquals(1, map.size());
+        assertEquals(2, map.get(42, MISSING));
+    }
+
+    @Test
+    public void clearKeepsTheMapUsable()
+    {
+        Random random = new Random(SEED);
+        LongIntMap map = new LongIntMap();
+        for (int k = 0; k < 1000; k++) { map.put(randomKey(random), k); }
+        map.clear();
+        assertEquals(0, map.size());
+        assertFalse(map.containsKey(PositionKey.of(Flight.APPLETON_TOWER)));
+
+        map.put(PositionKey.of(Flight.APPLETON_TOWER), 7);
+        assertEquals(7, map.get(PositionKey.of(Flight.APPLETON_TOWER), MISSING));
+        assertEquals(1, map.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptySlotMarkerCannotBePut()
+    {
+        new LongIntMap().put(Long.MIN_VALUE, 1);
+    }
+
+    @Test
+    public void emptySlotMarkerIsNeverFound()
+    {
+        LongIntMap map = new LongIntMap();
+        assertFalse(map.containsKey(Long.MIN_VALUE));
+        assertEquals(MISSING, map.get(Long.MIN_VALUE, MISSING));
+        map.put(0, 1);
+        assertFalse(map.containsKey(Long.MIN_VALUE));
+        assertEquals(MISSING, map.get(Long.MIN_VALUE, MISSING));
+    }
+}
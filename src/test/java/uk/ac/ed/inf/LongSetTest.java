@@ -0,0 +1,83 @@
+package uk.ac.ed.inf;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that LongSet gives the same answers as a HashSet as it grows.
+ */
+public class LongSetTest
+{
+    private static final long SEED = 0x5EED;
+    // enough keys for the table to be resized many times over
+    private static final int KEY_COUNT = 20000;
+
+    /**
+     * Builds a key: either a random long, or the key of a position on a lattice of nearby points, which the hash has to
+     * spread over the table.
+     */
+    private static long randomKey(Random random)
+    {
+        if (random.nextBoolean()) { return random.nextLong(); }
+        return PositionKey.of(LongLat.MINIMUM_LONGITUDE + (random.nextInt(200) - 100) * LongLat.CLOSE_DISTANCE,
+                LongLat.MINIMUM_LATITUDE + random.nextInt(200) * LongLat.CLOSE_DISTANCE);
+    }
+
+    @Test
+    public void addAndContainsMatchHashSetAcrossResizes()
+    {
+        Random random = new Random(SEED);
+        Set<Long> expected = new HashSet<>();
+        LongSet set = new LongSet();
+        for (int k = 0; k < KEY_COUNT; k++)
+        {
+            long key = randomKey(random);
+            assertEquals(expected.add(key), set.add(key));
+            assertEquals(expected.size(), set.size());
+        }
+        for (long key : expected) { assertTrue(set.contains(key)); }
+
+        for (int k = 0; k < KEY_COUNT; k++)
+        {
+            long key = randomKey(random);
+            assertEquals(expected.contains(key), set.contains(key));
+        }
+    }
+
+    @Test
+    public void clearKeepsTheSetUsable()
+    {
+        Random random = new Random(SEED);
+        LongSet set = new LongSet();
+        for (int k = 0; k < 1000; k++) { set.add(randomKey(random)); }
+        set.clear();
+        assertEquals(0, set.size());
+        assertFalse(set.contains(PositionKey.of(Flight.APPLETON_TOWER)));
+
+        assertTrue(set.add(PositionKey.of(Flight.APPLETON_TOWER)));
+        assertFalse(set.add(PositionKey.of(Flight.APPLETON_TOWER)));
+        assertEquals(1, set.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptySlotMarkerCannotBeAdded()
+    {
+        new LongSet().add(Long.MIN_VALUE);
+    }
+
+    @Test
+    public void emptySlotMarkerIsNeverFound()
+    {
+        LongSet set = new LongSet();
+        assertFalse(set.contains(Long.MIN_VALUE));
+        set.add(0);
+        assertFalse(set.contains(Long.MIN_VALUE));
+    }
+}
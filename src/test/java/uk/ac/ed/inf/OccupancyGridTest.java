@@ -0,0 +1,159 @@
+package uk.ac.ed.inf;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that OccupancyGrid.moveIsClear never reports a move as clear when testing each edge in turn with
+ * Airspace.linesIntersect finds a crossing.
+ */
+public class OccupancyGridTest
+{
+    private static final long SEED = 0x5EED;
+    private static final int EDGE_COUNT = 40;
+    // the longest edge, about the size of the no-fly-zones around George Square
+    private static final double EDGE_LENGTH = 0.0008;
+    private static final int MOVE_COUNT = 20000;
+
+    /**
+     * A set of edges, held both as an OccupancyGrid and as the arrays the reference loop runs over.
+     */
+    private static class Edges
+    {
+        private final double[] startLongs;
+        private final double[] startLats;
+        private final double[] endLongs;
+        private final double[] endLats;
+        private final OccupancyGrid grid;
+
+        Edges(double[] startLongs, double[] startLats, double[] endLongs, double[] endLats)
+        {
+            this.startLongs = startLongs;
+            this.startLats = startLats;
+            this.endLongs = endLongs;
+            this.endLats = endLats;
+            grid = new OccupancyGrid(startLongs, startLats, endLongs, endLats);
+        }
+
+        /**
+         * The reference answer: every edge tested in turn with linesIntersect.
+         */
+        boolean crossedByReference(LongLat point1, LongLat point2)
+        {
+            for (int e = 0; e < startLongs.length; e++)
+            {
+                if (Airspace.linesIntersect(point1, point2,
+                        new LongLat(startLongs[e], startLats[e]),
+                        new LongLat(endLongs[e], endLats[e])))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Builds short edges at random places in the confinement area. Each edge is made vertical or horizontal with the
+     * given probability.
+     */
+    private static Edges randomEdges(Random random, double axisAlignedShare)
+    {
+        double[] startLongs = new double[EDGE_COUNT];
+        double[] startLats = new double[EDGE_COUNT];
+        double[] endLongs = new double[EDGE_COUNT];
+        double[] endLats = new double[EDGE_COUNT];
+        for (int e = 0; e < EDGE_COUNT; e++)
+        {
+            startLongs[e] = randomLongitude(random);
+            startLats[e] = randomLatitude(random);
+            endLongs[e] = startLongs[e] + (random.nextDouble() - 0.5) * EDGE_LENGTH;
+            endLats[e] = startLats[e] + (random.nextDouble() - 0.5) * EDGE_LENGTH;
+            if (random.nextDouble() < axisAlignedShare)
+            {
+                if (random.nextBoolean()) { endLongs[e] = startLongs[e]; }
+                else { endLats[e] = startLats[e]; }
+            }
+        }
+        return new Edges(startLongs, startLats, endLongs, endLats);
+    }
+
+    private static double randomLongitude(Random random)
+    {
+        return LongLat.MINIMUM_LONGITUDE +
+                random.nextDouble() * (LongLat.MAXIMUM_LONGITUDE - LongLat.MINIMUM_LONGITUDE);
+    }
+
+    private static double randomLatitude(Random random)
+    {
+        return LongLat.MINIMUM_LATITUDE +
+                random.nextDouble() * (LongLat.MAXIMUM_LATITUDE - LongLat.MINIMUM_LATITUDE);
+    }
+
+    /**
+     * Checks random drone moves and random longer moves against random edges, returning how many the grid cleared.
+     */
+    private static int assertClearMovesAreNotCrossed(double axisAlignedShare)
+    {
+        Random random = new Random(SEED);
+        int clear = 0;
+        for (int set = 0; set < 10; set++)
+        {
+            Edges edges = randomEdges(random, axisAlignedShare);
+            for (int m = 0; m < MOVE_COUNT / 10; m++)
+            {
+                LongLat start = new LongLat(randomLongitude(random), randomLatitude(random));
+                LongLat end = m % 2 == 0 ?
+                        start.nextPosition(10 * random.nextInt(36)) :
+                        new LongLat(start.getLongitude() + (random.nextDouble() - 0.5) * EDGE_LENGTH,
+                                start.getLatitude() + (random.nextDouble() - 0.5) * EDGE_LENGTH);
+                if (edges.grid.moveIsClear(start, end))
+                {
+                    clear++;
+                    assertFalse("move " + start + " -> " + end, edges.crossedByReference(start, end));
+                }
+            }
+        }
+        return clear;
+    }
+
+    @Test
+    public void clearMovesAreNotCrossed()
+    {
+        assertTrue(assertClearMovesAreNotCrossed(0) > MOVE_COUNT / 2);
+    }
+
+    @Test
+    public void clearMovesAreNotCrossedByAxisAlignedEdges()
+    {
+        assertTrue(assertClearMovesAreNotCrossed(0.75) > MOVE_COUNT / 4);
+    }
+
+    @Test
+    public void verticalEdgesBlockTheirWholeColumn()
+    {
+        // linesIntersect reports any sloped move that straddles a vertical edge's longitude, wherever the edge lies
+        Edges edges = new Edges(new double[]{-3.187}, new double[]{55.944}, new double[]{-3.187}, new double[]{55.945});
+        LongLat start = new LongLat(-3.18705, 55.9455);
+        LongLat end = new LongLat(-3.18695, 55.9456);
+        assertTrue(edges.crossedByReference(start, end));
+        assertFalse(edges.grid.moveIsClear(start, end));
+    }
+
+    @Test
+    public void verticalMovesAreNeverClear()
+    {
+        Edges edges = new Edges(new double[]{-3.19}, new double[]{55.9455}, new double[]{-3.185}, new double[]{55.945});
+        LongLat start = new LongLat(-3.1875, 55.9430);
+        for (int angle : new int[]{90, 270})
+        {
+            LongLat end = start.nextPosition(angle);
+            assertTrue(edges.crossedByReference(start, end));
+            assertFalse(edges.grid.moveIsClear(start, end));
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package uk.ac.ed.inf;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * Tests that PositionKey packs positions, including those west or south of the confinement area, into keys that
+ * convert back to the same position.
+ */
+public class PositionKeyTest
+{
+    private static final long SEED = 0x5EED;
+    private static final int POINT_COUNT = 10000;
+
+    private static void assertRoundTrip(double longitude, double latitude)
+    {
+        long key = PositionKey.of(longitude, latitude);
+        assertEquals(longitude, PositionKey.longitude(key), PositionKey.QUANTUM);
+        assertEquals(latitude, PositionKey.latitude(key), PositionKey.QUANTUM);
+
+        LongLat point = PositionKey.toLongLat(key);
+        assertEquals(key, PositionKey.of(point));
+        assertEquals(longitude, point.getLongitude(), PositionKey.QUANTUM);
+        assertEquals(latitude, point.getLatitude(), PositionKey.QUANTUM);
+    }
+
+    @Test
+    public void positionsInTheConfinementAreaRoundTrip()
+    {
+        Random random = new Random(SEED);
+        for (int p = 0; p < POINT_COUNT; p++)
+        {
+            double longitude = LongLat.MINIMUM_LONGITUDE +
+                    random.nextDouble() * (LongLat.MAXIMUM_LONGITUDE - LongLat.MINIMUM_LONGITUDE);
+            double latitude = LongLat.MINIMUM_LATITUDE +
+                    random.nextDouble() * (LongLat.MAXIMUM_LATITUDE - LongLat.MINIMUM_LATITUDE);
+            assertRoundTrip(longitude, latitude);
+        }
+    }
+
+    @Test
+    public void negativeOffsetsRoundTrip()
+    {
+        // positions west or south of the south-west corner have negative offsets in one or both halves of the key
+        Random random = new Random(SEED);
+        for (int p = 0; p < POINT_COUNT; p++)
+        {
+            double longitude = LongLat.MINIMUM_LONGITUDE + (random.nextDouble() - 0.5) * 2;
+            double latitude = LongLat.MINIMUM_LATITUDE + (random.nextDouble() - 0.5) * 2;
+            assertRoundTrip(longitude, latitude);
+        }
+        assertRoundTrip(LongLat.MINIMUM_LONGITUDE - PositionKey.QUANTUM, LongLat.MINIMUM_LATITUDE);
+        assertRoundTrip(LongLat.MINIMUM_LONGITUDE, LongLat.MINIMUM_LATITUDE - PositionKey.QUANTUM);
+        assertRoundTrip(LongLat.MINIMUM_LONGITUDE - 1, LongLat.MINIMUM_LATITUDE - 1);
+    }
+
+    @Test
+    public void roundingErrorGivesTheSameKey()
+    {
+        LongLat start = Flight.APPLETON_TOWER;
+        LongLat there = start.nextPosition(40).nextPosition(170).nextPosition(300);
+        LongLat back = there.nextPosition(120).nextPosition(350).nextPosition(220);
+        assertEquals(PositionKey.of(start), PositionKey.of(back));
+        assertNotEquals(PositionKey.of(start), PositionKey.of(start.nextPosition(0)));
+    }
+
+    @Test
+    public void neighbouringUnitsGiveDifferentKeys()
+    {
+        long key = PositionKey.of(Flight.APPLETON_TOWER);
+        double longitude = PositionKey.longitude(key);
+        double latitude = PositionKey.latitude(key);
+        assertNotEquals(key, PositionKey.of(longitude + PositionKey.QUANTUM, latitude));
+        assertNotEquals(key, PositionKey.of(longitude, latitude + PositionKey.QUANTUM));
+        assertNotEquals(key, PositionKey.of(longitude, latitude - PositionKey.QUANTUM));
+        assertNotEquals(PositionKey.of(longitude, latitude - PositionKey.QUANTUM),
+                PositionKey.of(longitude - PositionKey.QUANTUM, latitude));
+    }
+}